@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package net.bancer.sparkdict.domain.core.test;
+
+import net.bancer.sparkdict.domain.core.ArticleCache;
+import net.bancer.sparkdict.domain.parsers.SpanBuilder;
+import net.bancer.sparkdict.domain.parsers.SpannedText;
+import junit.framework.TestCase;
+
+/**
+ * @author valera
+ *
+ */
+public class ArticleCacheTest extends TestCase {
+
+	private static final String BOOK_ID = "/sdcard/dictdata/mueller";
+
+	private ArticleCache cache;
+
+	/**
+	 * @param name
+	 */
+	public ArticleCacheTest(String name) {
+		super(name);
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		super.setUp();
+		cache = new ArticleCache(10, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		cache = null;
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.ArticleCache#get(java.lang.String, long, int)}.
+	 */
+	public void testGet() {
+		SpannedText definitions = spanned("abcde");
+		assertNull(cache.get(BOOK_ID, 0, 5));
+		cache.put(BOOK_ID, 0, 5, definitions);
+		assertSame(definitions, cache.get(BOOK_ID, 0, 5));
+		assertNull(cache.get(BOOK_ID, 0, 6));
+		assertNull(cache.get(BOOK_ID + "2", 0, 5));
+		assertEquals(1, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.ArticleCache#put(java.lang.String, long, int, net.bancer.sparkdict.domain.parsers.SpannedText)}.
+	 */
+	public void testLeastRecentlyUsedArticleIsEvicted() {
+		cache.put(BOOK_ID, 0, 5, spanned("abcde"));
+		cache.put(BOOK_ID, 5, 5, spanned("fghij"));
+		cache.get(BOOK_ID, 0, 5);
+		cache.put(BOOK_ID, 10, 10, spanned("<b>k</b>lm"));
+		assertNull(cache.get(BOOK_ID, 5, 5));
+		assertEquals("abcde", cache.get(BOOK_ID, 0, 5).getText());
+		// the text length plus the span
+		assertEquals(9, cache.getSize());
+
+		cache.put(BOOK_ID, 20, 17, spanned("<b>nopqrstuvw</b>"));
+		assertNull(cache.get(BOOK_ID, 20, 17));
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.ArticleCache#remove(java.lang.String)}.
+	 */
+	public void testRemove() {
+		cache.put(BOOK_ID, 0, 5, spanned("abcde"));
+		cache.put(BOOK_ID + "2", 0, 5, spanned("abcde"));
+		cache.remove(BOOK_ID);
+		assertNull(cache.get(BOOK_ID, 0, 5));
+		assertEquals(5, cache.getSize());
+
+		try {
+			new ArticleCache(-1, true);
+			fail("Expected exception IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// test passed
+		}
+	}
+
+	private static SpannedText spanned(String html) {
+		return new SpanBuilder().append(html).build();
+	}
+}
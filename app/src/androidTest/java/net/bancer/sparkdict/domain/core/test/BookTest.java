@@ -6,12 +6,17 @@ package net.bancer.sparkdict.domain.core.test;
 import java.io.File;
 import java.util.Iterator;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import net.bancer.sparkdict.domain.core.ArticleCache;
 import net.bancer.sparkdict.domain.core.Book;
 import net.bancer.sparkdict.domain.core.BookInfo;
 import net.bancer.sparkdict.domain.core.IndexEntriesIterator;
 import net.bancer.sparkdict.domain.core.IndexEntry;
 import net.bancer.sparkdict.domain.core.LexicalEntry;
+import net.bancer.sparkdict.domain.core.SparkDictIndex;
+import net.bancer.sparkdict.domain.core.SparkDictSparseIndex;
+import net.bancer.sparkdict.domain.parsers.SpannedText;
 import net.bancer.sparkdict.domain.utils.DomainException;
 import net.bancer.sparkdict.mocks.Mocks;
 
@@ -148,6 +153,31 @@ public class BookTest extends TestCase {
 		assertEquals(expected, entry.getDefinitions());
 	}
 
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.Book#getLexicalEntry(java.lang.String)}
+	 * of the articles viewed recently.
+	 * @throws DomainException 
+	 */
+	public void testGetLexicalEntryFromCache() throws DomainException {
+		ArticleCache cache = ArticleCache.getInstance();
+		LexicalEntry entry = book.getLexicalEntry("15 May Organization");
+		SpannedText spanned = entry.getSpannedDefinitions();
+		long hits = cache.getHits();
+		LexicalEntry cached = book.getLexicalEntry("15 May Organization");
+		assertEquals(hits + 1, cache.getHits());
+		assertSame(spanned, cached.getSpannedDefinitions());
+		assertEquals(entry.getDefinitions(), cached.getDefinitions());
+
+		entry = book.getLexicalEntry("put away");
+		spanned = entry.getSpannedDefinitions();
+		hits = cache.getHits();
+		cached = book.getLexicalEntry("put away");
+		assertEquals(hits + 3, cache.getHits());
+		assertEquals(spanned.getText(), cached.getSpannedDefinitions().getText());
+		assertEquals(spanned.getSpansQuantity(), cached.getSpannedDefinitions().getSpansQuantity());
+		assertEquals(entry.getDefinitions(), cached.getDefinitions());
+	}
+
 	/**
 	 * Test method for {@link net.bancer.sparkdict.domain.core.Book#iterator()}.
 	 */
@@ -155,6 +185,33 @@ public class BookTest extends TestCase {
 		Iterator<IndexEntry> iterator = book.iterator();
 		assertNotNull(iterator);
 		assertTrue(iterator instanceof IndexEntriesIterator);
+		assertNotSame(iterator, book.iterator());
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.Book#iterator()}
+	 * after the indexes were rebuilt through another object.
+	 * @throws Exception
+	 */
+	public void testIteratorAfterIndexRebuilt() throws Exception {
+		BookInfo bookInfo = new BookInfo(Mocks.MUELLER_IFO_PATH);
+		Book mueller = new Book(new File(Mocks.MUELLER_IFO_PATH));
+		if(!mueller.isSparkDictIndexUpToDate()) {
+			new SparkDictIndex(bookInfo).buildIndex();
+		}
+		int step = ((IndexEntriesIterator) mueller.iterator()).getSparseIndexStep();
+		assertTrue(step > 0);
+		try {
+			new SparkDictSparseIndex(bookInfo, new SparkDictIndex(bookInfo,
+					SparkDictIndex.READ_MODE_IN_MEMORY), 1024).buildIndex();
+			int rebuiltStep = ((IndexEntriesIterator) mueller.iterator()).getSparseIndexStep();
+			assertTrue(rebuiltStep > step);
+		} finally {
+			new SparkDictSparseIndex(bookInfo, new SparkDictIndex(bookInfo,
+					SparkDictIndex.READ_MODE_IN_MEMORY),
+					SparkDictSparseIndex.DEFAULT_MEMORY_BUDGET).buildIndex();
+			mueller.close();
+		}
 	}
 
 	/**
@@ -185,4 +242,31 @@ public class BookTest extends TestCase {
 		assertNotNull(suggestions);
 		assertEquals("Собат", suggestions.get(0).getLemma());
 	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.Book#getLexicalEntry(java.lang.String)}
+	 * while the book is closed by another thread.
+	 * @throws Exception
+	 */
+	public void testGetLexicalEntryWhileClosing() throws Exception {
+		final String lemma = book.iterator().next().getLemma();
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread closer = new Thread() {
+			@Override
+			public void run() {
+				while(running.get()) {
+					book.close();
+				}
+			}
+		};
+		closer.start();
+		try {
+			for (int i = 0; i < 500; i++) {
+				assertNotNull(book.getLexicalEntry(lemma));
+			}
+		} finally {
+			running.set(false);
+			closer.join();
+		}
+	}
 }
@@ -0,0 +1,206 @@
+/**
+ *
+ */
+package net.bancer.sparkdict.domain.core.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import net.bancer.sparkdict.domain.core.Book;
+import net.bancer.sparkdict.domain.core.DictFile;
+import net.bancer.sparkdict.domain.core.DictZipFile;
+import net.bancer.sparkdict.domain.core.IndexEntry;
+import net.bancer.sparkdict.domain.core.LexicalEntry;
+import net.bancer.sparkdict.mocks.Mocks;
+import junit.framework.TestCase;
+
+/**
+ * @author valera
+ *
+ */
+public class DictFileTest extends TestCase {
+
+	private static final String TEST_PATH = Mocks.ROOT_PATH + "-dict-test";
+
+	private static final String BASE_PATH = TEST_PATH + "/Mueller7GPL";
+
+	private static final String DICT_PATH = BASE_PATH + Book.DICT_FILE_EXTENSION;
+
+	/**
+	 * Segment size which makes the articles cross the boundaries of the
+	 * mapped regions.
+	 */
+	private static final int SMALL_SEGMENT_SIZE = 4096;
+
+	private DictFile muellerDictFile;
+
+	private DictZipFile muellerDictZipFile;
+
+	/**
+	 * @param name
+	 */
+	public DictFileTest(String name) {
+		super(name);
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		super.setUp();
+		inflateFile(Mocks.MUELLER_BASE_PATH + Mocks.DICT_EXT, DICT_PATH);
+		muellerDictFile = new DictFile(DICT_PATH);
+		muellerDictZipFile = new DictZipFile(Mocks.MUELLER_BASE_PATH + Mocks.DICT_EXT);
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		muellerDictFile.close();
+		muellerDictZipFile.close();
+		muellerDictFile = null;
+		muellerDictZipFile = null;
+		Mocks.delete(new File(TEST_PATH));
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.DictFile#read(long, int)}.
+	 * @throws IOException
+	 */
+	public void testRead() throws IOException {
+		IndexEntry[] entries = {Mocks.MUELLER_INDEX_ENTRY_FIRST,
+				Mocks.MUELLER_INDEX_ENTRY_ABACUS, Mocks.MUELLER_INDEX_ENTRY_LAST};
+		for (int i = 0; i < entries.length; i++) {
+			long offset = entries[i].getWordDataOffset();
+			int size = entries[i].getWordDataSize();
+			byte[] data = muellerDictFile.read(offset, size);
+			assertEquals(size, data.length);
+			assertTrue(Arrays.equals(muellerDictZipFile.read(offset, size), data));
+		}
+		assertEquals(0, muellerDictFile.read(new File(DICT_PATH).length(), 0).length);
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.DictFile#read(long, int)}
+	 * of the data crossing the boundaries of the mapped regions.
+	 * @throws IOException
+	 */
+	public void testReadAcrossSegments() throws IOException {
+		DictFile segmented = new DictFile(DICT_PATH, SMALL_SEGMENT_SIZE);
+		try {
+			long length = new File(DICT_PATH).length();
+			long[] offsets = {0, SMALL_SEGMENT_SIZE - 1, SMALL_SEGMENT_SIZE,
+					3 * SMALL_SEGMENT_SIZE - 10, length - SMALL_SEGMENT_SIZE - 7};
+			int[] sizes = {SMALL_SEGMENT_SIZE, 2, 100, 3 * SMALL_SEGMENT_SIZE + 5,
+					SMALL_SEGMENT_SIZE + 7};
+			for (int i = 0; i < offsets.length; i++) {
+				byte[] expected = muellerDictFile.read(offsets[i], sizes[i]);
+				assertTrue(Arrays.equals(expected, segmented.read(offsets[i], sizes[i])));
+			}
+		} finally {
+			segmented.close();
+		}
+		try {
+			new DictFile(DICT_PATH, 0);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new DictFile(DICT_PATH, 1L << 31);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.DictFile#read(long, int)}
+	 * outside of the file.
+	 */
+	public void testReadOutOfBounds() {
+		long length = new File(DICT_PATH).length();
+		long[] offsets = {-1, 0, length - 10, length + 1};
+		int[] sizes = {10, -1, 11, 0};
+		for (int i = 0; i < offsets.length; i++) {
+			try {
+				muellerDictFile.read(offsets[i], sizes[i]);
+				fail("IOException expected");
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.DictFile#close()}.
+	 * @throws IOException
+	 */
+	public void testReadAfterClose() throws IOException {
+		muellerDictFile.close();
+		try {
+			muellerDictFile.read(0, 10);
+			fail("IOException expected");
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Test that {@link net.bancer.sparkdict.domain.core.Book} reads the
+	 * uncompressed <dictionary name>.dict file if <dictionary name>.dict.dz
+	 * file is present too.
+	 * @throws Exception
+	 */
+	public void testBookPrefersDictFile() throws Exception {
+		Mocks.copyFile(Mocks.MUELLER_IFO_PATH, BASE_PATH + Mocks.IFO_EXT);
+		Mocks.copyFile(Mocks.MUELLER_BASE_PATH + Mocks.IDX_EXT, BASE_PATH + Mocks.IDX_EXT);
+		Mocks.copyFile(Mocks.MUELLER_BASE_PATH + Mocks.DICT_EXT, BASE_PATH + Mocks.DICT_EXT);
+		IndexEntry entry = Mocks.MUELLER_INDEX_ENTRY_ABADDON;
+		// the article differs from the one in the compressed file
+		byte[] marker = new byte[entry.getWordDataSize()];
+		Arrays.fill(marker, (byte) 'X');
+		RandomAccessFile dict = new RandomAccessFile(DICT_PATH, "rw");
+		try {
+			dict.seek(entry.getWordDataOffset());
+			dict.write(marker);
+		} finally {
+			dict.close();
+		}
+		Book book = new Book(new File(BASE_PATH + Mocks.IFO_EXT));
+		try {
+			LexicalEntry lexicalEntry = book.getLexicalEntry(entry.getLemma());
+			assertNotNull(lexicalEntry);
+			assertTrue(lexicalEntry.getDefinitions().indexOf(new String(marker, "UTF8")) >= 0);
+		} finally {
+			book.close();
+		}
+	}
+
+	/**
+	 * Decompresses <dictionary name>.dict.dz file into <dictionary name>.dict
+	 * file. Dictzip files are gzip files, so they can be read sequentially
+	 * by GZIPInputStream.
+	 */
+	private static void inflateFile(String source, String destination) throws IOException {
+		new File(destination).getParentFile().mkdirs();
+		InputStream input = new GZIPInputStream(new FileInputStream(source));
+		OutputStream output = new FileOutputStream(destination);
+		try {
+			byte[] buffer = new byte[65536];
+			int sizeRead = input.read(buffer);
+			while(sizeRead > 0) {
+				output.write(buffer, 0, sizeRead);
+				sizeRead = input.read(buffer);
+			}
+		} finally {
+			input.close();
+			output.close();
+		}
+	}
+}
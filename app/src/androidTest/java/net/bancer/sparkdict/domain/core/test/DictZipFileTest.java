@@ -0,0 +1,213 @@
+/**
+ *
+ */
+package net.bancer.sparkdict.domain.core.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.bancer.sparkdict.domain.core.DictZipFile;
+import net.bancer.sparkdict.domain.core.FileHandlePool;
+import net.bancer.sparkdict.domain.core.IndexEntry;
+import net.bancer.sparkdict.mocks.Mocks;
+import junit.framework.TestCase;
+
+/**
+ * @author valera
+ *
+ */
+public class DictZipFileTest extends TestCase {
+
+	private static final String COPY_PATH = Mocks.MUELLER_BASE_PATH + ".copy" + Mocks.DICT_EXT;
+
+	private DictZipFile muellerDictZipFile;
+
+	/**
+	 * @param name
+	 */
+	public DictZipFileTest(String name) {
+		super(name);
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		super.setUp();
+		muellerDictZipFile = new DictZipFile(Mocks.MUELLER_BASE_PATH + Mocks.DICT_EXT);
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		muellerDictZipFile.close();
+		muellerDictZipFile = null;
+		new File(COPY_PATH).delete();
+		new File(COPY_PATH + ".tmp").delete();
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.DictZipFile#replaceIfClosed(java.io.File, java.lang.String)}.
+	 * @throws IOException
+	 */
+	public void testReplaceIfClosed() throws IOException {
+		String source = Mocks.MUELLER_BASE_PATH + Mocks.DICT_EXT;
+		File temporaryFile = new File(COPY_PATH + ".tmp");
+		Mocks.copyFile(source, COPY_PATH);
+		DictZipFile copy = new DictZipFile(COPY_PATH);
+		Mocks.copyFile(source, temporaryFile.getPath());
+		try {
+			DictZipFile.replaceIfClosed(temporaryFile, COPY_PATH);
+			fail("Expected exception IOException");
+		} catch (IOException e) {
+			// test passed
+		}
+		assertFalse(temporaryFile.exists());
+		copy.close();
+
+		Mocks.copyFile(source, temporaryFile.getPath());
+		DictZipFile.replaceIfClosed(temporaryFile, COPY_PATH);
+		assertFalse(temporaryFile.exists());
+		assertEquals(new File(source).length(), new File(COPY_PATH).length());
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.DictZipFile#read(long, int)}.
+	 * @throws IOException
+	 */
+	public void testRead() throws IOException {
+		IndexEntry entry = Mocks.MUELLER_INDEX_ENTRY_ABACUS;
+		byte[] data = muellerDictZipFile.read(entry.getWordDataOffset(), entry.getWordDataSize());
+		assertEquals(entry.getWordDataSize(), data.length);
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.DictZipFile#getCacheHits()}
+	 * and {@link net.bancer.sparkdict.domain.core.DictZipFile#getCacheMisses()}.
+	 * @throws IOException
+	 */
+	public void testCache() throws IOException {
+		IndexEntry entry = Mocks.MUELLER_INDEX_ENTRY_ABADDON;
+		byte[] first = muellerDictZipFile.read(entry.getWordDataOffset(), entry.getWordDataSize());
+		long misses = muellerDictZipFile.getCacheMisses();
+		assertTrue(misses > 0);
+		assertEquals(0, muellerDictZipFile.getCacheHits());
+
+		byte[] second = muellerDictZipFile.read(entry.getWordDataOffset(), entry.getWordDataSize());
+		assertEquals(misses, muellerDictZipFile.getCacheMisses());
+		assertEquals(misses, muellerDictZipFile.getCacheHits());
+		assertEquals(new String(first, "UTF8"), new String(second, "UTF8"));
+
+		DictZipFile uncached = new DictZipFile(Mocks.MUELLER_BASE_PATH + Mocks.DICT_EXT, 0);
+		uncached.read(entry.getWordDataOffset(), entry.getWordDataSize());
+		uncached.read(entry.getWordDataOffset(), entry.getWordDataSize());
+		assertEquals(0, uncached.getCacheHits());
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.DictZipFile#setParallelThreshold(int)}.
+	 * @throws IOException
+	 */
+	public void testReadParallel() throws IOException {
+		int size = 256 * 1024;
+		muellerDictZipFile.setParallelThreshold(0);
+		byte[] sequential = muellerDictZipFile.read(0, size);
+
+		DictZipFile parallel = new DictZipFile(Mocks.MUELLER_BASE_PATH + Mocks.DICT_EXT, 0);
+		parallel.setParallelThreshold(2);
+		assertTrue(Arrays.equals(sequential, parallel.read(0, size)));
+		parallel.close();
+
+		try {
+			muellerDictZipFile.setParallelThreshold(-1);
+			fail("Expected exception IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// test passed
+		}
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.DictZipFile#setMaxReadahead(int)}.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void testReadahead() throws IOException, InterruptedException {
+		long end = 4L * muellerDictZipFile.getChunkLength();
+		readSequentially(muellerDictZipFile, end);
+		muellerDictZipFile.awaitReadahead();
+		long misses = muellerDictZipFile.getCacheMisses();
+		// the chunk following the read range has been inflated ahead
+		muellerDictZipFile.read(end, 10);
+		assertEquals(misses, muellerDictZipFile.getCacheMisses());
+
+		DictZipFile withoutReadahead = new DictZipFile(Mocks.MUELLER_BASE_PATH + Mocks.DICT_EXT);
+		withoutReadahead.setMaxReadahead(0);
+		readSequentially(withoutReadahead, end);
+		withoutReadahead.awaitReadahead();
+		misses = withoutReadahead.getCacheMisses();
+		withoutReadahead.read(end, 10);
+		assertEquals(misses + 1, withoutReadahead.getCacheMisses());
+		withoutReadahead.close();
+
+		// repeated lookups in the same chunk are random reads
+		DictZipFile repeated = new DictZipFile(Mocks.MUELLER_BASE_PATH + Mocks.DICT_EXT);
+		for (int i = 0; i < 8; i++) {
+			repeated.read(0, 10);
+		}
+		repeated.awaitReadahead();
+		misses = repeated.getCacheMisses();
+		repeated.read(repeated.getChunkLength(), 10);
+		assertEquals(misses + 1, repeated.getCacheMisses());
+		repeated.close();
+
+		try {
+			muellerDictZipFile.setMaxReadahead(-1);
+			fail("Expected exception IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// test passed
+		}
+	}
+
+	/**
+	 * Reads the file from the start to the given offset in small steps.
+	 */
+	private static void readSequentially(DictZipFile dictZipFile, long end)
+			throws IOException {
+		int size = 1000;
+		for (long offset = 0; offset < end; offset += size) {
+			int length = (int) Math.min(size, end - offset);
+			assertEquals(length, dictZipFile.read(offset, length).length);
+		}
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.DictZipFile#close()}
+	 * while chunks are inflated ahead.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void testCloseDuringReadahead() throws IOException, InterruptedException {
+		String fileName = Mocks.MUELLER_BASE_PATH + Mocks.DICT_EXT;
+		FileHandlePool pool = FileHandlePool.getInstance();
+		pool.close(fileName);
+		int openFiles = pool.getOpenFilesQuantity();
+		DictZipFile dictZipFile = new DictZipFile(fileName);
+		int size = 1000;
+		for (int i = 0; i < 8; i++) {
+			dictZipFile.read((long) i * size, size);
+		}
+		dictZipFile.close();
+		dictZipFile.awaitReadahead();
+		// the queued readahead must not reopen the file of the closed dictionary
+		assertEquals(openFiles, pool.getOpenFilesQuantity());
+		try {
+			dictZipFile.read(0, size);
+			fail("Expected exception IOException");
+		} catch (IOException e) {
+			// test passed
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ *
+ */
+package net.bancer.sparkdict.domain.core.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.bancer.sparkdict.domain.core.BookInfo;
+import net.bancer.sparkdict.domain.core.DictZipFile;
+import net.bancer.sparkdict.domain.core.DictZipRepacker;
+import net.bancer.sparkdict.domain.core.IndexEntry;
+import net.bancer.sparkdict.domain.core.RepackReport;
+import net.bancer.sparkdict.domain.core.StarDictIndex;
+import net.bancer.sparkdict.mocks.Mocks;
+import junit.framework.TestCase;
+
+/**
+ * @author valera
+ *
+ */
+public class DictZipRepackerTest extends TestCase {
+
+	private static final String REPACKED_PATH = Mocks.MUELLER_BASE_PATH + ".repacked" + Mocks.DICT_EXT;
+
+	private static final String GZIP_TEST_PATH = Mocks.ROOT_PATH + "-repack-test";
+
+	private static final String GZIP_BASE_PATH = GZIP_TEST_PATH + "/Mueller7GPL";
+
+	/**
+	 * @param name
+	 */
+	public DictZipRepackerTest(String name) {
+		super(name);
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		new File(REPACKED_PATH).delete();
+		Mocks.delete(new File(GZIP_TEST_PATH));
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.DictZipRepacker#repack(java.lang.String)}.
+	 * @throws IOException
+	 */
+	public void testRepack() throws IOException {
+		DictZipRepacker repacker = new DictZipRepacker(new BookInfo(Mocks.MUELLER_IFO_PATH), 4096, true);
+		RepackReport report = repacker.repack(REPACKED_PATH);
+		assertTrue(report.getChunkLength() <= 4096);
+		assertTrue(report.getChunksQuantity() > 0);
+		assertEquals(new File(REPACKED_PATH).length(), report.getCompressedSize());
+
+		IndexEntry entry = Mocks.MUELLER_INDEX_ENTRY_ABACUS;
+		DictZipFile original = new DictZipFile(Mocks.MUELLER_BASE_PATH + Mocks.DICT_EXT);
+		DictZipFile repacked = new DictZipFile(REPACKED_PATH);
+		byte[] expected = original.read(entry.getWordDataOffset(), entry.getWordDataSize());
+		byte[] actual = repacked.read(entry.getWordDataOffset(), entry.getWordDataSize());
+		assertTrue(Arrays.equals(expected, actual));
+		original.close();
+		repacked.close();
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.DictZipRepacker#repack(java.lang.String)}
+	 * comparing every article with and without the alignment.
+	 * @throws IOException
+	 */
+	public void testRepackAlignment() throws IOException {
+		BookInfo bookInfo = new BookInfo(Mocks.MUELLER_IFO_PATH);
+		RepackReport aligned = new DictZipRepacker(bookInfo, 4096, true).repack(REPACKED_PATH);
+		assertAllArticlesEqual(bookInfo, REPACKED_PATH);
+		RepackReport unaligned = new DictZipRepacker(bookInfo, 4096, false).repack(REPACKED_PATH);
+		assertEquals(4096, unaligned.getChunkLength());
+		assertAllArticlesEqual(bookInfo, REPACKED_PATH);
+		assertTrue(aligned.getAverageChunksPerArticle() <= unaligned.getAverageChunksPerArticle());
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.DictZipRepacker#repack(java.lang.String)}
+	 * of a plain gzip file without the random access table replacing the
+	 * source file.
+	 * @throws IOException
+	 */
+	public void testRepackGzip() throws IOException {
+		new File(GZIP_TEST_PATH).mkdirs();
+		Mocks.copyFile(Mocks.MUELLER_IFO_PATH, GZIP_BASE_PATH + Mocks.IFO_EXT);
+		Mocks.copyFile(Mocks.MUELLER_BASE_PATH + Mocks.IDX_EXT, GZIP_BASE_PATH + Mocks.IDX_EXT);
+		String gzipPath = GZIP_BASE_PATH + Mocks.DICT_EXT;
+		InputStream in = new GZIPInputStream(new FileInputStream(Mocks.MUELLER_BASE_PATH + Mocks.DICT_EXT));
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipPath));
+		try {
+			byte[] buffer = new byte[65536];
+			int sizeRead = in.read(buffer);
+			while(sizeRead > 0) {
+				out.write(buffer, 0, sizeRead);
+				sizeRead = in.read(buffer);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+		BookInfo bookInfo = new BookInfo(GZIP_BASE_PATH + Mocks.IFO_EXT);
+		RepackReport report = new DictZipRepacker(bookInfo, 8192, true).repack(gzipPath);
+		assertEquals(new File(gzipPath).length(), report.getCompressedSize());
+		assertAllArticlesEqual(bookInfo, gzipPath);
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.DictZipRepacker#repack(java.lang.String)}
+	 * of the file read by an open dictionary.
+	 * @throws IOException
+	 */
+	public void testRepackFileInUse() throws IOException {
+		DictZipRepacker repacker = new DictZipRepacker(new BookInfo(Mocks.MUELLER_IFO_PATH), 4096, false);
+		repacker.repack(REPACKED_PATH);
+		DictZipFile repacked = new DictZipFile(REPACKED_PATH);
+		try {
+			repacker.repack(REPACKED_PATH);
+			fail("Expected exception IOException");
+		} catch (IOException e) {
+			// test passed
+		}
+		assertFalse(new File(REPACKED_PATH + ".tmp").exists());
+		repacked.close();
+		repacker.repack(REPACKED_PATH);
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.DictZipRepacker#DictZipRepacker(BookInfo, int, boolean)}.
+	 */
+	public void testInvalidChunkLength() {
+		try {
+			new DictZipRepacker(new BookInfo(Mocks.MUELLER_IFO_PATH), 0xFFFF, false);
+			fail("Expected exception IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// test passed
+		}
+	}
+
+	/**
+	 * Compares every article listed in <dictionary name>.idx file read from
+	 * the repacked file with the article read from the original Mueller file.
+	 */
+	private static void assertAllArticlesEqual(BookInfo bookInfo, String repackedPath)
+			throws IOException {
+		StarDictIndex index = new StarDictIndex(bookInfo, StarDictIndex.READ_MODE_MAPPED);
+		DictZipFile original = new DictZipFile(Mocks.MUELLER_BASE_PATH + Mocks.DICT_EXT);
+		DictZipFile repacked = new DictZipFile(repackedPath);
+		try {
+			long end = new File(index.getFileName()).length();
+			long position = 0;
+			int count = 0;
+			while(position < end) {
+				IndexEntry entry = index.retrieveIndexEntry(position);
+				byte[] expected = original.read(entry.getWordDataOffset(), entry.getWordDataSize());
+				byte[] actual = repacked.read(entry.getWordDataOffset(), entry.getWordDataSize());
+				assertTrue(entry.getLemma(), Arrays.equals(expected, actual));
+				position += entry.getLengthInBytes();
+				count++;
+			}
+			assertEquals(bookInfo.getWordCount(), count);
+		} finally {
+			original.close();
+			repacked.close();
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/**
+ *
+ */
+package net.bancer.sparkdict.domain.core.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+
+import net.bancer.sparkdict.domain.core.FileHandlePool;
+import net.bancer.sparkdict.mocks.Mocks;
+import junit.framework.TestCase;
+
+/**
+ * @author valera
+ *
+ */
+public class FileHandlePoolTest extends TestCase {
+
+	private static final String IFO_FILE = Mocks.MUELLER_IFO_PATH;
+
+	private static final String IDX_FILE = Mocks.MUELLER_BASE_PATH + Mocks.IDX_EXT;
+
+	private static final String REPLACED_FILE = Mocks.ROOT_PATH + "/pool-test.txt";
+
+	private FileHandlePool pool;
+
+	/**
+	 * @param name
+	 */
+	public FileHandlePoolTest(String name) {
+		super(name);
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		super.setUp();
+		pool = new FileHandlePool(1);
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		pool.close(IFO_FILE);
+		pool.close(IDX_FILE);
+		pool.close(REPLACED_FILE);
+		pool = null;
+		new File(REPLACED_FILE).delete();
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.FileHandlePool#acquire(java.lang.String)}.
+	 * @throws IOException
+	 */
+	public void testAcquire() throws IOException {
+		FileChannel channel = pool.acquire(IFO_FILE);
+		assertSame(channel, pool.acquire(IFO_FILE));
+		pool.release(channel);
+		pool.release(channel);
+		assertEquals(1, pool.getOpenFilesQuantity());
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.FileHandlePool#release(java.nio.channels.FileChannel)}.
+	 * @throws IOException
+	 */
+	public void testLeastRecentlyUsedFileIsClosed() throws IOException {
+		FileChannel ifo = pool.acquire(IFO_FILE);
+		FileChannel idx = pool.acquire(IDX_FILE);
+		// both files are read, none of them can be closed
+		assertEquals(2, pool.getOpenFilesQuantity());
+		pool.release(ifo);
+		assertEquals(1, pool.getOpenFilesQuantity());
+		assertFalse(ifo.isOpen());
+		assertTrue(idx.isOpen());
+		pool.release(idx);
+		assertEquals(1, pool.getOpenFilesQuantity());
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.FileHandlePool#close(java.lang.String)}.
+	 * @throws IOException
+	 */
+	public void testClose() throws IOException {
+		FileChannel channel = pool.acquire(IFO_FILE);
+		pool.close(IFO_FILE);
+		assertTrue(channel.isOpen());
+		pool.release(channel);
+		assertFalse(channel.isOpen());
+		assertEquals(0, pool.getOpenFilesQuantity());
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.FileHandlePool#close(java.lang.String)}
+	 * of a file replaced while another reader still holds it.
+	 * @throws IOException
+	 */
+	public void testCloseReplacedFileWhileRead() throws IOException {
+		File file = new File(REPLACED_FILE);
+		File replacement = new File(REPLACED_FILE + ".tmp");
+		writeFile(file, "old");
+		FileChannel oldChannel = pool.acquire(REPLACED_FILE);
+		writeFile(replacement, "new");
+		assertTrue(replacement.renameTo(file));
+		pool.close(REPLACED_FILE);
+
+		FileChannel newChannel = pool.acquire(REPLACED_FILE);
+		assertNotSame(oldChannel, newChannel);
+		assertEquals("new", readFile(newChannel));
+		assertEquals("old", readFile(oldChannel));
+		pool.release(newChannel);
+		assertTrue(oldChannel.isOpen());
+		pool.release(oldChannel);
+		assertFalse(oldChannel.isOpen());
+		assertTrue(newChannel.isOpen());
+		assertEquals(1, pool.getOpenFilesQuantity());
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.FileHandlePool#read(java.lang.String, net.bancer.sparkdict.domain.core.FileHandlePool.Reader)}
+	 * when the shared channel is closed by another reader.
+	 * @throws IOException
+	 */
+	public void testReadAfterChannelClosed() throws IOException {
+		final int[] calls = {0};
+		int sizeRead = pool.read(IFO_FILE, new FileHandlePool.Reader<Integer>() {
+			@Override
+			public Integer read(FileChannel channel) throws IOException {
+				calls[0]++;
+				if(calls[0] == 1) {
+					// the channel is closed by an interrupted reading thread
+					channel.close();
+				}
+				return channel.read(ByteBuffer.allocate(10), 0);
+			}
+		});
+		assertEquals(10, sizeRead);
+		assertEquals(2, calls[0]);
+		assertEquals(1, pool.getOpenFilesQuantity());
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.FileHandlePool#read(java.lang.String, net.bancer.sparkdict.domain.core.FileHandlePool.Reader)}
+	 * by an interrupted thread.
+	 * @throws IOException
+	 */
+	public void testReadInterrupted() throws IOException {
+		final int[] calls = {0};
+		Thread.currentThread().interrupt();
+		try {
+			pool.read(IFO_FILE, new FileHandlePool.Reader<Integer>() {
+				@Override
+				public Integer read(FileChannel channel) throws IOException {
+					calls[0]++;
+					return channel.read(ByteBuffer.allocate(10), 0);
+				}
+			});
+			fail("Expected exception ClosedByInterruptException");
+		} catch (ClosedByInterruptException e) {
+			// test passed
+		} finally {
+			Thread.interrupted();
+		}
+		assertEquals(1, calls[0]);
+	}
+
+	private static void writeFile(File file, String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String readFile(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+		channel.read(buffer, 0);
+		return new String(buffer.array(), "UTF8");
+	}
+}
@@ -4,11 +4,14 @@
 package net.bancer.sparkdict.domain.core.test;
 
 import java.io.File;
+import java.io.RandomAccessFile;
 
 import junit.framework.TestCase;
 import net.bancer.sparkdict.domain.core.BookInfo;
 import net.bancer.sparkdict.domain.core.IndexEntriesIterator;
 import net.bancer.sparkdict.domain.core.IndexEntry;
+import net.bancer.sparkdict.domain.core.SparkDictIndex;
+import net.bancer.sparkdict.domain.core.SparkDictSparseIndex;
 import net.bancer.sparkdict.domain.utils.DomainException;
 import net.bancer.sparkdict.mocks.Mocks;
 
@@ -60,6 +63,40 @@ public class IndexEntriesIteratorTest extends TestCase {
 		assertNotNull(iteratorMueller);
 	}
 
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.IndexEntriesIterator#IndexEntriesIterator(net.bancer.sparkdict.domain.core.BookInfo)}
+	 * with a stale SparkDictIndex.
+	 * @throws Exception 
+	 */
+	public void testIndexEntriesIteratorStaleIndex() throws Exception {
+		BookInfo bookInfo = new BookInfo(Mocks.MUELLER_IFO_PATH);
+		SparkDictIndex index = new SparkDictIndex(bookInfo);
+		if(!index.isUpToDate()) {
+			index.buildIndex();
+		}
+		String path = Mocks.MUELLER_BASE_PATH + SparkDictIndex.FILE_EXTENSION;
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		try {
+			file.setLength(file.length() - SparkDictIndex.INDEX_ENTRY_SIZE);
+		} finally {
+			file.close();
+		}
+		try {
+			IndexEntriesIterator iterator = new IndexEntriesIterator(bookInfo);
+			assertTrue(iterator.isStale());
+			assertFalse(iterator.hasFoldedIndex());
+			// the lookup neither rebuilds the index nor fails
+			assertFalse(index.isUpToDate());
+			IndexEntry entry = iterator.findIndexEntry(Mocks.MUELLER_INDEX_ENTRY_LAST.getLemma());
+			assertEquals(Mocks.MUELLER_INDEX_ENTRY_LAST.getLemma(), entry.getLemma());
+			assertEquals(Mocks.MUELLER_INDEX_ENTRY_LAST.getWordDataOffset(), entry.getWordDataOffset());
+			assertFalse(index.isUpToDate());
+		} finally {
+			index.buildIndex();
+		}
+		assertFalse(new IndexEntriesIterator(bookInfo).isStale());
+	}
+
 	/**
 	 * Test method for {@link net.bancer.sparkdict.domain.core.IndexEntriesIterator#hasNext()}.
 	 * @throws DomainException 
@@ -125,11 +162,13 @@ public class IndexEntriesIteratorTest extends TestCase {
 //		System.out.println("WordDataSize\t" + entry.getWordDataSize());
 //		System.out.println("LengthInBytes\t" + entry.getLengthInBytes());
 		
+		assertTrue(iteratorBSE.hasFoldedIndex());
+		
 		entry = iteratorBSE.nextSuggestion("собат");
-		assertNull(entry);
+		assertEquals("Собат", entry.getLemma());
 		
 		entry = iteratorBSE.nextSuggestion("СОБАТ");
-		assertNull(entry);
+		assertEquals("Собат", entry.getLemma());
 		
 		entry = iteratorBSE.nextSuggestion("...Биоз");
 		assertEquals("...Биоз", entry.getLemma());
@@ -153,10 +192,51 @@ public class IndexEntriesIteratorTest extends TestCase {
 		assertNotNull(entry);
 		assertEquals(Mocks.BSE_INDEX_ENTRY_SOBAT.getLemma(), entry.getLemma());
 	}
-	
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.IndexEntriesIterator#findIndexEntry(java.lang.String)}
+	 * with the sparse index built with a small memory budget.
+	 * @throws Exception
+	 */
+	public void testFindIndexEntrySmallMemoryBudget() throws Exception {
+		BookInfo bookInfo = new BookInfo(Mocks.MUELLER_IFO_PATH);
+		SparkDictIndex index = new SparkDictIndex(bookInfo);
+		if(!index.isUpToDate()) {
+			index.buildIndex();
+		}
+		try {
+			new SparkDictSparseIndex(bookInfo, new SparkDictIndex(bookInfo,
+					SparkDictIndex.READ_MODE_IN_MEMORY), 1024).buildIndex();
+			IndexEntriesIterator iterator = new IndexEntriesIterator(bookInfo);
+			long idxSize = new File(Mocks.MUELLER_BASE_PATH + Mocks.IDX_EXT).length();
+			assertEquals((idxSize + 1023) / 1024, iterator.getSparseIndexStep());
+			assertSmallMemoryBudgetLookups(iterator);
+		} finally {
+			new SparkDictSparseIndex(bookInfo, new SparkDictIndex(bookInfo,
+					SparkDictIndex.READ_MODE_IN_MEMORY),
+					SparkDictSparseIndex.DEFAULT_MEMORY_BUDGET).buildIndex();
+		}
+	}
+
+	private static void assertSmallMemoryBudgetLookups(IndexEntriesIterator iterator)
+			throws DomainException {
+		IndexEntry entry = iterator.findIndexEntry(Mocks.MUELLER_INDEX_ENTRY_ABADDON.getLemma());
+		assertEquals(Mocks.MUELLER_INDEX_ENTRY_ABADDON.getLemma(), entry.getLemma());
+		assertEquals(Mocks.MUELLER_INDEX_ENTRY_ABADDON.getWordDataOffset(), entry.getWordDataOffset());
+
+		entry = iterator.findIndexEntry(Mocks.MUELLER_INDEX_ENTRY_a.getLemma());
+		assertEquals(Mocks.MUELLER_INDEX_ENTRY_a.getWordDataOffset(), entry.getWordDataOffset());
+
+		entry = iterator.findIndexEntry(Mocks.MUELLER_INDEX_ENTRY_LAST.getLemma());
+		assertEquals(Mocks.MUELLER_INDEX_ENTRY_LAST.getLemma(), entry.getLemma());
+
+		entry = iterator.nextSuggestion(Mocks.PREFIX_ABA);
+		assertEquals(Mocks.MUELLER_INDEX_ENTRY_ABACUS.getLemma(), entry.getLemma());
+	}
+
 	/**
 	 * Test method for {@link net.bancer.sparkdict.domain.core.IndexEntriesIterator#findIndexEntry(java.lang.String)}.
-	 * @throws DomainException 
+	 * @throws DomainException
 	 */
 	public void testFindFirst() throws DomainException {
 		IndexEntry entry = iteratorBSE.findIndexEntry(Mocks.BSE_INDEX_ENTRY_FIRST.getLemma());
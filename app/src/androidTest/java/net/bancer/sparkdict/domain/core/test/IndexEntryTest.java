@@ -3,8 +3,15 @@
  */
 package net.bancer.sparkdict.domain.core.test;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 import junit.framework.TestCase;
+import net.bancer.sparkdict.domain.core.BookInfo;
 import net.bancer.sparkdict.domain.core.IndexEntry;
+import net.bancer.sparkdict.domain.core.StarDictIndex;
 import net.bancer.sparkdict.mocks.Mocks;
 
 /**
@@ -123,4 +130,110 @@ public class IndexEntryTest extends TestCase {
 		assertTrue(Mocks.BSE_INDEX_ENTRY_SOBAT.compareTo("СОБАС", IndexEntry.PREFIX_MATCH) > 0);
 	}
 
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.IndexEntry#compareLemmaTo(ByteBuffer, int, int, byte[], int)}.
+	 * @throws IOException
+	 */
+	public void testCompareLemmaToAsciiCaseTies() throws IOException {
+		assertTrue(compareLemmaTo("Abc", "abc", IndexEntry.WORD_MATCH) < 0);
+		assertTrue(compareLemmaTo("abc", "Abc", IndexEntry.WORD_MATCH) > 0);
+		assertEquals(0, compareLemmaTo("abc", "abc", IndexEntry.WORD_MATCH));
+		// the first case difference decides
+		assertTrue(compareLemmaTo("abC", "ABc", IndexEntry.WORD_MATCH) > 0);
+		assertTrue(compareLemmaTo("ABc", "abC", IndexEntry.WORD_MATCH) < 0);
+		// a case difference does not outweigh a letter difference
+		assertTrue(compareLemmaTo("Abd", "abc", IndexEntry.WORD_MATCH) > 0);
+		assertEquals(0, compareLemmaTo("Abc", "aBC", IndexEntry.PREFIX_MATCH));
+		assertEquals(0, compareLemmaTo("ABCD", "abc", IndexEntry.PREFIX_MATCH));
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.IndexEntry#compareLemmaTo(ByteBuffer, int, int, byte[], int)}.
+	 * @throws IOException
+	 */
+	public void testCompareLemmaToNonAscii() throws IOException {
+		assertEquals(0, compareLemmaTo("Собат", "Собат", IndexEntry.WORD_MATCH));
+		assertTrue(compareLemmaTo("Собат", "собат", IndexEntry.WORD_MATCH) < 0);
+		assertTrue(compareLemmaTo("собат", "Собат", IndexEntry.WORD_MATCH) > 0);
+		assertEquals(0, compareLemmaTo("Собат", "Соба", IndexEntry.PREFIX_MATCH));
+		// non-ASCII letters are not folded
+		assertTrue(compareLemmaTo("Собат", "соба", IndexEntry.PREFIX_MATCH) < 0);
+		assertTrue(compareLemmaTo("Собат", "СОБА", IndexEntry.PREFIX_MATCH) > 0);
+		// every non-ASCII byte is greater than every ASCII byte
+		assertTrue(compareLemmaTo("ё", "z", IndexEntry.WORD_MATCH) > 0);
+		assertTrue(compareLemmaTo("Zebra", "éclair", IndexEntry.WORD_MATCH) < 0);
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.IndexEntry#compareLemmaTo(ByteBuffer, int, int, byte[], int)}.
+	 * @throws IOException
+	 */
+	public void testCompareLemmaToShorterLemma() throws IOException {
+		assertTrue(compareLemmaTo("ab", "abc", IndexEntry.WORD_MATCH) < 0);
+		assertTrue(compareLemmaTo("abc", "ab", IndexEntry.WORD_MATCH) > 0);
+		assertTrue(compareLemmaTo("ab", "abc", IndexEntry.PREFIX_MATCH) < 0);
+		assertEquals(0, compareLemmaTo("abc", "ab", IndexEntry.PREFIX_MATCH));
+		assertEquals(0, compareLemmaTo("abc", "", IndexEntry.PREFIX_MATCH));
+		assertTrue(compareLemmaTo("", "a", IndexEntry.WORD_MATCH) < 0);
+		try {
+			byte[] unterminated = "abc".getBytes("UTF8");
+			IndexEntry.compareLemmaTo(ByteBuffer.wrap(unterminated), 0,
+					unterminated.length, "abcd".getBytes("UTF8"), IndexEntry.WORD_MATCH);
+			fail("IOException had to be thrown but was not!");
+		} catch (IOException e) {
+			// test passed
+		}
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.IndexEntry#compareLemmaTo(ByteBuffer, int, int, byte[], int)}.
+	 * The byte level comparison must order the lemmas of Mueller dictionary
+	 * the same way as {@link IndexEntry#compareTo(String, int)} does.
+	 * @throws IOException
+	 */
+	public void testCompareLemmaToAgreesWithCompareTo() throws IOException {
+		StarDictIndex index = new StarDictIndex(new BookInfo(Mocks.MUELLER_IFO_PATH));
+		List<IndexEntry> entries = new ArrayList<IndexEntry>();
+		long position = 0;
+		IndexEntry entry = index.retrieveIndexEntry(position);
+		while(entry != null) {
+			entries.add(entry);
+			position += entry.getLengthInBytes();
+			entry = index.retrieveIndexEntry(position);
+		}
+		assertTrue(entries.size() > 1);
+		int size = entries.size();
+		for (int i = 0; i < size; i++) {
+			IndexEntry first = entries.get(i);
+			// neighbours and a spread of distant entries
+			int[] others = {i + 1, (int) ((i * 7919L) % size), size - 1 - i};
+			for (int other : others) {
+				if(other >= size) {
+					continue;
+				}
+				String second = entries.get(other).getLemma();
+				assertEquals(first.getLemma() + " <> " + second,
+						Integer.signum(first.compareTo(second, IndexEntry.WORD_MATCH)),
+						Integer.signum(compareLemmaTo(first.getLemma(), second, IndexEntry.WORD_MATCH)));
+				String prefix = second.substring(0, Math.min(2, second.length()));
+				assertEquals(first.getLemma() + " <> " + prefix,
+						Integer.signum(first.compareTo(prefix, IndexEntry.PREFIX_MATCH)),
+						Integer.signum(compareLemmaTo(first.getLemma(), prefix, IndexEntry.PREFIX_MATCH)));
+			}
+		}
+	}
+
+	/**
+	 * Compares the lemma with the string at the byte level the way the
+	 * lemmas are compared in the index files.
+	 */
+	private static int compareLemmaTo(String lemma, String str, int mode)
+			throws IOException {
+		byte[] lemmaBytes = lemma.getBytes("UTF8");
+		ByteBuffer buffer = ByteBuffer.allocate(lemmaBytes.length + 1);
+		buffer.put(lemmaBytes);
+		buffer.put((byte) StarDictIndex.SEPARATOR);
+		return IndexEntry.compareLemmaTo(buffer, 0, buffer.capacity(),
+				str.getBytes("UTF8"), mode);
+	}
 }
@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package net.bancer.sparkdict.domain.core.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+
+import net.bancer.sparkdict.domain.core.Book;
+import net.bancer.sparkdict.domain.core.IObserver;
+import net.bancer.sparkdict.domain.core.Shelf;
+import net.bancer.sparkdict.domain.core.SparkDictIndex;
+import net.bancer.sparkdict.domain.utils.DomainException;
+import net.bancer.sparkdict.mocks.Mocks;
+import junit.framework.TestCase;
+
+/**
+ * @author valera
+ *
+ */
+public class ShelfTest extends TestCase {
+
+	private static final String SHELF_PATH = Mocks.ROOT_PATH + "-shelf-test";
+
+	private static final String BROKEN_BOOK_NAME = "Shelf Test Broken";
+
+	/**
+	 * @param name
+	 */
+	public ShelfTest(String name) {
+		super(name);
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		super.setUp();
+		for (int i = 1; i <= 2; i++) {
+			String basePath = SHELF_PATH + "/book" + i + "/book" + i;
+			writeInfoFile(basePath, "Shelf Test " + i);
+			Mocks.copyFile(Mocks.MUELLER_BASE_PATH + Mocks.IDX_EXT, basePath + Mocks.IDX_EXT);
+		}
+		// .idx file of this book is missing
+		writeInfoFile(SHELF_PATH + "/broken/broken", BROKEN_BOOK_NAME);
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		Mocks.delete(new File(SHELF_PATH));
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.Shelf#buildSparkDictIndexes(IObserver, int)}.
+	 * @throws InterruptedException
+	 */
+	public void testBuildSparkDictIndexesIsolatesFailures() throws InterruptedException {
+		Shelf shelf = new Shelf(SHELF_PATH, new String[0]);
+		assertEquals(3, shelf.getBooks().size());
+		final int[] progress = {0};
+		final boolean[] decreased = {false};
+		LinkedHashMap<Book, DomainException> failures = shelf.buildSparkDictIndexes(new IObserver() {
+			@Override
+			public void update(Object field, int value) {
+				assertEquals(SparkDictIndex.ARTICLES_INDEXED_TAG, field);
+				if(value < progress[0]) {
+					decreased[0] = true;
+				}
+				progress[0] = value;
+			}
+		}, 3);
+
+		assertEquals(1, failures.size());
+		assertEquals(BROKEN_BOOK_NAME, failures.keySet().iterator().next().getBookName());
+		int total = 0;
+		for (Book book : shelf.getBooks()) {
+			if(!book.getBookName().equals(BROKEN_BOOK_NAME)) {
+				assertTrue(book.isSparkDictIndexUpToDate());
+				total += book.getLexicalEntriesQuantity();
+			}
+		}
+		assertFalse(decreased[0]);
+		assertEquals(total, progress[0]);
+		shelf.close();
+	}
+
+	/**
+	 * Writes a copy of Mueller dictionary .ifo file with another book name.
+	 */
+	private static void writeInfoFile(String basePath, String bookName) throws IOException {
+		new File(basePath).getParentFile().mkdirs();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(Mocks.MUELLER_IFO_PATH), "UTF8"));
+		Writer writer = new OutputStreamWriter(new FileOutputStream(basePath + Mocks.IFO_EXT), "UTF8");
+		try {
+			String line = reader.readLine();
+			while(line != null) {
+				if(line.startsWith("bookname=")) {
+					line = "bookname=" + bookName;
+				}
+				writer.write(line + "\n");
+				line = reader.readLine();
+			}
+		} finally {
+			reader.close();
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ *
+ */
+package net.bancer.sparkdict.domain.core.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+import net.bancer.sparkdict.domain.core.BookInfo;
+import net.bancer.sparkdict.domain.core.IndexEntry;
+import net.bancer.sparkdict.domain.core.SparkDictFoldedIndex;
+import net.bancer.sparkdict.domain.core.SparkDictIndex;
+import net.bancer.sparkdict.domain.core.StarDictIndex;
+import net.bancer.sparkdict.mocks.Mocks;
+
+/**
+ * @author valera
+ *
+ */
+public class SparkDictFoldedIndexTest extends TestCase {
+
+	private SparkDictIndex indexBSE;
+
+	private SparkDictFoldedIndex foldedIndexBSE;
+
+	/**
+	 * @param name
+	 */
+	public SparkDictFoldedIndexTest(String name) {
+		super(name);
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		super.setUp();
+		BookInfo bookInfo = new BookInfo(Mocks.BSE_IFO_PATH);
+		indexBSE = new SparkDictIndex(bookInfo, SparkDictIndex.READ_MODE_IN_MEMORY);
+		if(!indexBSE.isUpToDate()) {
+			indexBSE.buildIndex();
+		}
+		foldedIndexBSE = new SparkDictFoldedIndex(bookInfo, indexBSE);
+		if(!foldedIndexBSE.isUpToDate()) {
+			foldedIndexBSE.buildIndex();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		indexBSE = null;
+		foldedIndexBSE = null;
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.SparkDictFoldedIndex#compareFoldedLemmaTo(ByteBuffer, int, int, ByteBuffer, int, int, int)}.
+	 * @throws IOException
+	 */
+	public void testCompareFoldedLemmaTo() throws IOException {
+		assertEquals(0, compareFoldedLemmaTo("Apple", "aPPLE", IndexEntry.WORD_MATCH));
+		assertEquals(0, compareFoldedLemmaTo("Собака", "СОБАКА", IndexEntry.WORD_MATCH));
+		assertEquals(0, compareFoldedLemmaTo("Собака", "соб", IndexEntry.PREFIX_MATCH));
+		assertTrue(compareFoldedLemmaTo("Собака", "соб", IndexEntry.WORD_MATCH) > 0);
+		// final and medial sigma are folded to the same letter
+		assertEquals(0, compareFoldedLemmaTo("λόγος", "ΛΌΓΟΣ", IndexEntry.WORD_MATCH));
+		assertEquals(0, compareFoldedLemmaTo("λόγος", "λόγοσ", IndexEntry.WORD_MATCH));
+		assertTrue(compareFoldedLemmaTo("Äpfel", "apfel", IndexEntry.WORD_MATCH) > 0);
+		assertTrue(compareFoldedLemmaTo("ёж", "Ëж", IndexEntry.WORD_MATCH) != 0);
+		assertTrue(compareFoldedLemmaTo("Ёж", "ёжик", IndexEntry.PREFIX_MATCH) < 0);
+		assertTrue(compareFoldedLemmaTo("", "a", IndexEntry.PREFIX_MATCH) < 0);
+		assertEquals(0, compareFoldedLemmaTo("a", "", IndexEntry.PREFIX_MATCH));
+		// characters outside of the basic multilingual plane are single code points
+		assertTrue(compareFoldedLemmaTo("𐐀", "�", IndexEntry.WORD_MATCH) > 0);
+		assertEquals(0, compareFoldedLemmaTo("𐐀", "𐐨", IndexEntry.WORD_MATCH));
+
+		ByteBuffer unterminated = ByteBuffer.wrap("abc".getBytes("UTF8"));
+		try {
+			SparkDictFoldedIndex.compareFoldedLemmaTo(unterminated, 0, 3,
+					ByteBuffer.wrap("abcd".getBytes("UTF8")), 0, 4, IndexEntry.WORD_MATCH);
+			fail("IOException expected");
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.SparkDictFoldedIndex#buildIndex()}.
+	 * @throws IOException
+	 */
+	public void testBuildIndex() throws IOException {
+		int size = foldedIndexBSE.getSize();
+		assertEquals(Mocks.BSE_DICT_SIZE, size);
+		boolean[] seen = new boolean[size];
+		long previousId = foldedIndexBSE.getId(0);
+		seen[(int) previousId] = true;
+		String previousKey = getFoldedLemma(previousId);
+		for (int position = 1; position < size; position++) {
+			long id = foldedIndexBSE.getId(position);
+			assertFalse(seen[(int) id]);
+			seen[(int) id] = true;
+			String key = getFoldedLemma(id);
+			int comparison = compareCodePoints(previousKey, key);
+			assertTrue(comparison < 0 || (comparison == 0 && previousId < id));
+			previousId = id;
+			previousKey = key;
+		}
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.SparkDictFoldedIndex#findFirstMatchedByPrefix(byte[])}.
+	 * @throws IOException
+	 */
+	public void testFindFirstMatchedByPrefix() throws IOException {
+		String lemma = Mocks.BSE_INDEX_ENTRY_SOBAT.getLemma();
+		String foldedPrefix = SparkDictFoldedIndex.foldCase(lemma.toUpperCase());
+		int position = foldedIndexBSE.findFirstMatchedByPrefix(foldedPrefix.getBytes("UTF8"));
+		assertTrue(position >= 0);
+		assertEquals(0, foldedIndexBSE.compareToPrefix(position, foldedPrefix.getBytes("UTF8")));
+		assertTrue(getFoldedLemma(foldedIndexBSE.getId(position)).startsWith(foldedPrefix));
+		if(position > 0) {
+			assertFalse(getFoldedLemma(foldedIndexBSE.getId(position - 1)).startsWith(foldedPrefix));
+		}
+		assertEquals(-1, foldedIndexBSE.findFirstMatchedByPrefix("яяяяя".getBytes("UTF8")));
+	}
+
+	private String getFoldedLemma(long id) throws IOException {
+		return SparkDictFoldedIndex.foldCase(indexBSE.getIndexEntry(id).getLemma());
+	}
+
+	/**
+	 * Compares the strings by code points.
+	 */
+	private static int compareCodePoints(String str1, String str2) {
+		int i = 0;
+		int j = 0;
+		while(i < str1.length() && j < str2.length()) {
+			int codePoint1 = str1.codePointAt(i);
+			int codePoint2 = str2.codePointAt(j);
+			if(codePoint1 != codePoint2) {
+				return codePoint1 - codePoint2;
+			}
+			i += Character.charCount(codePoint1);
+			j += Character.charCount(codePoint2);
+		}
+		return (str1.length() - i) - (str2.length() - j);
+	}
+
+	/**
+	 * Compares the lemma terminated by '\0' with the string.
+	 */
+	private static int compareFoldedLemmaTo(String lemma, String str, int mode)
+			throws IOException {
+		byte[] lemmaBytes = lemma.getBytes("UTF8");
+		ByteBuffer buffer = ByteBuffer.allocate(lemmaBytes.length + 1);
+		buffer.put(lemmaBytes);
+		buffer.put((byte) StarDictIndex.SEPARATOR);
+		byte[] strBytes = str.getBytes("UTF8");
+		return SparkDictFoldedIndex.compareFoldedLemmaTo(buffer, 0, buffer.capacity(),
+				ByteBuffer.wrap(strBytes), 0, strBytes.length, mode);
+	}
+}
@@ -3,10 +3,18 @@
  */
 package net.bancer.sparkdict.domain.core.test;
 
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
 
 import net.bancer.sparkdict.domain.core.BookInfo;
+import net.bancer.sparkdict.domain.core.IndexEntriesIterator;
+import net.bancer.sparkdict.domain.core.IndexEntry;
 import net.bancer.sparkdict.domain.core.SparkDictIndex;
 import net.bancer.sparkdict.mocks.Mocks;
 import junit.framework.TestCase;
@@ -16,6 +24,19 @@ import junit.framework.TestCase;
  *
  */
 public class SparkDictIndexTest extends TestCase {
+
+	private static final String IDX64_BASE_PATH = Mocks.ROOT_PATH + "-idx64-test/idx64";
+
+	/**
+	 * Quantity of index entries in the dictionary with 64-bit offsets.
+	 */
+	private static final int IDX64_SIZE = 300;
+
+	/**
+	 * Data offset of the first index entry in the dictionary with 64-bit
+	 * offsets, it does not fit into 32 bits.
+	 */
+	private static final long IDX64_FIRST_OFFSET = 0x123456789L;
 	
 	private SparkDictIndex indexMueller;
 	private SparkDictIndex indexBSE;
@@ -34,6 +55,12 @@ public class SparkDictIndexTest extends TestCase {
 		super.setUp();
 		indexMueller = new SparkDictIndex(new BookInfo(Mocks.MUELLER_IFO_PATH));
 		indexBSE = new SparkDictIndex(new BookInfo(Mocks.BSE_IFO_PATH));
+		if(!indexMueller.isUpToDate()) {
+			indexMueller.buildIndex();
+		}
+		if(!indexBSE.isUpToDate()) {
+			indexBSE.buildIndex();
+		}
 	}
 
 	/* (non-Javadoc)
@@ -79,6 +106,130 @@ public class SparkDictIndexTest extends TestCase {
 		}
 	}
 
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.SparkDictIndex#getIndexEntry(long)}
+	 * in {@link net.bancer.sparkdict.domain.core.SparkDictIndex#READ_MODE_IN_MEMORY} mode.
+	 * @throws IOException 
+	 * @throws FileNotFoundException 
+	 */
+	public void testGetIndexEntryInMemory() throws FileNotFoundException, IOException {
+		SparkDictIndex index = new SparkDictIndex(new BookInfo(Mocks.MUELLER_IFO_PATH), SparkDictIndex.READ_MODE_IN_MEMORY);
+		assertEquals(SparkDictIndex.READ_MODE_IN_MEMORY, index.getReadMode());
+		assertEquals(Mocks.MUELLER_DICT_SIZE, index.getSize());
+		assertEquals(Mocks.MUELLER_INDEX_ENTRY_FIRST.getLemma(), index.getIndexEntry(0).getLemma());
+		assertEquals(Mocks.MUELLER_INDEX_ENTRY_LAST.getLemma(), index.getIndexEntry(Mocks.MUELLER_DICT_SIZE-1).getLemma());
+		assertEquals(null, index.getIndexEntry(Mocks.MUELLER_DICT_SIZE));
+		try {
+			index.getIndexEntry(-1);
+			fail("IOException expected");
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.SparkDictIndex#getIndexEntry(long)}
+	 * in {@link net.bancer.sparkdict.domain.core.SparkDictIndex#READ_MODE_BOOK_INDEX} mode.
+	 * @throws IOException 
+	 * @throws FileNotFoundException 
+	 */
+	public void testGetIndexEntryBookIndex() throws FileNotFoundException, IOException {
+		SparkDictIndex index = new SparkDictIndex(new BookInfo(Mocks.MUELLER_IFO_PATH), SparkDictIndex.READ_MODE_BOOK_INDEX);
+		assertEquals(SparkDictIndex.READ_MODE_BOOK_INDEX, index.getReadMode());
+		assertEquals(Mocks.MUELLER_DICT_SIZE, index.getSize());
+		for (long id = 0; id < Mocks.MUELLER_DICT_SIZE; id++) {
+			IndexEntry expected = indexMueller.getIndexEntry(id);
+			IndexEntry actual = index.getIndexEntry(id);
+			assertEquals(expected.getLemma(), actual.getLemma());
+			assertEquals(expected.getWordDataOffset(), actual.getWordDataOffset());
+			assertEquals(expected.getWordDataSize(), actual.getWordDataSize());
+		}
+		assertEquals(null, index.getIndexEntry(Mocks.MUELLER_DICT_SIZE));
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.SparkDictIndex#buildIndex()}
+	 * called by several threads at once.
+	 * @throws Exception 
+	 */
+	public void testBuildIndexConcurrently() throws Exception {
+		final IOException[] failure = new IOException[1];
+		Thread[] builders = new Thread[3];
+		for (int i = 0; i < builders.length; i++) {
+			builders[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						new SparkDictIndex(new BookInfo(Mocks.MUELLER_IFO_PATH)).buildIndex();
+					} catch (IOException e) {
+						failure[0] = e;
+					}
+				}
+			};
+			builders[i].start();
+		}
+		for (int i = 0; i < builders.length; i++) {
+			builders[i].join();
+		}
+		assertNull(failure[0]);
+		assertTrue(indexMueller.isUpToDate());
+		assertEquals(Mocks.MUELLER_DICT_SIZE, indexMueller.getSize());
+		String path = Mocks.MUELLER_BASE_PATH + SparkDictIndex.FILE_EXTENSION;
+		assertFalse(new File(path + ".tmp").exists());
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.SparkDictIndex#buildIndex()}
+	 * with a dictionary which .ifo file declares "idxoffsetbits=64".
+	 * @throws Exception 
+	 */
+	public void testBuildIndexIdxOffsetBits64() throws Exception {
+		writeIdx64Dictionary();
+		try {
+			BookInfo bookInfo = new BookInfo(IDX64_BASE_PATH + Mocks.IFO_EXT);
+			assertEquals(64, bookInfo.getIdxOffsetBits());
+			SparkDictIndex index = new SparkDictIndex(bookInfo);
+			index.buildIndex();
+			assertTrue(index.isUpToDate());
+			assertEquals(IDX64_SIZE, index.getSize());
+			SparkDictIndex inMemory = new SparkDictIndex(bookInfo, SparkDictIndex.READ_MODE_IN_MEMORY);
+			for (int i = 0; i < IDX64_SIZE; i++) {
+				assertIdx64Entry(i, index.getIndexEntry(i));
+				assertIdx64Entry(i, inMemory.getIndexEntry(i));
+			}
+			assertEquals(null, index.getIndexEntry(IDX64_SIZE));
+
+			IndexEntriesIterator iterator = new IndexEntriesIterator(bookInfo);
+			assertFalse(iterator.isStale());
+			for (int i = 0; i < IDX64_SIZE; i += 7) {
+				assertIdx64Entry(i, iterator.findIndexEntry(getIdx64Lemma(i)));
+			}
+			assertIdx64Entry(IDX64_SIZE - 1, iterator.findIndexEntry(getIdx64Lemma(IDX64_SIZE - 1)));
+		} finally {
+			Mocks.delete(new File(IDX64_BASE_PATH).getParentFile());
+		}
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.SparkDictIndex#isUpToDate()}.
+	 * @throws IOException 
+	 */
+	public void testIsUpToDate() throws IOException {
+		assertTrue(indexMueller.isUpToDate());
+		
+		String path = Mocks.MUELLER_BASE_PATH + SparkDictIndex.FILE_EXTENSION;
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		try {
+			file.setLength(file.length() - SparkDictIndex.INDEX_ENTRY_SIZE);
+		} finally {
+			file.close();
+		}
+		assertFalse(indexMueller.isUpToDate());
+		
+		indexMueller.buildIndex();
+		assertTrue(indexMueller.isUpToDate());
+		assertEquals(Mocks.MUELLER_DICT_SIZE, indexMueller.getSize());
+	}
+
 	/**
 	 * Test method for {@link net.bancer.sparkdict.domain.core.SparkDictIndex#getBookName()}.
 	 */
@@ -87,4 +238,54 @@ public class SparkDictIndexTest extends TestCase {
 		assertEquals(Mocks.BSE_DICT_NAME, indexBSE.getBookName());
 	}
 
+	/**
+	 * Writes .ifo and .idx files of a dictionary with 64-bit data offsets.
+	 */
+	private static void writeIdx64Dictionary() throws IOException {
+		new File(IDX64_BASE_PATH).getParentFile().mkdirs();
+		DataOutputStream idx = new DataOutputStream(new FileOutputStream(IDX64_BASE_PATH + Mocks.IDX_EXT));
+		try {
+			for (int i = 0; i < IDX64_SIZE; i++) {
+				idx.write(getIdx64Lemma(i).getBytes("UTF8"));
+				idx.write(0);
+				idx.writeLong(getIdx64Offset(i));
+				idx.writeInt(getIdx64Size(i));
+			}
+		} finally {
+			idx.close();
+		}
+		long idxFileSize = new File(IDX64_BASE_PATH + Mocks.IDX_EXT).length();
+		Writer ifo = new OutputStreamWriter(new FileOutputStream(IDX64_BASE_PATH + Mocks.IFO_EXT), "UTF8");
+		try {
+			ifo.write("StarDict's dict ifo file\n"
+					+ "version=3.0.0\n"
+					+ "bookname=Idx64\n"
+					+ "wordcount=" + IDX64_SIZE + "\n"
+					+ "idxfilesize=" + idxFileSize + "\n"
+					+ "idxoffsetbits=64\n"
+					+ "sametypesequence=m\n");
+		} finally {
+			ifo.close();
+		}
+	}
+
+	private static String getIdx64Lemma(int i) {
+		return String.format("word%04d", i);
+	}
+
+	private static long getIdx64Offset(int i) {
+		return IDX64_FIRST_OFFSET + (long) i * 0x10000001L;
+	}
+
+	private static int getIdx64Size(int i) {
+		return 100 + i;
+	}
+
+	private static void assertIdx64Entry(int i, IndexEntry entry) {
+		assertNotNull(entry);
+		assertEquals(getIdx64Lemma(i), entry.getLemma());
+		assertEquals(getIdx64Offset(i), entry.getWordDataOffset());
+		assertEquals(getIdx64Size(i), entry.getWordDataSize());
+	}
+
 }
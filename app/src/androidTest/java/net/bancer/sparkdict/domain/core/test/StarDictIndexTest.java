@@ -149,4 +149,43 @@ public class StarDictIndexTest extends TestCase {
 		}
 	}
 
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.StarDictIndex#retrieveIndexEntry(long)}
+	 * in {@link net.bancer.sparkdict.domain.core.StarDictIndex#READ_MODE_MAPPED} mode.
+	 */
+	public void testRetrieveIndexEntryMapped() {
+		StarDictIndex mappedIndex = new StarDictIndex(bseInfo, StarDictIndex.READ_MODE_MAPPED);
+		assertEquals(StarDictIndex.READ_MODE_MAPPED, mappedIndex.getReadMode());
+		try {
+			IndexEntry indexEntry = mappedIndex.retrieveIndexEntry(Mocks.BSE_INDEX_ENTRY_START_4);
+			assertNotNull(indexEntry);
+			assertEquals(Mocks.BSE_INDEX_ENTRY_SOBAT.getLemma(), indexEntry.getLemma());
+			assertEquals(Mocks.BSE_INDEX_ENTRY_SOBAT.getWordDataOffset(), indexEntry.getWordDataOffset());
+			assertEquals(Mocks.BSE_INDEX_ENTRY_SOBAT.getWordDataSize(), indexEntry.getWordDataSize());
+			assertEquals(Mocks.BSE_INDEX_ENTRY_SOBAT.getLengthInBytes(), indexEntry.getLengthInBytes());
+			
+			indexEntry = mappedIndex.retrieveIndexEntry(Mocks.BSE_INDEX_ENTRY_START_LAST);
+			assertNotNull(indexEntry);
+			assertEquals(Mocks.BSE_INDEX_ENTRY_LAST.getLemma(), indexEntry.getLemma());
+			
+			assertNull(mappedIndex.retrieveIndexEntry(Long.MAX_VALUE));
+		} catch (FileNotFoundException e) {
+			fail(e.getMessage());
+		} catch (IOException e) {
+			fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.core.StarDictIndex#StarDictIndex(BookInfo, int)}.
+	 */
+	public void testStarDictIndexInvalidReadMode() {
+		try {
+			new StarDictIndex(bseInfo, 0);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// test passed
+		}
+	}
+
 }
@@ -0,0 +1,88 @@
+/**
+ *
+ */
+package net.bancer.sparkdict.domain.parsers.test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.bancer.sparkdict.domain.parsers.IElementRewriter;
+import net.bancer.sparkdict.domain.parsers.MarkupRewriter;
+import net.bancer.sparkdict.domain.parsers.TagRule;
+import junit.framework.TestCase;
+
+/**
+ * @author valera
+ *
+ */
+public class MarkupRewriterTest extends TestCase {
+
+	private MarkupRewriter rewriter;
+
+	/**
+	 * @param name
+	 */
+	public MarkupRewriterTest(String name) {
+		super(name);
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		super.setUp();
+		Map<String, String> colors = new HashMap<String, String>();
+		colors.put("gray", "#808080");
+		TagRule[] rules = {
+			TagRule.pair("<g>", "</g>", "", ""),
+			TagRule.pair("<w>", "</w>", "<b>", "</b>"),
+			TagRule.link("<l>", "</l>", "<a href=\"%s\">", "</a>"),
+			TagRule.tag("<c>", "<font>"),
+			TagRule.attribute("<c c=", "<font color=", colors),
+			TagRule.element("<r>", "</r>", new IElementRewriter() {
+				@Override
+				public String rewrite(String content) {
+					return "<img src=\"" + content + "\">";
+				}
+			})
+		};
+		rewriter = new MarkupRewriter(rules);
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		rewriter = null;
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.parsers.MarkupRewriter#rewrite(String)}.
+	 */
+	public void testRewrite() {
+		assertEquals("<b>a</b><br>b&nbsp;&nbsp;c",
+				rewriter.rewrite("<w>a</w>\nb <g></g> c"));
+		assertEquals("</w><w>", rewriter.rewrite("</w><w>"));
+		assertEquals("<a href=\"x&nbsp;&nbsp;y\">x&nbsp;&nbsp;y</a>",
+				rewriter.rewrite("<l>x  y</l>"));
+		assertEquals("<font color=\"#808080\">a<font>b",
+				rewriter.rewrite("<c c=\"gray\">a<c>b"));
+		assertEquals("<img src=\"p.png\"><r>q", rewriter.rewrite("<r>p.png</r><r>q"));
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.parsers.MarkupRewriter#MarkupRewriter(TagRule[])}.
+	 */
+	public void testDuplicateTag() {
+		try {
+			new MarkupRewriter(new TagRule[] {
+				TagRule.tag("<c>", "<font>"),
+				TagRule.pair("<c>", "</c>", "<font>", "</font>")
+			});
+			fail("Expected exception IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// test passed
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/**
+ *
+ */
+package net.bancer.sparkdict.domain.parsers.test;
+
+import net.bancer.sparkdict.domain.parsers.SpanBuilder;
+import net.bancer.sparkdict.domain.parsers.SpannedText;
+import junit.framework.TestCase;
+
+/**
+ * @author valera
+ *
+ */
+public class SpanBuilderTest extends TestCase {
+
+	/**
+	 * @param name
+	 */
+	public SpanBuilderTest(String name) {
+		super(name);
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		super.setUp();
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.parsers.SpanBuilder#build()}.
+	 */
+	public void testBuild() {
+		SpannedText spanned = new SpanBuilder()
+				.append("<b>a</b><br>b&nbsp;&nbsp;c  <font color=\"#808080\">d</font>")
+				.build();
+		assertEquals("a\nb  c d", spanned.getText());
+		assertEquals(2, spanned.getSpansQuantity());
+		assertEquals(SpannedText.SPAN_BOLD, spanned.getSpanType(0));
+		assertEquals(0, spanned.getSpanStart(0));
+		assertEquals(1, spanned.getSpanEnd(0));
+		assertEquals(SpannedText.SPAN_COLOR, spanned.getSpanType(1));
+		assertEquals("#808080", spanned.getSpanValue(1));
+		assertEquals(7, spanned.getSpanStart(1));
+		assertEquals(8, spanned.getSpanEnd(1));
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.parsers.SpanBuilder#append(java.lang.CharSequence, int, int)}.
+	 */
+	public void testAppendSplitTags() {
+		String html = "x<a href=\"y&amp;z\">l<i>i</a>&lt; <blockquote>q</blockquote>"
+				+ "<img src=\"p.png\"><object>s.wav</object>";
+		SpanBuilder builder = new SpanBuilder();
+		for (int i = 0; i < html.length(); i++) {
+			builder.append(html, i, i + 1);
+		}
+		SpannedText spanned = builder.build();
+		assertEquals("xli< \n\nq\n\n\uFFFC\uFFFC", spanned.getText());
+		assertEquals(5, spanned.getSpansQuantity());
+		assertEquals(SpannedText.SPAN_ITALIC, spanned.getSpanType(0));
+		assertEquals(SpannedText.SPAN_LINK, spanned.getSpanType(1));
+		assertEquals("y&z", spanned.getSpanValue(1));
+		assertEquals(SpannedText.SPAN_INDENT, spanned.getSpanType(2));
+		assertEquals(SpannedText.SPAN_IMAGE, spanned.getSpanType(3));
+		assertEquals("p.png", spanned.getSpanValue(3));
+		assertEquals(SpannedText.SPAN_SOUND, spanned.getSpanType(4));
+		assertEquals("s.wav", spanned.getSpanValue(4));
+		assertEquals(11, spanned.getSpanStart(4));
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.parsers.SpanBuilder#append(net.bancer.sparkdict.domain.parsers.SpannedText)}.
+	 */
+	public void testAppendSpannedText() {
+		SpannedText article = new SpanBuilder().append("<i>b</i>c").build();
+		SpannedText spanned = new SpanBuilder()
+				.append("<b>a</b><br><br>")
+				.append(article)
+				.build();
+		assertEquals("a\n\nbc", spanned.getText());
+		assertEquals(2, spanned.getSpansQuantity());
+		assertEquals(SpannedText.SPAN_ITALIC, spanned.getSpanType(1));
+		assertEquals(3, spanned.getSpanStart(1));
+		assertEquals(4, spanned.getSpanEnd(1));
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.parsers.SpanBuilder#append(java.lang.CharSequence)}
+	 * of `s`, `strike` and `del` tags.
+	 */
+	public void testAppendStrikethrough() {
+		SpannedText spanned = new SpanBuilder()
+				.append("<s>a</s> <strike>b</strike> <del>c</del>")
+				.build();
+		assertEquals("a b c", spanned.getText());
+		assertEquals(3, spanned.getSpansQuantity());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(SpannedText.SPAN_STRIKETHROUGH, spanned.getSpanType(i));
+			assertEquals(2 * i, spanned.getSpanStart(i));
+			assertEquals(2 * i + 1, spanned.getSpanEnd(i));
+		}
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.parsers.SpanBuilder#append(java.lang.CharSequence)}
+	 * of `ul`, `ol` and `li` tags.
+	 */
+	public void testAppendLists() {
+		SpannedText spanned = new SpanBuilder()
+				.append("a<ul><li>x</li><li>y</ul><ol><li>z<li>w</ol>b")
+				.build();
+		assertEquals("a\n\u2022 x\n\u2022 y\n1. z\n2. w\nb", spanned.getText());
+		assertEquals(2, spanned.getSpansQuantity());
+		assertEquals(SpannedText.SPAN_INDENT, spanned.getSpanType(0));
+		assertEquals(2, spanned.getSpanStart(0));
+		assertEquals(9, spanned.getSpanEnd(0));
+		assertEquals(SpannedText.SPAN_INDENT, spanned.getSpanType(1));
+		assertEquals(10, spanned.getSpanStart(1));
+		assertEquals(19, spanned.getSpanEnd(1));
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.parsers.SpanBuilder#append(java.lang.CharSequence)}
+	 * of `span` tag with colour style.
+	 */
+	public void testAppendSpanColor() {
+		SpannedText spanned = new SpanBuilder()
+				.append("<span style=\"font-weight: bold; color: #FF0000\">a</span><span>b</span>")
+				.build();
+		assertEquals("ab", spanned.getText());
+		assertEquals(1, spanned.getSpansQuantity());
+		assertEquals(SpannedText.SPAN_COLOR, spanned.getSpanType(0));
+		assertEquals("#FF0000", spanned.getSpanValue(0));
+		assertEquals(0, spanned.getSpanStart(0));
+		assertEquals(1, spanned.getSpanEnd(0));
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.parsers.SpanBuilder#append(java.lang.CharSequence)}
+	 * of `font` tag with size and face.
+	 */
+	public void testAppendFontSizeAndFace() {
+		SpannedText spanned = new SpanBuilder()
+				.append("<font color=\"red\" size=\"5\" face=\"serif\">a</font>"
+						+ "<font size=\"-1\">b</font><font size=\"3\">c</font>")
+				.build();
+		assertEquals("abc", spanned.getText());
+		assertEquals(4, spanned.getSpansQuantity());
+		assertEquals(SpannedText.SPAN_COLOR, spanned.getSpanType(0));
+		assertEquals("red", spanned.getSpanValue(0));
+		assertEquals(SpannedText.SPAN_RELATIVE_SIZE, spanned.getSpanType(1));
+		assertEquals("1.5", spanned.getSpanValue(1));
+		assertEquals(SpannedText.SPAN_TYPEFACE, spanned.getSpanType(2));
+		assertEquals("serif", spanned.getSpanValue(2));
+		assertEquals(0, spanned.getSpanStart(2));
+		assertEquals(1, spanned.getSpanEnd(2));
+		assertEquals(SpannedText.SPAN_RELATIVE_SIZE, spanned.getSpanType(3));
+		assertEquals("0.8", spanned.getSpanValue(3));
+		assertEquals(1, spanned.getSpanStart(3));
+		assertEquals(2, spanned.getSpanEnd(3));
+	}
+
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.parsers.SpanBuilder#append(java.lang.CharSequence)}
+	 * of the headings.
+	 */
+	public void testAppendHeadings() {
+		SpannedText spanned = new SpanBuilder()
+				.append("<h1>a</h1><h6>b</h6>")
+				.build();
+		assertEquals("a\n\nb\n\n", spanned.getText());
+		assertEquals(4, spanned.getSpansQuantity());
+		assertEquals(SpannedText.SPAN_BOLD, spanned.getSpanType(0));
+		assertEquals(SpannedText.SPAN_RELATIVE_SIZE, spanned.getSpanType(1));
+		assertEquals("1.5", spanned.getSpanValue(1));
+		assertEquals(0, spanned.getSpanStart(1));
+		assertEquals(1, spanned.getSpanEnd(1));
+		assertEquals(SpannedText.SPAN_BOLD, spanned.getSpanType(2));
+		assertEquals(SpannedText.SPAN_RELATIVE_SIZE, spanned.getSpanType(3));
+		assertEquals("1.0", spanned.getSpanValue(3));
+		assertEquals(3, spanned.getSpanStart(3));
+		assertEquals(4, spanned.getSpanEnd(3));
+	}
+}
@@ -92,4 +92,19 @@ public class XParserTest extends TestCase {
 		assertEquals(parsed, parser.parse(raw.getBytes()));
 	}
 
+	/**
+	 * Test method for {@link net.bancer.sparkdict.domain.parsers.XParser#parse(byte[])}
+	 * with links, line breaks, runs of spaces and unmatched tags.
+	 */
+	public void testParseLinksAndSpaces() {
+		String raw = "<k>run</k>\n" +
+				"<tr>rʌn</tr> <abr>v.</abr>  see  <kref>go</kref>,     " +
+				"<ex>to run fast</ex>\nunmatched </k> <k>";
+		String parsed = "<big>run</big><br><br>" +
+				"<tt>[rʌn]</tt> <font color=\"#006600\">v.</font>&nbsp;&nbsp;see&nbsp;&nbsp;" +
+				"<a href=\"net.bancer.sparkdict://go\">go</a>,&nbsp;&nbsp;&nbsp;&nbsp; " +
+				"<font color=\"#808080\">to run fast</font><br>unmatched </k> <k>";
+		assertEquals(parsed, parser.parse(raw.getBytes()));
+	}
+
 }
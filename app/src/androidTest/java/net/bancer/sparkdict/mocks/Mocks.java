@@ -1,5 +1,12 @@
 package net.bancer.sparkdict.mocks;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 import android.os.Environment;
 
 import net.bancer.sparkdict.domain.core.IndexEntry;
@@ -65,4 +72,37 @@ public class Mocks {
 	public static final long BSE_INDEX_ENTRY_START_4 = 2976568; //Собат
 	public static final long BSE_INDEX_ENTRY_START_FIRST = 0; //...Биоз
 	public static final long BSE_INDEX_ENTRY_START_LAST = 3861768;//Яёи культура
+
+	/**
+	 * Copies a dictionary file, e.g. to build a fixture from a real dictionary.
+	 */
+	public static void copyFile(String source, String destination) throws IOException {
+		new File(destination).getParentFile().mkdirs();
+		InputStream in = new FileInputStream(source);
+		OutputStream out = new FileOutputStream(destination);
+		try {
+			byte[] buffer = new byte[65536];
+			int sizeRead = in.read(buffer);
+			while(sizeRead > 0) {
+				out.write(buffer, 0, sizeRead);
+				sizeRead = in.read(buffer);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	/**
+	 * Deletes a fixture file or directory with all its contents.
+	 */
+	public static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
 }
@@ -163,7 +163,8 @@ public abstract class BaseActivity extends Activity {
 	
 	/**
 	 * Refreshes Shelf to ensure that the list of enabled dictionaries is
-	 * always up-to-date.
+	 * always up-to-date. The books of the previous shelf are closed, so their
+	 * files do not stay open until garbage collection.
 	 */
 	protected void refreshShelf() {
 		String dictPath = getDictPathFromPrefs();
@@ -171,7 +172,11 @@ public abstract class BaseActivity extends Activity {
 		//shelf.setDictPath(dictPath);
 		//shelf.setEnabledDicts(enabledDicts);
 		//shelf.putBooksOnShelf();
+		Shelf previous = shelf;
 		shelf = new Shelf(dictPath, enabledDicts);
+		if(previous != null) {
+			previous.close();
+		}
 	}
 	
 //	protected void restoreSharedPreferences() {
@@ -1,6 +1,7 @@
 package net.bancer.sparkdict;
 
 import java.util.ArrayList;
+import java.util.Map;
 
 import net.bancer.sparkdict.adapters.DictManagerItemsAdapter;
 import net.bancer.sparkdict.domain.core.Book;
@@ -333,21 +334,29 @@ public class DictManagerActivity extends BaseActivity {
     		totalArticles = shelf.getTotalLexicalEntriesQuantity();
     		mProgressDialog.setProgress(0);
     		mProgressDialog.setMax(totalArticles);
-    		int count = shelf.getBooks().size();
-    		for (int i = 0; i < count; i++) {
-    			try {
-					shelf.getBooks().get(i).buildSparkDictIndex(this);
-				} catch (DomainException e) {
-					String message = getString(R.string.dict_cannot_be_indexed, shelf.getBooks().get(i).getBookName());
-					Log.e(TAG, message, e);
+    		int threads = Runtime.getRuntime().availableProcessors();
+    		try {
+    			Map<Book, DomainException> failures = shelf.buildSparkDictIndexes(this, threads);
+    			for (Map.Entry<Book, DomainException> failure : failures.entrySet()) {
+					String message = getString(R.string.dict_cannot_be_indexed, failure.getKey().getBookName());
+					Log.e(TAG, message, failure.getValue());
 					sendNotification(message);
-				}
+    			}
+    		} catch (InterruptedException e) {
+    			Log.e(TAG, "Indexing interrupted", e);
+    			Thread.currentThread().interrupt();
     		}
+    		// the dialog must be dismissed even if some books were not indexed
+    		Message msg = mHandler.obtainMessage();
+    		msg.arg1 = totalArticles;
+    		msg.arg2 = totalArticles;
+    		mHandler.sendMessage(msg);
     	}
 
 		@Override
     	public void update(Object field, int value) {
-    		articlesIndexed++;
+    		// value is the total quantity of articles indexed in all books
+    		articlesIndexed = value;
 
     		currentTime = System.currentTimeMillis();
 			if(currentTime - previousMessageTime > MESSAGES_TIME_STEP || articlesIndexed >= totalArticles) {
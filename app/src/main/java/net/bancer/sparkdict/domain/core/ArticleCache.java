@@ -0,0 +1,304 @@
+package net.bancer.sparkdict.domain.core;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.bancer.sparkdict.domain.parsers.SpannedText;
+
+/**
+ * ArticleCache keeps the spanned definitions parsed from the data of the
+ * recently viewed articles, so that an article shown again (a link followed
+ * back and forth, a word reopened from the history) is neither read from the
+ * dictionary file, nor decompressed, nor parsed. An article is identified by
+ * its book and the position and the size of its data in
+ * <dictionary name>.dict file.
+ *
+ * The cache is bounded by the total size of the cached definitions, the
+ * length of the text plus the quantity of the spans of every article. The
+ * least recently used articles are evicted first. Optionally the definitions
+ * are kept by soft references, then the garbage collector can clear them
+ * under memory pressure before the bound is reached.
+ *
+ * @author Valerij Bancer
+ *
+ */
+public class ArticleCache {
+
+	/**
+	 * Default maximum total size of the cached definitions.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 512 * 1024;
+
+	private static final ArticleCache INSTANCE = new ArticleCache(DEFAULT_MAX_SIZE, false);
+
+	/**
+	 * Cached articles in the least recently used order.
+	 */
+	private LinkedHashMap<Key, Article> articles;
+
+	private int maxSize;
+
+	/**
+	 * Total size of the cached definitions.
+	 */
+	private int size = 0;
+
+	private boolean softReferences;
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxSize			maximum total size of the cached definitions,
+	 * 							0 disables the cache.
+	 * @param softReferences	`true` if the definitions are kept by soft
+	 * 							references.
+	 * @throws IllegalArgumentException if the maximum size is negative.
+	 */
+	public ArticleCache(int maxSize, boolean softReferences) {
+		if(maxSize < 0) {
+			throw new IllegalArgumentException("invalid maxSize argument");
+		}
+		this.maxSize = maxSize;
+		this.softReferences = softReferences;
+		articles = new LinkedHashMap<Key, Article>(16, 0.75f, true);
+	}
+
+	/**
+	 * Gets the cache shared by all books.
+	 *
+	 * @return the shared cache.
+	 */
+	public static ArticleCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Sets the maximum total size of the cached definitions. The least
+	 * recently used articles are evicted if they do not fit anymore.
+	 *
+	 * @param maxSize	maximum total size of the cached definitions, 0
+	 * 					disables the cache.
+	 * @throws IllegalArgumentException if the maximum size is negative.
+	 */
+	public synchronized void setMaxSize(int maxSize) {
+		if(maxSize < 0) {
+			throw new IllegalArgumentException("invalid maxSize argument");
+		}
+		this.maxSize = maxSize;
+		evict();
+	}
+
+	/**
+	 * Sets whether the definitions cached from now on are kept by soft
+	 * references.
+	 *
+	 * @param softReferences	`true` if the definitions are kept by soft
+	 * 							references.
+	 */
+	public synchronized void setSoftReferences(boolean softReferences) {
+		this.softReferences = softReferences;
+	}
+
+	/**
+	 * Retrieves the cached definitions of the article.
+	 *
+	 * @param bookId			identifier of the book, its file base name.
+	 * @param wordDataOffset	offset of the article data.
+	 * @param wordDataSize		size of the article data.
+	 * @return					the definitions or `null` if they are not
+	 * 							cached.
+	 */
+	public synchronized SpannedText get(String bookId, long wordDataOffset, int wordDataSize) {
+		Key key = new Key(bookId, wordDataOffset, wordDataSize);
+		Article article = articles.get(key);
+		SpannedText definitions = null;
+		if(article != null) {
+			definitions = article.getDefinitions();
+			if(definitions == null) {
+				// cleared by the garbage collector
+				articles.remove(key);
+				size -= article.size;
+			}
+		}
+		if(definitions == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return definitions;
+	}
+
+	/**
+	 * Puts the definitions of the article into the cache evicting the least
+	 * recently used articles which do not fit into the cache size.
+	 * Definitions larger than the cache size are not cached.
+	 *
+	 * @param bookId			identifier of the book, its file base name.
+	 * @param wordDataOffset	offset of the article data.
+	 * @param wordDataSize		size of the article data.
+	 * @param definitions		spanned definitions parsed from the article
+	 * 							data.
+	 */
+	public synchronized void put(String bookId, long wordDataOffset,
+			int wordDataSize, SpannedText definitions) {
+		if(definitions == null || getSize(definitions) > maxSize) {
+			return;
+		}
+		Article article = new Article(definitions, softReferences);
+		Article previous = articles.put(new Key(bookId, wordDataOffset, wordDataSize), article);
+		if(previous != null) {
+			size -= previous.size;
+		}
+		size += article.size;
+		evict();
+	}
+
+	/**
+	 * Removes all articles of the book, e.g. when its files are closed and
+	 * may be replaced.
+	 *
+	 * @param bookId	identifier of the book, its file base name.
+	 */
+	public synchronized void remove(String bookId) {
+		Iterator<Map.Entry<Key, Article>> iterator = articles.entrySet().iterator();
+		while(iterator.hasNext()) {
+			Map.Entry<Key, Article> entry = iterator.next();
+			if(entry.getKey().bookId.equals(bookId)) {
+				size -= entry.getValue().size;
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes all articles.
+	 */
+	public synchronized void clear() {
+		articles.clear();
+		size = 0;
+	}
+
+	/**
+	 * Getter of the total size of the cached definitions.
+	 *
+	 * @return	the length of the texts plus the quantity of the spans.
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * Getter of the quantity of articles found in cache.
+	 *
+	 * @return	number of requests served from cache.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Getter of the quantity of articles not found in cache.
+	 *
+	 * @return	number of requests not served from cache.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Measures the spanned definitions. A span takes about as much memory as
+	 * a few characters, but the text dominates in the articles.
+	 *
+	 * @param definitions	spanned definitions.
+	 * @return				the length of the text plus the quantity of the
+	 * 						spans.
+	 */
+	private static int getSize(SpannedText definitions) {
+		return definitions.getText().length() + definitions.getSpansQuantity();
+	}
+
+	/**
+	 * Evicts the least recently used articles until the cached definitions
+	 * fit into the cache size.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<Key, Article>> eldest = articles.entrySet().iterator();
+		while(size > maxSize && eldest.hasNext()) {
+			size -= eldest.next().getValue().size;
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Identifier of an article.
+	 */
+	private static class Key {
+
+		private String bookId;
+
+		private long wordDataOffset;
+
+		private int wordDataSize;
+
+		public Key(String bookId, long wordDataOffset, int wordDataSize) {
+			this.bookId = bookId;
+			this.wordDataOffset = wordDataOffset;
+			this.wordDataSize = wordDataSize;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return wordDataOffset == other.wordDataOffset
+					&& wordDataSize == other.wordDataSize
+					&& bookId.equals(other.bookId);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = bookId.hashCode();
+			result = 31 * result + (int) (wordDataOffset ^ (wordDataOffset >>> 32));
+			return 31 * result + wordDataSize;
+		}
+	}
+
+	/**
+	 * Cached definitions of an article.
+	 */
+	private static class Article {
+
+		private SpannedText definitions;
+
+		private SoftReference<SpannedText> reference;
+
+		/**
+		 * Size of the definitions, it is known even if they were cleared.
+		 */
+		private int size;
+
+		public Article(SpannedText definitions, boolean soft) {
+			if(soft) {
+				reference = new SoftReference<SpannedText>(definitions);
+			} else {
+				this.definitions = definitions;
+			}
+			size = getSize(definitions);
+		}
+
+		public SpannedText getDefinitions() {
+			if(reference != null) {
+				return reference.get();
+			}
+			return definitions;
+		}
+	}
+}
@@ -1,10 +1,12 @@
 package net.bancer.sparkdict.domain.core;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.Vector;
 
+import net.bancer.sparkdict.domain.parsers.SpannedText;
 import net.bancer.sparkdict.domain.utils.DomainException;
 
 import android.util.Log;
@@ -16,12 +18,17 @@ import android.util.Log;
  * @author Valerij Bancer
  *
  */
-public class Book implements Iterable<IndexEntry> {
+public class Book implements Iterable<IndexEntry>, Closeable {
 
 	/**
 	 * Extension of the compressed dictionary file: <dictionary name>.dict.dz
 	 */
-	private static final String DICT_FILE_EXTENSION = ".dict.dz";
+	public static final String DICT_ZIP_FILE_EXTENSION = ".dict.dz";
+
+	/**
+	 * Extension of the uncompressed dictionary file: <dictionary name>.dict
+	 */
+	public static final String DICT_FILE_EXTENSION = ".dict";
 
 	/**
 	 * BookInfo object.
@@ -34,14 +41,21 @@ public class Book implements Iterable<IndexEntry> {
 	private boolean enabled = false;
 
 	/**
-	 * DictZipFile object.
+	 * Dictionary data backend: DictFile or DictZipFile object.
+	 */
+	private IDictData dictData = null;
+
+	/**
+	 * Index entries iterator which opened indexes are shared by the cursors
+	 * returned from {@link #iterator()}.
 	 */
-	private DictZipFile dzFile = null;
+	private IndexEntriesIterator indexEntriesIterator;
 
 	/**
-	 * Index entries iterator.
+	 * Generation of the indexes {@link #indexEntriesIterator} was opened
+	 * with.
 	 */
-	private Iterator<IndexEntry> indexEntriesIterator;
+	private int indexGeneration = 0;
 
 	/**
 	 * Constructor.
@@ -83,28 +97,100 @@ public class Book implements Iterable<IndexEntry> {
 	}
 
 	/**
-	 * Lexical entry retriever. Retrieves and constructs LexicalEntry 
-	 * corresponding to the index entry provided as the parameter.
+	 * Adds the article corresponding to the index entry provided as the
+	 * parameter to the lexical entry. The spanned definitions are taken from
+	 * ArticleCache if the article was viewed recently, otherwise the data is
+	 * read from the dictionary file.
 	 * 
-	 * @param idxEntry	index entry for what the lexical entry is requested.
-	 * @return			LexicalEntry object or `null`.
+	 * @param lexicalEntry	lexical entry the article is added to.
+	 * @param idxEntry		index entry of the article.
+	 * @return				`true` if the article was added, `false` if its
+	 * 						data cannot be read.
 	 */
-	private LexicalEntry getLexicalEntry(IndexEntry idxEntry) {
-		LexicalEntry result = null;
-		if(dzFile == null){
-			dzFile = new DictZipFile(bookInfo.getFileBaseName() + DICT_FILE_EXTENSION);
+	private boolean addArticle(LexicalEntry lexicalEntry, IndexEntry idxEntry) {
+		long offset = idxEntry.getWordDataOffset();
+		int size = idxEntry.getWordDataSize();
+		SpannedText definitions = ArticleCache.getInstance().get(bookInfo.getFileBaseName(), offset, size);
+		if(definitions != null) {
+			lexicalEntry.addSpannedDefinitions(definitions, this, idxEntry);
+			return true;
 		}
-		byte[] buffer = new byte[idxEntry.getWordDataSize()];
+		byte[] buffer = readDataBlocks(idxEntry);
+		if(buffer == null) {
+			return false;
+		}
+		lexicalEntry.addDataBlocks(buffer, this, idxEntry);
+		return true;
+	}
+
+	/**
+	 * Reads the data of the lexical entry corresponding to the index entry.
+	 * If the book has been closed during the read, the read is repeated once
+	 * with the reopened dictionary file. It is also used by LexicalEntry to
+	 * read again the data of a cached article.
+	 * 
+	 * @param idxEntry	index entry for what the data is requested.
+	 * @return			the data or `null` if it cannot be read.
+	 */
+	byte[] readDataBlocks(IndexEntry idxEntry) {
 		try {
-			buffer = dzFile.read(idxEntry.getWordDataOffset(), idxEntry.getWordDataSize());
-			String lemma = idxEntry.getLemma();
-			result = new LexicalEntry(lemma, buffer, bookInfo);
+			IDictData data = getDictData();
+			try {
+				return data.read(idxEntry.getWordDataOffset(), idxEntry.getWordDataSize());
+			} catch (IOException e) {
+				IDictData reopened = getDictData();
+				if(reopened == data) {
+					throw e;
+				}
+				return reopened.read(idxEntry.getWordDataOffset(), idxEntry.getWordDataSize());
+			}
 		} catch (IOException e) {
 			Log.e(this.getClass().getName(), e.getMessage());
-		} finally {
-			buffer = null;
 		}
-		return result;
+		return null;
+	}
+
+	/**
+	 * Opens the dictionary file on the first call. Uncompressed
+	 * <dictionary name>.dict file is preferred to <dictionary name>.dict.dz
+	 * file if both are present.
+	 * 
+	 * @return	DictFile or DictZipFile object.
+	 * @throws IOException	if the uncompressed file cannot be mapped.
+	 */
+	private synchronized IDictData getDictData() throws IOException {
+		if(dictData == null){
+			String dictFileName = bookInfo.getFileBaseName() + DICT_FILE_EXTENSION;
+			if(new File(dictFileName).isFile()) {
+				dictData = new DictFile(dictFileName);
+			} else {
+				dictData = new DictZipFile(bookInfo.getFileBaseName() + DICT_ZIP_FILE_EXTENSION);
+			}
+		}
+		return dictData;
+	}
+
+	/**
+	 * Closes the dictionary files and releases the memory held by the data
+	 * backend and the indexes. The iterators already returned by
+	 * {@link #iterator()} keep working. The book can still be used
+	 * afterwards, the files are reopened on the next lookup.
+	 */
+	@Override
+	public synchronized void close() {
+		if(dictData != null) {
+			try {
+				dictData.close();
+			} catch (IOException e) {
+				Log.e(this.getClass().getName(), e.getMessage());
+			}
+			dictData = null;
+		}
+		indexEntriesIterator = null;
+		FileHandlePool pool = FileHandlePool.getInstance();
+		pool.close(bookInfo.getFileBaseName() + ".idx");
+		pool.close(bookInfo.getFileBaseName() + SparkDictIndex.FILE_EXTENSION);
+		ArticleCache.getInstance().remove(bookInfo.getFileBaseName());
 	}
 
 	/**
@@ -135,7 +221,10 @@ public class Book implements Iterable<IndexEntry> {
 
 	/**
 	 * Lexical entry retriever. Retrieves and constructs LexicalEntry 
-	 * that matches the string provided as the parameter.
+	 * that matches the string provided as the parameter. The data of all
+	 * matching index entries is read, but it is not parsed until the
+	 * definitions are requested. Recently viewed articles are neither read
+	 * nor parsed, their spanned definitions are taken from ArticleCache.
 	 * 
 	 * @param lemma		lemma of the lexical entry to be retrieved.
 	 * @return			LexicalEntry if the match is found, else `null`.
@@ -149,21 +238,19 @@ public class Book implements Iterable<IndexEntry> {
 			return result;
 		}
 		IndexEntry indexEntry = iterator.findIndexEntry(lemma);
+		boolean found = false;
 		while(indexEntry != null && indexEntry.getLemma().equals(lemma)) {
-			LexicalEntry lexicalEntry = getLexicalEntry(indexEntry);
 			if (result == null) {
-				result = lexicalEntry;
-			} else {
-				String definitions = result.getDefinitions() + "<br><br>" + lexicalEntry.getDefinitions();
-				result.setDefinitions(definitions);
+				result = new LexicalEntry(indexEntry.getLemma(), bookInfo);
 			}
+			found |= addArticle(result, indexEntry);
 			indexEntry = iterator.next();
 		}
-		return result;
+		return found ? result : null;
 	}
 
 	/**
-	 * Constructs SparkDictIndex.
+	 * Constructs SparkDictIndex. The next lookup opens the new indexes.
 	 * 
 	 * @param observer
 	 *            observer to be attached to SparkDictIndex object.
@@ -178,22 +265,63 @@ public class Book implements Iterable<IndexEntry> {
 			throw new DomainException("Cannot build index for `"
 					+ bookInfo.getBookName() + "` dictionary.", e);
 		}
+		synchronized (this) {
+			indexEntriesIterator = null;
+		}
 	}
 
 	/**
-	 * Returns an Iterator for index entries.
+	 * Checks whether SparkDictIndex of this book, its sparse top level and
+	 * the case folded index exist and were built from the current
+	 * <dictionary name>.idx file.
+	 * 
+	 * @return `true` if the indexes do not need to be rebuilt, else `false`.
+	 */
+	public boolean isSparkDictIndexUpToDate() {
+		SparkDictIndex sparkDictIndex = new SparkDictIndex(bookInfo);
+		return sparkDictIndex.isUpToDate()
+				&& new SparkDictSparseIndex(bookInfo, sparkDictIndex,
+						SparkDictSparseIndex.DEFAULT_MEMORY_BUDGET).isUpToDate()
+				&& new SparkDictFoldedIndex(bookInfo, sparkDictIndex).isUpToDate();
+	}
+
+	/**
+	 * Returns a new Iterator for index entries. Every call returns an
+	 * iterator with its own cursor, so several threads can search the book at
+	 * the same time. The indexes are opened once and shared. Missing or stale
+	 * indexes are not built here, they are reported and the book is searched
+	 * without them until {@link Shelf#buildSparkDictIndexes(IObserver, int)}
+	 * rebuilds them. The iterator is reopened once any index of the book has
+	 * been rebuilt, also through another book object.
 	 */
 	@Override
 	public Iterator<IndexEntry> iterator() {
-		if(indexEntriesIterator == null) {
-			try {
-				indexEntriesIterator = new IndexEntriesIterator(bookInfo);
-			} catch (DomainException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		IndexEntriesIterator shared;
+		int generation = SparkDictIndex.getGeneration(bookInfo.getFileBaseName());
+		synchronized (this) {
+			if(indexEntriesIterator != null && indexGeneration != generation) {
+				indexEntriesIterator = null;
 			}
+			if(indexEntriesIterator == null) {
+				indexGeneration = generation;
+				try {
+					indexEntriesIterator = new IndexEntriesIterator(bookInfo);
+					if(indexEntriesIterator.isStale()) {
+						Log.w(this.getClass().getName(), "SparkDictIndex of `"
+								+ bookInfo.getBookName()
+								+ "` dictionary is missing or stale and must be rebuilt");
+					}
+				} catch (DomainException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				}
+			}
+			shared = indexEntriesIterator;
 		}
-		return indexEntriesIterator;
+		if(shared == null) {
+			return null;
+		}
+		return shared.newCursor();
 	}
 
 	/**
@@ -210,7 +338,7 @@ public class Book implements Iterable<IndexEntry> {
 			return result;
 		}
 		String[] prefixVariations;
-		if(isAsciiString(prefix)) {
+		if(IndexEntry.isAsciiString(prefix) || iterator.hasFoldedIndex()) {
 			prefixVariations = new String[1];
 			prefixVariations[0] = prefix;
 		} else { // get suggestions for all variations of the prefix (aspROvided, lowercase, UPPERCASE, Capitalized)
@@ -276,21 +404,4 @@ public class Book implements Iterable<IndexEntry> {
 		}
 		return String.valueOf(chars);
 	}
-	
-	/**
-	 * Checks if the string contains only ASCII characters.
-	 * 
-	 * @param str	string to be verified.
-	 * @return		`true` if the string contains only ASCII characters, else `false`.
-	 */
-	private static boolean isAsciiString(String str) {
-		int length = str.length();
-		for (int i = 0; i < length; i++) {
-			char c = str.charAt(i);
-			if((int) c > 127) { // if contains non-ASCII character
-				return false;
-			}
-		}
-		return true;
-	}
 }
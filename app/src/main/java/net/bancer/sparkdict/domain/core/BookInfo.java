@@ -38,7 +38,7 @@ public class BookInfo {
 	 * 
 	 * required
 	 */
-	private int idxFileSize;
+	private long idxFileSize;
 
 	/**
 	 * idxOffsetBits can be 64 or 32.
@@ -117,7 +117,7 @@ public class BookInfo {
 				} else if(line.indexOf("wordcount=") >= 0){
 					wordCount = Integer.parseInt(line.substring(10));
 				} else if(line.indexOf("idxfilesize=") >= 0){
-					idxFileSize = Integer.parseInt(line.substring(12));
+					idxFileSize = Long.parseLong(line.substring(12));
 				} else if(line.indexOf("idxoffsetbits=") >= 0){
 					idxOffsetBits = Integer.parseInt(line.substring(14));
 				} else if(line.indexOf("author=") >= 0){
@@ -198,7 +198,7 @@ public class BookInfo {
 	 * 
 	 * @return the size of index file.
 	 */
-	public int getIdxFileSize() {
+	public long getIdxFileSize() {
 		return idxFileSize;
 	}
 
@@ -0,0 +1,119 @@
+package net.bancer.sparkdict.domain.core;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * DictFile is an abstraction of uncompressed <dictionary name>.dict file. The
+ * whole file is mapped into memory and articles are copied straight from the
+ * mapped buffers, so reading an article costs only page cache reads. Only
+ * absolute reads of the mapped buffers are used, so the object can be read
+ * from many threads at once. The file is closed as soon as it is mapped, the
+ * mapped buffers stay valid without an open file descriptor.
+ * 
+ * @author Valerij Bancer
+ *
+ */
+public class DictFile implements IDictData {
+
+	/**
+	 * Default maximum size of a single mapped region of the file.
+	 */
+	public static final long DEFAULT_SEGMENT_SIZE = 1L << 30; // 1gb
+
+	/**
+	 * Mapped regions of the file, `null` after the file has been closed.
+	 */
+	private volatile MappedByteBuffer[] segments;
+
+	private long length;
+
+	/**
+	 * Maximum size of a single mapped region of the file.
+	 */
+	private long segmentSize;
+
+	/**
+	 * Constructor. Maps <dictionary name>.dict file into memory and closes it.
+	 * 
+	 * @param dictFileName	<dictionary name>.dict full file name.
+	 * @throws IOException	if the file cannot be opened or mapped.
+	 */
+	public DictFile(String dictFileName) throws IOException {
+		this(dictFileName, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Constructor. Maps <dictionary name>.dict file into memory by regions of
+	 * the provided size and closes it.
+	 * 
+	 * @param dictFileName	<dictionary name>.dict full file name.
+	 * @param segmentSize	maximum size of a single mapped region.
+	 * @throws IOException	if the file cannot be opened or mapped.
+	 * @throws IllegalArgumentException if the segment size is not positive
+	 * 									or does not fit into a mapped buffer.
+	 */
+	public DictFile(String dictFileName, long segmentSize) throws IOException {
+		if(segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("invalid segmentSize argument");
+		}
+		this.segmentSize = segmentSize;
+		RandomAccessFile dictFile = new RandomAccessFile(dictFileName, "r");
+		try {
+			FileChannel channel = dictFile.getChannel();
+			length = channel.size();
+			int count = (int) ((length + segmentSize - 1) / segmentSize);
+			MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				long start = i * segmentSize;
+				mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(segmentSize, length - start));
+			}
+			segments = mapped;
+		} finally {
+			dictFile.close();
+		}
+	}
+
+	/**
+	 * Copies part of the mapped dictionary file.
+	 * 
+	 * @see IDictData#read(long, int)
+	 */
+	@Override
+	public byte[] read(long offset, int size) throws IOException {
+		MappedByteBuffer[] mapped = segments;
+		if(mapped == null) {
+			throw new IOException("Dictionary file is closed");
+		}
+		if(offset < 0 || size < 0 || offset + size > length) {
+			throw new IOException("Cannot read " + size + " bytes at "
+					+ offset + ", file length: " + length);
+		}
+		byte[] result = new byte[size];
+		int copied = 0;
+		while(copied < size) {
+			long position = offset + copied;
+			ByteBuffer segment = mapped[(int) (position / segmentSize)].duplicate();
+			segment.position((int) (position % segmentSize));
+			int count = Math.min(size - copied, segment.remaining());
+			segment.get(result, copied, count);
+			copied += count;
+		}
+		return result;
+	}
+
+	/**
+	 * Releases the mapped regions of the file, they are unmapped by the
+	 * garbage collector.
+	 * 
+	 * @see IDictData#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		segments = null;
+	}
+}
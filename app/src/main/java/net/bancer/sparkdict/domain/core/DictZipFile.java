@@ -35,36 +35,85 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package net.bancer.sparkdict.domain.core;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 //import java.util.zip.InflaterOutputStream;
 
-class Chunk {
-
-	public int offset;
-
-	public int size;
-
-	public Chunk(int o, int s) {
-		offset = o;
-		size = s;
-	}
-}
-
 /**
  * DictZipFile is an abstraction of <dictionary name>.dict.dz file.
+ * 
+ * After the header has been read in the constructor the object keeps no read
+ * position of its own and reads chunks with positional reads, so it can be
+ * read from many threads at once.
  *
  */
-public class DictZipFile {
+public class DictZipFile implements IDictData {
 
 	/**
-	 * 
+	 * Default maximum size in bytes of the decompressed chunks kept in cache.
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 256 * 1024;
+
+	/**
+	 * Maximum quantity of idle inflaters kept for reuse.
+	 */
+	private static final int INFLATERS_POOL_SIZE = 4;
+
+	/**
+	 * Default minimum quantity of chunks spanned by a read which are inflated
+	 * in parallel.
 	 */
-	private RandomAccessFile dzFile;
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 4;
+
+	/**
+	 * Maximum quantity of worker threads inflating chunks in parallel.
+	 */
+	private static final int MAX_WORKERS = 4;
+
+	/**
+	 * Default maximum quantity of chunks inflated ahead of sequential reads.
+	 */
+	public static final int DEFAULT_MAX_READAHEAD = 4;
+
+	/**
+	 * Worker threads shared by all dictionaries, created on the first
+	 * parallel read.
+	 */
+	private static ExecutorService workers = null;
+
+	/**
+	 * Quantities of the open DictZipFile objects by file name shared by all
+	 * dictionaries of the process. The objects keep the random access table
+	 * of the file, so the file must not be replaced while it is open.
+	 */
+	private static final HashMap<String, Integer> OPEN_FILES = new HashMap<String, Integer>();
+
+	/**
+	 * <dictionary name>.dict.dz full file name. The file is opened through
+	 * {@link FileHandlePool} only while a chunk is read.
+	 */
+	private String fileName;
 
 	//private static final int FTEXT = 1;
 	private static final int FHCRC = 2;
@@ -75,13 +124,87 @@ public class DictZipFile {
 	//private static final int READ = 1;
 	//private static final int WRITE = 2;
 
-	private int pos = 0;
 	private int chlen = 0;
-	private int pointerPosition = 0;
+	private long pointerPosition = 0;
 
 	//private String last_error = "";
 
-	private List<Chunk> chunks;
+	/**
+	 * Offsets of the compressed chunks relative to the start of the
+	 * compressed data. The last element is the end of the last chunk, so
+	 * chunk n occupies bytes from chunkOffsets[n] to chunkOffsets[n + 1].
+	 */
+	private long[] chunkOffsets = new long[1];
+
+	/**
+	 * Decompressed chunks by chunk number in the least recently used order.
+	 */
+	private LinkedHashMap<Integer, byte[]> cache;
+
+	/**
+	 * Maximum size in bytes of the decompressed chunks kept in cache.
+	 */
+	private int cacheSize;
+
+	/**
+	 * Size in bytes of the decompressed chunks currently kept in cache.
+	 */
+	private int cachedBytes = 0;
+
+	private long cacheHits = 0;
+
+	private long cacheMisses = 0;
+
+	/**
+	 * Idle inflaters ready for reuse.
+	 */
+	private List<Inflater> inflaters = new ArrayList<Inflater>(INFLATERS_POOL_SIZE);
+
+	/**
+	 * Flag indicating whether {@link #close()} has been called. It is read
+	 * without locks by the readers and the readahead tasks.
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Minimum quantity of chunks spanned by a read which are inflated in
+	 * parallel, 0 if the chunks are always inflated on the calling thread.
+	 */
+	private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+	/**
+	 * Maximum quantity of chunks inflated ahead of sequential reads, 0 if
+	 * readahead is disabled.
+	 */
+	private volatile int maxReadahead = DEFAULT_MAX_READAHEAD;
+
+	/**
+	 * Numbers of the chunks being inflated ahead on the worker threads. It
+	 * also guards the readahead state below.
+	 */
+	private Set<Integer> prefetching = new HashSet<Integer>();
+
+	/**
+	 * Number of the last chunk of the previous read.
+	 */
+	private int lastReadChunk = -1;
+
+	/**
+	 * Uncompressed offset of the end of the previous read, -1 before the
+	 * first read.
+	 */
+	private long lastReadEnd = -1;
+
+	/**
+	 * Quantity of chunks currently inflated ahead. It doubles with every
+	 * sequential read and drops to 0 on a random one.
+	 */
+	private int readaheadWindow = 0;
+
+	/**
+	 * Number of the last chunk already inflated ahead.
+	 */
+	private int lastPrefetchedChunk = -1;
 
 	/**
 	 * Constructor.
@@ -89,12 +212,36 @@ public class DictZipFile {
 	 * @param dictzipfilename <dictionary name>.dict.dz full file name.
 	 */
 	public DictZipFile(String dictzipfilename) {
+		this(dictzipfilename, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param dictzipfilename	<dictionary name>.dict.dz full file name.
+	 * @param cacheSize			maximum size in bytes of the decompressed
+	 * 							chunks kept in cache, 0 disables the cache.
+	 * @throws IllegalArgumentException if the cache size is negative.
+	 */
+	public DictZipFile(String dictzipfilename, int cacheSize) {
+		if(cacheSize < 0) {
+			throw new IllegalArgumentException("invalid cacheSize argument");
+		}
+		this.cacheSize = cacheSize;
+		cache = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true);
+		this.fileName = dictzipfilename;
+		synchronized (OPEN_FILES) {
+			Integer quantity = OPEN_FILES.get(dictzipfilename);
+			OPEN_FILES.put(dictzipfilename, (quantity == null) ? 1 : quantity + 1);
+		}
 		try {
-			dzFile = new RandomAccessFile(dictzipfilename,"r");
-			pos = 0;
-			pointerPosition = 0;
-			chunks = new ArrayList<Chunk> ();
-			this.readGZipHeader();
+			RandomAccessFile dzFile = new RandomAccessFile(dictzipfilename,"r");
+			try {
+				pointerPosition = 0;
+				this.readGZipHeader(dzFile);
+			} finally {
+				dzFile.close();
+			}
 		} catch(Exception e) {
 			//last_error = e.toString();
 			e.printStackTrace();
@@ -102,81 +249,373 @@ public class DictZipFile {
 	}
 
 	/**
+	 * Copies the requested part of every decompressed chunk straight into
+	 * the destination buffer.
 	 * 
-	 * @param buff
-	 * @param size
-	 * @return
-	 * @throws IOException 
+	 * @param buff	destination buffer.
+	 * @param pos	uncompressed file offset where to start reading.
+	 * @param size	uncompressed size to be read.
+	 * @return		0.
+	 * @throws IOException	if the requested range is beyond the end of the
+	 * 						file, the file has been closed or there was
+	 * 						problem with reading the file.
 	 */
-	private int read(byte[] buff, int size) throws IOException {
+	private int read(byte[] buff, long pos, int size) throws IOException {
+		if(closed) {
+			throw new IOException("Dictionary file is closed");
+		}
 		if(size<=0) {
 			return 0;
 		}
-		int firstchunk = this.pos/this.chlen;
-		int offset = this.pos - firstchunk*this.chlen;
-		int lastchunk = (this.pos+size)/this.chlen;
-		/*
-		 * int finish = 0;
-		 * int npos = 0;
-		 * finish = offset+size;
-		 * npos = this.pos+size;
-		 */
-		ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+		int firstchunk = (int) (pos/this.chlen);
+		int offset = (int) (pos - (long) firstchunk*this.chlen);
+		int lastchunk = (int) ((pos+size-1)/this.chlen);
+		this.readAhead(pos, size, firstchunk, lastchunk);
+		int threshold = this.parallelThreshold;
+		byte[][] chunks = null;
+		if(threshold > 0 && lastchunk - firstchunk + 1 >= threshold) {
+			chunks = this.getChunksInParallel(firstchunk, lastchunk);
+		}
+		int copied = 0;
 		for(int i=firstchunk;i<=lastchunk;i++) {
-			byteStream.write(this.readChunk(i));
+			byte[] chunk = (chunks != null) ? chunks[i - firstchunk] : this.getChunk(i);
+			if(chunk == null || chunk.length <= offset) {
+				throw new IOException("Cannot read " + size + " bytes at "
+						+ pos + ", chunk " + i + " is missing");
+			}
+			int length = Math.min(chunk.length - offset, size - copied);
+			System.arraycopy(chunk, offset, buff, copied, length);
+			copied += length;
+			offset = 0;
 		}
-		byte [] buf = byteStream.toByteArray();
-		for(int i=0;i<size;i++) {
-			buff[i]=buf[offset+i];
+		if(copied < size) {
+			throw new IOException("Cannot read " + size + " bytes at "
+					+ pos + ", end of file reached");
 		}
 		return 0;
 	}
 
 	/**
+	 * Detects sequential reads and inflates the chunks following the read
+	 * range into the cache on the worker threads. A read which starts at or
+	 * after the end of the previous one, in the same chunk or in the next
+	 * chunk, is sequential. Any other read, including a repeated read in the
+	 * same chunk, turns readahead off until reads become sequential again.
+	 * The readahead never takes more than half of the cache.
 	 * 
-	 * @param pos
-	 * @param where
-	 */
-	private void seek(int pos, int where) {
-		if (where == 0) {
-			this.pos=pos;
-		} else if (where==1) {
-			this.pos+=pos;
-		} else {
-			this.pos=pos;
+	 * @param pos			uncompressed file offset of the read.
+	 * @param size			uncompressed size of the read.
+	 * @param firstchunk	number of the first chunk of the read.
+	 * @param lastchunk		number of the last chunk of the read.
+	 */
+	private void readAhead(long pos, int size, int firstchunk, int lastchunk) {
+		int limit = Math.min(maxReadahead, cacheSize / 2 / this.chlen);
+		int from;
+		int to;
+		synchronized (prefetching) {
+			boolean sequential = lastReadEnd >= 0 && pos >= lastReadEnd
+					&& firstchunk <= lastReadChunk + 1;
+			lastReadChunk = lastchunk;
+			lastReadEnd = pos + size;
+			if(!sequential || limit <= 0) {
+				readaheadWindow = 0;
+				lastPrefetchedChunk = lastchunk;
+				return;
+			}
+			readaheadWindow = Math.min(Math.max(readaheadWindow * 2, 1), limit);
+			from = Math.max(lastchunk, lastPrefetchedChunk) + 1;
+			to = Math.min(lastchunk + readaheadWindow, this.chunkOffsets.length - 2);
+			if(from > to) {
+				return;
+			}
+			lastPrefetchedChunk = to;
+		}
+		ExecutorService executor = getWorkers();
+		for (int i = from; i <= to; i++) {
+			final int n = i;
+			synchronized (cache) {
+				if(cache.containsKey(n)) {
+					continue;
+				}
+			}
+			synchronized (prefetching) {
+				if(closed || !prefetching.add(n)) {
+					continue;
+				}
+			}
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					prefetchChunk(n);
+				}
+			});
 		}
 	}
 
 	/**
+	 * Inflates the chunk into the cache unless it is already there or the
+	 * file has been closed since the task was queued. Cache hits and misses
+	 * are not counted. Errors are ignored, they are reported when the chunk
+	 * is actually read.
 	 * 
-	 * @param pos
+	 * @param n	chunk number.
 	 */
-	private void seek(int pos) {
-		this.seek(pos,0);
+	private void prefetchChunk(int n) {
+		try {
+			if(closed) {
+				return;
+			}
+			synchronized (cache) {
+				if(cache.containsKey(n)) {
+					return;
+				}
+			}
+			byte[] chunk = readChunk(n);
+			if(!closed) {
+				putChunk(n, chunk);
+			}
+		} catch (IOException e) {
+			// the chunk is inflated again by the read which needs it
+		} finally {
+			synchronized (prefetching) {
+				prefetching.remove(n);
+				prefetching.notifyAll();
+			}
+		}
 	}
 
 	/**
+	 * Waits until the chunks queued for readahead have been inflated or
+	 * dropped.
 	 * 
-	 * @return
+	 * @throws InterruptedException	if the calling thread was interrupted.
 	 */
-	/*private int tell() {
-		return this.pos;
-	}*/
+	public void awaitReadahead() throws InterruptedException {
+		synchronized (prefetching) {
+			while(!prefetching.isEmpty()) {
+				prefetching.wait();
+			}
+		}
+	}
 
 	/**
+	 * Getter of the uncompressed length of the chunks. The last chunk may be
+	 * shorter.
 	 * 
-	 * @throws Exception
+	 * @return	chunk length in bytes.
 	 */
-	/*public void close() throws Exception{
-		this.dzFile.close();
-	}*/
+	public int getChunkLength() {
+		return chlen;
+	}
 
 	/**
+	 * Sets the maximum quantity of chunks inflated ahead into the cache when
+	 * the dictionary is read sequentially.
 	 * 
+	 * @param chunksQuantity	maximum quantity of chunks, 0 disables
+	 * 							readahead.
+	 * @throws IllegalArgumentException if the quantity is negative.
+	 */
+	public void setMaxReadahead(int chunksQuantity) {
+		if(chunksQuantity < 0) {
+			throw new IllegalArgumentException("invalid chunksQuantity argument");
+		}
+		this.maxReadahead = chunksQuantity;
+	}
+
+	/**
+	 * Retrieves the range of chunks inflating all of them but the first one
+	 * on the worker threads. The first chunk is inflated on the calling
+	 * thread meanwhile.
+	 * 
+	 * @param firstchunk	number of the first chunk.
+	 * @param lastchunk		number of the last chunk.
+	 * @return				decompressed chunks in order, `null` elements
+	 * 						for the missing chunks.
+	 * @throws IOException	if there was problem with reading the file or the
+	 * 						calling thread was interrupted.
+	 */
+	private byte[][] getChunksInParallel(int firstchunk, int lastchunk)
+			throws IOException {
+		byte[][] chunks = new byte[lastchunk - firstchunk + 1][];
+		List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(chunks.length - 1);
+		try {
+			ExecutorService executor = getWorkers();
+			for (int i = firstchunk + 1; i <= lastchunk; i++) {
+				final int n = i;
+				futures.add(executor.submit(new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws IOException {
+						return getChunk(n);
+					}
+				}));
+			}
+			chunks[0] = this.getChunk(firstchunk);
+			for (int i = 0; i < futures.size(); i++) {
+				chunks[i + 1] = futures.get(i).get();
+			}
+			return chunks;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while inflating chunks "
+					+ firstchunk + " to " + lastchunk);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Cannot inflate chunks " + firstchunk
+					+ " to " + lastchunk + ": " + e.getCause());
+		} finally {
+			for (Future<byte[]> future : futures) {
+				future.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Creates the shared worker threads on the first call. The threads are
+	 * daemons, so they do not keep the application alive.
+	 * 
+	 * @return	executor inflating chunks in parallel.
+	 */
+	private static synchronized ExecutorService getWorkers() {
+		if(workers == null) {
+			int quantity = Math.max(1, Math.min(
+					Runtime.getRuntime().availableProcessors(), MAX_WORKERS));
+			workers = Executors.newFixedThreadPool(quantity, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "DictZipFile worker");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return workers;
+	}
+
+	/**
+	 * Sets the minimum quantity of chunks spanned by a read which are
+	 * inflated in parallel on the worker threads. Reads spanning fewer chunks
+	 * are inflated on the calling thread.
+	 * 
+	 * @param chunksQuantity	minimum quantity of chunks, 0 disables
+	 * 							parallel inflating.
+	 * @throws IllegalArgumentException if the quantity is negative.
+	 */
+	public void setParallelThreshold(int chunksQuantity) {
+		if(chunksQuantity < 0) {
+			throw new IllegalArgumentException("invalid chunksQuantity argument");
+		}
+		this.parallelThreshold = chunksQuantity;
+	}
+
+	/**
+	 * Closes the file and releases native memory of the pooled inflaters.
+	 * 
+	 * @see IDictData#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (OPEN_FILES) {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			int quantity = OPEN_FILES.get(fileName);
+			if(quantity > 1) {
+				OPEN_FILES.put(fileName, quantity - 1);
+			} else {
+				OPEN_FILES.remove(fileName);
+			}
+		}
+		synchronized (inflaters) {
+			for (Inflater inflater : inflaters) {
+				inflater.end();
+			}
+			inflaters.clear();
+		}
+		synchronized (cache) {
+			cache.clear();
+			cachedBytes = 0;
+		}
+		FileHandlePool.getInstance().close(fileName);
+	}
+
+	/**
+	 * Checks whether the file is read by an open DictZipFile object.
+	 * 
+	 * @param fileName	full file name.
+	 * @return			`true` if the file has not been closed by one of
+	 * 					its DictZipFile objects.
+	 */
+	public static boolean isOpen(String fileName) {
+		synchronized (OPEN_FILES) {
+			return OPEN_FILES.containsKey(fileName);
+		}
+	}
+
+	/**
+	 * Replaces the file with the completely written temporary file unless
+	 * the file is read by an open DictZipFile object. The check and the
+	 * replacement are done while no DictZipFile object can be opened, so no
+	 * object reads the new file with the random access table of the old one.
+	 * 
+	 * @param temporaryFile	completely written temporary file, it is deleted
+	 * 						if the file cannot be replaced.
+	 * @param fileName		full file name of the file to be replaced.
+	 * @throws IOException	if the file is in use or cannot be replaced.
+	 */
+	public static void replaceIfClosed(File temporaryFile, String fileName)
+			throws IOException {
+		synchronized (OPEN_FILES) {
+			if(OPEN_FILES.containsKey(fileName)) {
+				temporaryFile.delete();
+				throw new IOException("Cannot replace " + fileName
+						+ ", the file is in use");
+			}
+			SparkDictIndex.replaceFile(temporaryFile, fileName);
+		}
+	}
+
+	/**
+	 * Takes an idle inflater from the pool or creates a new one.
+	 * 
+	 * @return	inflater for raw deflate data.
+	 */
+	private Inflater obtainInflater() {
+		synchronized (inflaters) {
+			if(!inflaters.isEmpty()) {
+				return inflaters.remove(inflaters.size() - 1);
+			}
+		}
+		return new Inflater(true);
+	}
+
+	/**
+	 * Resets the inflater and returns it to the pool. The inflater is ended
+	 * if the pool is full or the file has been closed.
+	 * 
+	 * @param inflater	inflater obtained by {@link #obtainInflater()}.
+	 */
+	private void releaseInflater(Inflater inflater) {
+		synchronized (inflaters) {
+			if(!closed && inflaters.size() < INFLATERS_POOL_SIZE) {
+				inflater.reset();
+				inflaters.add(inflater);
+				return;
+			}
+		}
+		inflater.end();
+	}
+
+	/**
+	 * 
+	 * @param dzFile	<dictionary name>.dict.dz file positioned at its start.
 	 * @throws IOException 
 	 * @throws Exception
 	 */
-	private void readGZipHeader() throws IOException {
+	private void readGZipHeader(RandomAccessFile dzFile) throws IOException {
 		byte [] buffer = new byte[2];
 		dzFile.read(buffer);
 		this.pointerPosition+=2;
@@ -217,17 +656,13 @@ public class DictZipFile {
 			this.chlen = ((int)extra[ext+6]&0xff) + (256*((int)extra[ext+7]&0xff));
 			int chcnt = ((int)extra[ext+8]&0xff) + (256*((int)extra[ext+9]&0xff));
 			int p = 10;
-			List <Integer> lens = new ArrayList<Integer>(); 
+			long[] offsets = new long[chcnt + 1];
 			for(int i=0;i<chcnt;i++) {
 				int thischlen = ((int)extra[ext+p]&0xff) + (256*((int)extra[ext+p+1]&0xff));
 				p+=2;
-				lens.add(thischlen);
-			}
-			int chpos = 0;
-			for(Integer i : lens) {
-				this.chunks.add(new Chunk(chpos,i));
-				chpos += i;
+				offsets[i + 1] = offsets[i] + thischlen;
 			}
+			this.chunkOffsets = offsets;
 		} else {
 			throw new IOException("Missing dictzip extension");
 		}
@@ -260,24 +695,141 @@ public class DictZipFile {
 	}
 
 	/**
+	 * Reads the compressed chunk and inflates it straight into a new array
+	 * of the chunk length.
 	 * 
-	 * @param n
-	 * @return
-	 * @throws IOException 
-	 * @throws Exception
+	 * @param n	chunk number.
+	 * @return	decompressed chunk or `null` if there is no such chunk.
+	 * @throws IOException	if there was problem with reading the file or the
+	 * 						chunk is corrupted.
 	 */
-	private byte [] readChunk(int n) throws IOException {
-		if(n>=this.chunks.size()) {
+	private byte [] readChunk(final int n) throws IOException {
+		if(n>=this.chunkOffsets.length - 1) {
 			return null;
 		}
-		this.dzFile.seek(this.pointerPosition+this.chunks.get(n).offset);
-		int size = this.chunks.get(n).size;
-		byte [] buff = new byte[size];
-		this.dzFile.read(buff);
-		ByteArrayOutputStream bos = new ByteArrayOutputStream ();
-		InflaterOutputStream  gz = new InflaterOutputStream(bos, new Inflater(true));
-		gz.write(buff);
-		return bos.toByteArray(); 
+		final long position = this.pointerPosition+this.chunkOffsets[n];
+		int size = (int) (this.chunkOffsets[n + 1] - this.chunkOffsets[n]);
+		final byte [] buff = new byte[size];
+		FileHandlePool pool = FileHandlePool.getInstance();
+		try {
+			pool.read(this.fileName, new FileHandlePool.Reader<Void>() {
+				@Override
+				public Void read(FileChannel channel) throws IOException {
+					ByteBuffer target = ByteBuffer.wrap(buff);
+					while(target.hasRemaining()) {
+						if(channel.read(target, position + target.position()) < 0) {
+							throw new IOException("Chunk " + n + " is truncated");
+						}
+					}
+					return null;
+				}
+			});
+		} finally {
+			if(closed) {
+				// the file may have been reopened after close() released it
+				pool.close(this.fileName);
+			}
+		}
+		byte[] data = new byte[this.chlen];
+		int length = 0;
+		Inflater inflater = obtainInflater();
+		try {
+			inflater.setInput(buff);
+			while(length < data.length) {
+				int inflated = inflater.inflate(data, length, data.length - length);
+				if(inflated == 0) {
+					if(inflater.needsDictionary()) {
+						throw new IOException("Chunk " + n + " requires a preset dictionary");
+					}
+					break;
+				}
+				length += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Chunk " + n + " is corrupted: " + e.getMessage());
+		} finally {
+			releaseInflater(inflater);
+		}
+		if(length < data.length) {
+			// the last chunk is usually shorter
+			data = Arrays.copyOf(data, length);
+		}
+		return data;
+	}
+
+	/**
+	 * Retrieves decompressed chunk from the cache or decompresses it and puts
+	 * into the cache evicting the least recently used chunks which do not fit
+	 * into the cache size.
+	 * 
+	 * @param n	chunk number.
+	 * @return	decompressed chunk or `null` if there is no such chunk.
+	 * @throws IOException	if the file has been closed or there was problem
+	 * 						with reading the file.
+	 */
+	private byte[] getChunk(int n) throws IOException {
+		if(closed) {
+			throw new IOException("Dictionary file is closed");
+		}
+		synchronized (cache) {
+			byte[] chunk = cache.get(n);
+			if(chunk != null) {
+				cacheHits++;
+				return chunk;
+			}
+			cacheMisses++;
+		}
+		byte[] chunk = readChunk(n);
+		putChunk(n, chunk);
+		return chunk;
+	}
+
+	/**
+	 * Puts decompressed chunk into the cache evicting the least recently used
+	 * chunks which do not fit into the cache size. Chunks larger than the
+	 * cache size are not cached.
+	 * 
+	 * @param n		chunk number.
+	 * @param chunk	decompressed chunk or `null`.
+	 */
+	private void putChunk(int n, byte[] chunk) {
+		if(chunk == null || chunk.length > cacheSize) {
+			return;
+		}
+		synchronized (cache) {
+			byte[] previous = cache.put(n, chunk);
+			if(previous != null) {
+				cachedBytes -= previous.length;
+			}
+			cachedBytes += chunk.length;
+			Iterator<Map.Entry<Integer, byte[]>> eldest = cache.entrySet().iterator();
+			while(cachedBytes > cacheSize && eldest.hasNext()) {
+				cachedBytes -= eldest.next().getValue().length;
+				eldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * Getter of the quantity of chunks found in cache.
+	 * 
+	 * @return	number of chunk requests served from cache.
+	 */
+	public long getCacheHits() {
+		synchronized (cache) {
+			return cacheHits;
+		}
+	}
+
+	/**
+	 * Getter of the quantity of chunks not found in cache.
+	 * 
+	 * @return	number of chunk requests which required decompression.
+	 */
+	public long getCacheMisses() {
+		synchronized (cache) {
+			return cacheMisses;
+		}
 	}
 
 	/*public void runtest() {
@@ -296,11 +848,12 @@ public class DictZipFile {
 	 * @param size		uncompressed size to be read.
 	 * @return			byte array of the specified size.
 	 * @throws IOException	if there was problem with reading the file.
+	 * @see IDictData#read(long, int)
 	 */
-	public byte[] read(int offset, int size) throws IOException {
+	@Override
+	public byte[] read(long offset, int size) throws IOException {
 		byte[] result = new byte[size];
-		seek(offset);
-		read(result, size);
+		read(result, offset, size);
 		return result;
 	}
 }
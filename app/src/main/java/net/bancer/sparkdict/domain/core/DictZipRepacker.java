@@ -0,0 +1,490 @@
+package net.bancer.sparkdict.domain.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+
+/**
+ * DictZipRepacker rewrites the data of a dictionary into a new
+ * <dictionary name>.dict.dz file with the chunk length chosen for the speed
+ * of random access. Small chunks make single articles faster to inflate,
+ * large chunks compress better.
+ *
+ * The source is <dictionary name>.dict file if it exists, otherwise
+ * <dictionary name>.dict.dz file, which may be either a dictzip file or a
+ * plain gzip file without the random access table.
+ *
+ * Dictzip chunks have the same uncompressed length, so the chunk boundaries
+ * cannot follow every article. When the alignment is requested, the chunk
+ * length is chosen among the lengths slightly smaller than the requested
+ * one, so that the articles listed in <dictionary name>.idx file cross as
+ * few chunk boundaries as possible.
+ *
+ * @author Valerij Bancer
+ *
+ */
+public class DictZipRepacker {
+
+	/**
+	 * Minimum uncompressed length of a chunk.
+	 */
+	public static final int MIN_CHUNK_LENGTH = 1024;
+
+	/**
+	 * Maximum uncompressed length of a chunk. It is the default of dictzip
+	 * utility which guarantees that a compressed chunk fits into 16 bits
+	 * even if the data cannot be compressed.
+	 */
+	public static final int MAX_CHUNK_LENGTH = 58315;
+
+	/**
+	 * Maximum quantity of chunks, the random access table must fit into the
+	 * 16 bits long extra field of the gzip header.
+	 */
+	private static final int MAX_CHUNKS_QUANTITY = (0xFFFF - 10) / 2;
+
+	/**
+	 * Distance between two chunk lengths tried when the chunks are aligned
+	 * to the articles.
+	 */
+	private static final int ALIGNMENT_STEP = 16;
+
+	/**
+	 * The shortest chunk length tried when the chunks are aligned to the
+	 * articles is the requested length multiplied by this factor.
+	 */
+	private static final double ALIGNMENT_RANGE = 0.75;
+
+	/**
+	 * Maximum quantity of articles read to measure the read time.
+	 */
+	private static final int SAMPLES_QUANTITY = 1000;
+
+	private static final int FEXTRA = 4;
+
+	private static final int OS_UNIX = 3;
+
+	private BookInfo bookInfo;
+
+	private int chunkLength;
+
+	private boolean alignToArticles;
+
+	/**
+	 * Offsets of all articles in the uncompressed data.
+	 */
+	private long[] articleOffsets = null;
+
+	/**
+	 * Sizes of all articles in the same order as {@link #articleOffsets}.
+	 */
+	private int[] articleSizes = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param bookInfo			BookInfo object.
+	 * @param chunkLength		requested uncompressed length of a chunk.
+	 * @param alignToArticles	`true` if the chunk length may be decreased
+	 * 							to align the chunks to the articles.
+	 * @throws IllegalArgumentException if the chunk length is out of
+	 * 							{@link #MIN_CHUNK_LENGTH} to
+	 * 							{@link #MAX_CHUNK_LENGTH} range.
+	 */
+	public DictZipRepacker(BookInfo bookInfo, int chunkLength,
+			boolean alignToArticles) {
+		if(chunkLength < MIN_CHUNK_LENGTH || chunkLength > MAX_CHUNK_LENGTH) {
+			throw new IllegalArgumentException("invalid chunkLength argument");
+		}
+		this.bookInfo = bookInfo;
+		this.chunkLength = chunkLength;
+		this.alignToArticles = alignToArticles;
+	}
+
+	/**
+	 * Writes the data of the dictionary into the new dictzip file and
+	 * measures how fast the articles can be read from it. The file is written
+	 * under a temporary name and renamed when it is complete, so the output
+	 * may replace the source <dictionary name>.dict.dz file. The file is not
+	 * replaced while a {@link DictZipFile} reading it is open, that object
+	 * would inflate the new file with the old random access table.
+	 *
+	 * @param outputFileName	full name of the file to be written.
+	 * @return					report of the size and the read time.
+	 * @throws IOException	if there was a problem reading or writing the
+	 * 						files, the output file is in use or the data does
+	 * 						not fit into the dictzip format with the requested
+	 * 						chunk length.
+	 */
+	public RepackReport repack(String outputFileName) throws IOException {
+		checkNotInUse(outputFileName);
+		loadArticles();
+		File source = getSourceFile();
+		long sourceSize = source.length();
+		int length = alignToArticles ? findAlignedChunkLength() : chunkLength;
+		File body = new File(outputFileName + ".body");
+		File output = new File(outputFileName + ".tmp");
+		List<Integer> chunkSizes = new ArrayList<Integer>();
+		CRC32 crc = new CRC32();
+		long uncompressedSize;
+		try {
+			InputStream in = openSource(source);
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(body));
+			try {
+				uncompressedSize = writeChunks(in, out, length, chunkSizes, crc);
+			} finally {
+				in.close();
+				out.close();
+			}
+			writeDictZipFile(output, body, length, chunkSizes, crc, uncompressedSize);
+		} finally {
+			body.delete();
+		}
+		File target = new File(outputFileName);
+		DictZipFile.replaceIfClosed(output, outputFileName);
+		return new RepackReport(sourceSize, target.length(),
+				uncompressedSize, length, chunkSizes.size(),
+				getAverageChunksPerArticle(length), measureReadTime(outputFileName));
+	}
+
+	/**
+	 * Checks that the output file is not read by an open dictionary, so the
+	 * work is not done in vain. The check is repeated atomically with the
+	 * replacement by {@link DictZipFile#replaceIfClosed(File, String)}.
+	 *
+	 * @param outputFileName	full name of the file to be written.
+	 * @throws IOException	if the file is read by an open DictZipFile.
+	 */
+	private void checkNotInUse(String outputFileName) throws IOException {
+		if(DictZipFile.isOpen(outputFileName)) {
+			throw new IOException("Cannot replace " + outputFileName
+					+ ", the file is in use");
+		}
+	}
+
+	/**
+	 * Finds the file the data is read from.
+	 *
+	 * @return	<dictionary name>.dict file if it exists, otherwise
+	 * 			<dictionary name>.dict.dz file.
+	 * @throws IOException	if neither of the files exists.
+	 */
+	private File getSourceFile() throws IOException {
+		File dictFile = new File(bookInfo.getFileBaseName() + Book.DICT_FILE_EXTENSION);
+		if(dictFile.isFile()) {
+			return dictFile;
+		}
+		File dictZipFile = new File(bookInfo.getFileBaseName() + Book.DICT_ZIP_FILE_EXTENSION);
+		if(dictZipFile.isFile()) {
+			return dictZipFile;
+		}
+		throw new IOException("No data file of `" + bookInfo.getBookName() + "` dictionary");
+	}
+
+	/**
+	 * Opens the source file as a stream of the uncompressed data. Dictzip
+	 * files are valid gzip files, so both are read by the same stream.
+	 *
+	 * @param source	<dictionary name>.dict or <dictionary name>.dict.dz file.
+	 * @return			stream of the uncompressed data.
+	 * @throws IOException	if there was a problem opening the file.
+	 */
+	private InputStream openSource(File source) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(source));
+		if(source.getName().endsWith(Book.DICT_ZIP_FILE_EXTENSION)) {
+			try {
+				return new GZIPInputStream(in);
+			} catch (IOException e) {
+				in.close();
+				throw e;
+			}
+		}
+		return in;
+	}
+
+	/**
+	 * Reads offsets and sizes of all articles from <dictionary name>.idx file.
+	 *
+	 * @throws IOException	if there was a problem reading the file.
+	 */
+	private void loadArticles() throws IOException {
+		StarDictIndex index = new StarDictIndex(bookInfo, StarDictIndex.READ_MODE_MAPPED);
+		long end = new File(index.getFileName()).length();
+		long[] offsets = new long[Math.max(bookInfo.getWordCount(), 16)];
+		int[] sizes = new int[offsets.length];
+		int count = 0;
+		long position = 0;
+		while(position < end) {
+			IndexEntry entry = index.retrieveIndexEntry(position);
+			if(entry == null) {
+				throw new IOException("Corrupted index entry at position "
+						+ position + " of `" + bookInfo.getBookName() + "` dictionary");
+			}
+			if(count == offsets.length) {
+				offsets = Arrays.copyOf(offsets, count * 2);
+				sizes = Arrays.copyOf(sizes, count * 2);
+			}
+			offsets[count] = entry.getWordDataOffset();
+			sizes[count] = entry.getWordDataSize();
+			count++;
+			position += entry.getLengthInBytes();
+		}
+		articleOffsets = Arrays.copyOf(offsets, count);
+		articleSizes = Arrays.copyOf(sizes, count);
+	}
+
+	/**
+	 * Tries the chunk lengths from the requested one down to
+	 * {@link #ALIGNMENT_RANGE} of it and picks the one with which reading
+	 * all articles inflates the fewest chunks. Of the equally good lengths
+	 * the longest one is picked, it compresses better.
+	 *
+	 * @return	uncompressed length of a chunk.
+	 */
+	private int findAlignedChunkLength() {
+		long dataEnd = 0;
+		for (int i = 0; i < articleOffsets.length; i++) {
+			dataEnd = Math.max(dataEnd, articleOffsets[i] + articleSizes[i]);
+		}
+		int shortest = Math.max((int) (chunkLength * ALIGNMENT_RANGE), MIN_CHUNK_LENGTH);
+		int best = chunkLength;
+		long bestChunks = getChunksPerArticles(chunkLength);
+		for (int length = chunkLength - ALIGNMENT_STEP; length >= shortest; length -= ALIGNMENT_STEP) {
+			if((dataEnd + length - 1) / length > MAX_CHUNKS_QUANTITY) {
+				break;
+			}
+			long chunks = getChunksPerArticles(length);
+			if(chunks < bestChunks) {
+				best = length;
+				bestChunks = chunks;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Counts the chunks inflated to read every article once.
+	 *
+	 * @param length	uncompressed length of a chunk.
+	 * @return			total quantity of chunks.
+	 */
+	private long getChunksPerArticles(int length) {
+		long result = 0;
+		for (int i = 0; i < articleOffsets.length; i++) {
+			long offset = articleOffsets[i];
+			long last = offset + Math.max(articleSizes[i], 1) - 1;
+			result += last / length - offset / length + 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Calculates the average quantity of chunks inflated to read one article.
+	 *
+	 * @param length	uncompressed length of a chunk.
+	 * @return			average quantity of chunks per article.
+	 */
+	private double getAverageChunksPerArticle(int length) {
+		if(articleOffsets.length == 0) {
+			return 0;
+		}
+		return (double) getChunksPerArticles(length) / articleOffsets.length;
+	}
+
+	/**
+	 * Compresses the data chunk by chunk as a single deflate stream. Every
+	 * chunk but the last one ends with a full flush, so it can be inflated
+	 * without the previous chunks.
+	 *
+	 * @param in			stream of the uncompressed data.
+	 * @param out			stream where the compressed chunks are written.
+	 * @param length		uncompressed length of a chunk.
+	 * @param chunkSizes	list where the compressed sizes of the chunks
+	 * 						are added.
+	 * @param crc			checksum updated with the uncompressed data.
+	 * @return				size of the uncompressed data.
+	 * @throws IOException	if there was a problem reading or writing the
+	 * 						data or there are too many chunks.
+	 */
+	private long writeChunks(InputStream in, OutputStream out, int length,
+			List<Integer> chunkSizes, CRC32 crc) throws IOException {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(length);
+		byte[] buffer = new byte[length];
+		byte[] current = new byte[length];
+		byte[] next = new byte[length];
+		long uncompressedSize = 0;
+		try {
+			int currentLength = readChunk(in, current);
+			boolean last = false;
+			while(!last) {
+				int nextLength = readChunk(in, next);
+				last = nextLength == 0;
+				crc.update(current, 0, currentLength);
+				uncompressedSize += currentLength;
+				compressed.reset();
+				deflater.setInput(current, 0, currentLength);
+				if(last) {
+					deflater.finish();
+					while(!deflater.finished()) {
+						compressed.write(buffer, 0, deflater.deflate(buffer));
+					}
+				} else {
+					int deflated;
+					do {
+						deflated = deflater.deflate(buffer, 0, buffer.length, Deflater.FULL_FLUSH);
+						compressed.write(buffer, 0, deflated);
+					} while(deflated == buffer.length);
+				}
+				if(compressed.size() > 0xFFFF) {
+					throw new IOException("Chunk " + chunkSizes.size() + " is too large");
+				}
+				if(chunkSizes.size() == MAX_CHUNKS_QUANTITY) {
+					throw new IOException("`" + bookInfo.getBookName()
+							+ "` dictionary is too large for chunk length " + length);
+				}
+				chunkSizes.add(compressed.size());
+				compressed.writeTo(out);
+				byte[] swap = current;
+				current = next;
+				next = swap;
+				currentLength = nextLength;
+			}
+		} finally {
+			deflater.end();
+		}
+		return uncompressedSize;
+	}
+
+	/**
+	 * Fills the buffer from the stream unless the stream ends earlier.
+	 *
+	 * @param in		stream of the uncompressed data.
+	 * @param buffer	buffer to be filled.
+	 * @return			number of bytes read, 0 at the end of the stream.
+	 * @throws IOException	if there was a problem reading the stream.
+	 */
+	private int readChunk(InputStream in, byte[] buffer) throws IOException {
+		int length = 0;
+		while(length < buffer.length) {
+			int sizeRead = in.read(buffer, length, buffer.length - length);
+			if(sizeRead < 0) {
+				break;
+			}
+			length += sizeRead;
+		}
+		return length;
+	}
+
+	/**
+	 * Writes the gzip header with the dictzip random access table, the
+	 * compressed chunks and the gzip trailer.
+	 *
+	 * @param output			file to be written.
+	 * @param body				file with the compressed chunks.
+	 * @param length			uncompressed length of a chunk.
+	 * @param chunkSizes		compressed sizes of the chunks.
+	 * @param crc				checksum of the uncompressed data.
+	 * @param uncompressedSize	size of the uncompressed data.
+	 * @throws IOException	if there was a problem reading or writing the files.
+	 */
+	private void writeDictZipFile(File output, File body, int length,
+			List<Integer> chunkSizes, CRC32 crc, long uncompressedSize)
+			throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		header.write(31);
+		header.write(139);
+		header.write(Deflater.DEFLATED);
+		header.write(FEXTRA);
+		writeLittleEndian(header, (int) (System.currentTimeMillis() / 1000), 4);
+		header.write(2); // maximum compression
+		header.write(OS_UNIX);
+		int randomAccessLength = 6 + 2 * chunkSizes.size();
+		writeLittleEndian(header, 4 + randomAccessLength, 2);
+		header.write('R');
+		header.write('A');
+		writeLittleEndian(header, randomAccessLength, 2);
+		writeLittleEndian(header, 1, 2); // version
+		writeLittleEndian(header, length, 2);
+		writeLittleEndian(header, chunkSizes.size(), 2);
+		for (int size : chunkSizes) {
+			writeLittleEndian(header, size, 2);
+		}
+		FileOutputStream out = new FileOutputStream(output);
+		FileInputStream in = new FileInputStream(body);
+		try {
+			header.writeTo(out);
+			FileChannel source = in.getChannel();
+			long position = 0;
+			long size = source.size();
+			while(position < size) {
+				position += source.transferTo(position, size - position, out.getChannel());
+			}
+			ByteArrayOutputStream trailer = new ByteArrayOutputStream(8);
+			writeLittleEndian(trailer, (int) crc.getValue(), 4);
+			writeLittleEndian(trailer, (int) uncompressedSize, 4);
+			trailer.writeTo(out);
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the lowest bytes of the number in little endian order as gzip
+	 * requires.
+	 *
+	 * @param out		stream to be written.
+	 * @param value		number to be written.
+	 * @param bytes		quantity of bytes to be written.
+	 */
+	private static void writeLittleEndian(ByteArrayOutputStream out, int value, int bytes) {
+		for (int i = 0; i < bytes; i++) {
+			out.write(value >>> (i * StarDictIndex.BITS_IN_BYTE));
+		}
+	}
+
+	/**
+	 * Reads evenly spread articles from the repacked file without cache and
+	 * measures the average read time.
+	 *
+	 * @param fileName	full name of the repacked file.
+	 * @return			average read time in nanoseconds, 0 if there are
+	 * 					no articles.
+	 * @throws IOException	if there was a problem reading the file.
+	 */
+	private long measureReadTime(String fileName) throws IOException {
+		int count = articleOffsets.length;
+		int samples = Math.min(count, SAMPLES_QUANTITY);
+		if(samples == 0) {
+			return 0;
+		}
+		DictZipFile dictZipFile = new DictZipFile(fileName, 0);
+		try {
+			dictZipFile.setMaxReadahead(0);
+			dictZipFile.setParallelThreshold(0);
+			long start = System.nanoTime();
+			for (int i = 0; i < samples; i++) {
+				int article = (int) ((long) i * count / samples);
+				dictZipFile.read(articleOffsets[article], articleSizes[article]);
+			}
+			return (System.nanoTime() - start) / samples;
+		} finally {
+			dictZipFile.close();
+		}
+	}
+}
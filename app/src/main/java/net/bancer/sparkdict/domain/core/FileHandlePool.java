@@ -0,0 +1,269 @@
+package net.bancer.sparkdict.domain.core;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.util.Log;
+
+/**
+ * FileHandlePool keeps read only files of all books open and shares them
+ * between the readers. The quantity of open files is bounded: when a file
+ * is opened over the limit, the least recently used files nobody is reading
+ * at the moment are closed. Files being read are never closed, so the limit
+ * can only be exceeded by the files read at the same time.
+ *
+ * The readers must use positional reads only, because the file pointer is
+ * shared. Every {@link #acquire(String)} must be followed by
+ * {@link #release(FileChannel)} of the acquired channel when the reading is
+ * finished.
+ *
+ * A file closed by {@link #close(String)}, e.g. because it was replaced, is
+ * not given to the new readers anymore. They get the new file, while the
+ * readers of the old one finish their reads.
+ *
+ * The channel is shared too, and it is closed for all readers when one of
+ * the reading threads is interrupted. {@link #read(String, Reader)} repeats
+ * such a read once with the reopened file.
+ *
+ * @author Valerij Bancer
+ *
+ */
+public class FileHandlePool {
+
+	/**
+	 * Default maximum quantity of open files.
+	 */
+	public static final int DEFAULT_MAX_OPEN_FILES = 16;
+
+	private static final FileHandlePool INSTANCE = new FileHandlePool(DEFAULT_MAX_OPEN_FILES);
+
+	/**
+	 * Open files by file name in the least recently used order.
+	 */
+	private LinkedHashMap<String, Handle> handles;
+
+	/**
+	 * Handles being read by channel, including the handles of the closed
+	 * files which are not in {@link #handles} anymore.
+	 */
+	private HashMap<FileChannel, Handle> acquired = new HashMap<FileChannel, Handle>();
+
+	private int maxOpenFiles;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxOpenFiles	maximum quantity of open files.
+	 * @throws IllegalArgumentException if the quantity is not positive.
+	 */
+	public FileHandlePool(int maxOpenFiles) {
+		setMaxOpenFiles(maxOpenFiles);
+		handles = new LinkedHashMap<String, Handle>(16, 0.75f, true);
+	}
+
+	/**
+	 * Gets the pool shared by all books.
+	 *
+	 * @return the shared pool.
+	 */
+	public static FileHandlePool getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Sets the maximum quantity of open files. Files which are not read at
+	 * the moment are closed if there are too many of them.
+	 *
+	 * @param maxOpenFiles	maximum quantity of open files.
+	 * @throws IllegalArgumentException if the quantity is not positive.
+	 */
+	public synchronized void setMaxOpenFiles(int maxOpenFiles) {
+		if(maxOpenFiles <= 0) {
+			throw new IllegalArgumentException("invalid maxOpenFiles argument");
+		}
+		this.maxOpenFiles = maxOpenFiles;
+		if(handles != null) {
+			closeIdleFiles();
+		}
+	}
+
+	/**
+	 * Opens the file for reading or takes the already opened one. The file
+	 * is not closed until the channel is released.
+	 *
+	 * @param fileName	full file name.
+	 * @return			channel of the file.
+	 * @throws IOException	if the file cannot be opened.
+	 */
+	public synchronized FileChannel acquire(String fileName) throws IOException {
+		Handle handle = handles.get(fileName);
+		if(handle != null && !handle.channel.isOpen()) {
+			// the channel is closed if a reading thread was interrupted
+			close(fileName);
+			handle = null;
+		}
+		if(handle == null) {
+			handle = new Handle(new RandomAccessFile(fileName, "r"));
+			handles.put(fileName, handle);
+		}
+		handle.users++;
+		acquired.put(handle.channel, handle);
+		closeIdleFiles();
+		return handle.channel;
+	}
+
+	/**
+	 * Acquires the file, passes its channel to the reader and releases the
+	 * file. If the channel has been closed under the reader because another
+	 * reading thread was interrupted, the file is reopened and the reader is
+	 * called once more. The reader must not keep any state between the
+	 * calls. A thread that was interrupted itself gets the exception.
+	 *
+	 * @param fileName	full file name.
+	 * @param reader	reader of the channel.
+	 * @return			result of the reader.
+	 * @throws IOException	if the file cannot be opened or the reader failed.
+	 */
+	public <T> T read(String fileName, Reader<T> reader) throws IOException {
+		for (int attempt = 0; ; attempt++) {
+			FileChannel channel = acquire(fileName);
+			try {
+				return reader.read(channel);
+			} catch (ClosedChannelException e) {
+				if(attempt > 0 || e instanceof ClosedByInterruptException
+						|| Thread.currentThread().isInterrupted()) {
+					throw e;
+				}
+				// the next acquire() reopens the file closed by another reader
+			} finally {
+				release(channel);
+			}
+		}
+	}
+
+	/**
+	 * Marks the end of reading of the channel returned by
+	 * {@link #acquire(String)}. The file is closed if it was closed by
+	 * {@link #close(String)} and this was its last reader.
+	 *
+	 * @param channel	the acquired channel.
+	 */
+	public synchronized void release(FileChannel channel) {
+		Handle handle = acquired.get(channel);
+		if(handle == null) {
+			return;
+		}
+		handle.users--;
+		if(handle.users == 0) {
+			acquired.remove(channel);
+			if(handle.closeOnRelease) {
+				close(handle);
+			}
+		}
+		closeIdleFiles();
+	}
+
+	/**
+	 * Closes the file if it is not read at the moment, otherwise closes it
+	 * when the last reader releases it. In both cases the file is removed
+	 * from the pool, so the next {@link #acquire(String)} opens it again.
+	 *
+	 * @param fileName	full file name.
+	 */
+	public synchronized void close(String fileName) {
+		Handle handle = handles.remove(fileName);
+		if(handle == null) {
+			return;
+		}
+		if(handle.users == 0) {
+			close(handle);
+		} else {
+			handle.closeOnRelease = true;
+		}
+	}
+
+	/**
+	 * Getter of the quantity of open files. The closed files which are still
+	 * read are not counted.
+	 *
+	 * @return	the quantity of open files.
+	 */
+	public synchronized int getOpenFilesQuantity() {
+		return handles.size();
+	}
+
+	/**
+	 * Closes the least recently used files which are not read at the moment
+	 * until the quantity of open files is within the limit.
+	 */
+	private void closeIdleFiles() {
+		Iterator<Map.Entry<String, Handle>> eldest = handles.entrySet().iterator();
+		while(handles.size() > maxOpenFiles && eldest.hasNext()) {
+			Handle handle = eldest.next().getValue();
+			if(handle.users == 0) {
+				eldest.remove();
+				close(handle);
+			}
+		}
+	}
+
+	/**
+	 * Closes the file of the handle.
+	 *
+	 * @param handle	handle to be closed.
+	 */
+	private void close(Handle handle) {
+		try {
+			handle.file.close();
+		} catch (IOException e) {
+			Log.e(this.getClass().getName(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Reader of a file acquired from the pool for the time of the read.
+	 *
+	 * @param <T>	type of the result of the read.
+	 */
+	public interface Reader<T> {
+
+		/**
+		 * Reads the file with positional reads only.
+		 *
+		 * @param channel	channel of the file.
+		 * @return			result of the read.
+		 * @throws IOException	if there was a problem reading the file.
+		 */
+		T read(FileChannel channel) throws IOException;
+	}
+
+	/**
+	 * Open file and the quantity of its readers.
+	 */
+	private static class Handle {
+
+		private RandomAccessFile file;
+
+		private FileChannel channel;
+
+		private int users = 0;
+
+		/**
+		 * Flag indicating whether the file must be closed when the last
+		 * reader releases it.
+		 */
+		private boolean closeOnRelease = false;
+
+		public Handle(RandomAccessFile file) {
+			this.file = file;
+			this.channel = file.getChannel();
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package net.bancer.sparkdict.domain.core;
+
+import java.io.IOException;
+
+/**
+ * Dictionary data interface. Gives access to the articles stored in
+ * <dictionary name>.dict file regardless of how the file is stored on disk.
+ * 
+ * @author Valerij Bancer
+ *
+ */
+public interface IDictData {
+
+	/**
+	 * Reads part of the uncompressed dictionary data.
+	 * 
+	 * @param offset	uncompressed data offset where to start reading.
+	 * @param size		uncompressed size to be read.
+	 * @return			byte array of the specified size.
+	 * @throws IOException	if there was problem with reading the file.
+	 */
+	public byte[] read(long offset, int size) throws IOException;
+
+	/**
+	 * Closes the file and releases all resources held by this object.
+	 * 
+	 * @throws IOException	if there was a problem closing the file.
+	 */
+	public void close() throws IOException;
+
+}
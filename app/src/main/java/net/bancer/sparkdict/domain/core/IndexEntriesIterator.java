@@ -11,6 +11,10 @@ import net.bancer.sparkdict.domain.utils.DomainException;
 /**
  * IndexEntriesIterator retrieves index entries from the index file.
  * 
+ * The opened indexes can be shared between threads, but the cursor of an
+ * iterator cannot. Every query running concurrently with others must use its
+ * own cursor obtained from {@link #newCursor()}.
+ * 
  * @author Valerij Bancer
  *
  */
@@ -38,17 +42,65 @@ public class IndexEntriesIterator implements Iterator<IndexEntry> {
 
 	private String lastSearchedSuggestion = "";
 
+	/**
+	 * UTF-8 encoded {@link #lastSearchedSuggestion}.
+	 */
+	private byte[] lastSearchedSuggestionBytes = new byte[0];
+
 	private SparkDictIndex sparkDictIndex;
 
 	/**
-	 * Constructor.
+	 * Top level of the index or `null` if it is not available.
+	 */
+	private SparkDictSparseIndex sparseIndex = null;
+
+	/**
+	 * Case folded secondary index or `null` if it is not available.
+	 */
+	private SparkDictFoldedIndex foldedIndex = null;
+
+	/**
+	 * Number of entries in {@link #foldedIndex}.
+	 */
+	private int foldedSize = 0;
+
+	/**
+	 * Position of the last retrieved suggestion in {@link #foldedIndex}.
+	 */
+	private int foldedCursor = -1;
+
+	/**
+	 * UTF-8 encoded case folded {@link #lastSearchedSuggestion}.
+	 */
+	private byte[] lastSearchedFoldedSuggestionBytes = new byte[0];
+
+	/**
+	 * Flag indicating whether SparkDictIndex of the book was missing or stale
+	 * when the iterator was created.
+	 */
+	private boolean stale = false;
+
+	/**
+	 * Constructor. SparkDictIndex of the book is not built here: if it is
+	 * missing or stale, the iterator reads <dictionary name>.idx file
+	 * directly until the index is rebuilt by
+	 * {@link Shelf#buildSparkDictIndexes(IObserver, int)}, and the sparse top
+	 * level and the case folded index are not used. If only the sparse top
+	 * level or the case folded index is missing or stale, that level is not
+	 * used.
 	 * 
 	 * @param bookInfo
 	 *            BookInfo object.
 	 * @throws DomainException 
 	 */
 	public IndexEntriesIterator(BookInfo bookInfo) throws DomainException {
-		sparkDictIndex = new SparkDictIndex(bookInfo);
+		sparkDictIndex = new SparkDictIndex(bookInfo, SparkDictIndex.READ_MODE_IN_MEMORY);
+		if(!sparkDictIndex.isUpToDate()) {
+			stale = true;
+			sparkDictIndex = new SparkDictIndex(bookInfo, SparkDictIndex.READ_MODE_BOOK_INDEX);
+		} else {
+			openSecondaryIndexes(bookInfo);
+		}
 		try {
 			size = sparkDictIndex.getSize();
 		} catch (FileNotFoundException e) {
@@ -62,6 +114,64 @@ public class IndexEntriesIterator implements Iterator<IndexEntry> {
 		}
 	}
 
+	/**
+	 * Opens the sparse top level and the case folded index if they are up to
+	 * date. The sparse top level is used with the step it was built with.
+	 * 
+	 * @param bookInfo		BookInfo object.
+	 */
+	private void openSecondaryIndexes(BookInfo bookInfo) {
+		SparkDictSparseIndex sparse = new SparkDictSparseIndex(bookInfo,
+				sparkDictIndex, SparkDictSparseIndex.DEFAULT_MEMORY_BUDGET);
+		try {
+			if(sparse.isUpToDate()) {
+				sparse.getStep();
+				sparseIndex = sparse;
+			}
+		} catch (IOException e) {
+			// lookups still work without the top level, only slower
+			e.printStackTrace();
+		}
+		SparkDictFoldedIndex folded = new SparkDictFoldedIndex(bookInfo, sparkDictIndex);
+		try {
+			if(folded.isUpToDate()) {
+				foldedSize = folded.getSize();
+				if(foldedSize > 0) {
+					foldedIndex = folded;
+				}
+			}
+		} catch (IOException e) {
+			// suggestions still can be searched by the case variants of the prefix
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Constructor of a new cursor over the indexes opened by another
+	 * iterator.
+	 * 
+	 * @param source	iterator which indexes are shared.
+	 */
+	private IndexEntriesIterator(IndexEntriesIterator source) {
+		sparkDictIndex = source.sparkDictIndex;
+		sparseIndex = source.sparseIndex;
+		foldedIndex = source.foldedIndex;
+		foldedSize = source.foldedSize;
+		size = source.size;
+		stale = source.stale;
+	}
+
+	/**
+	 * Creates a lightweight iterator with its own cursor sharing the indexes
+	 * opened by this iterator. Lookups through different cursors can run in
+	 * parallel.
+	 * 
+	 * @return	new iterator positioned before the first index entry.
+	 */
+	public IndexEntriesIterator newCursor() {
+		return new IndexEntriesIterator(this);
+	}
+
 	/**
 	 * Returns true if there is at least one more element, false otherwise.
 	 * 
@@ -113,20 +223,67 @@ public class IndexEntriesIterator implements Iterator<IndexEntry> {
 		throw new UnsupportedOperationException();
 	}
 
+	/**
+	 * Checks whether non-ASCII prefixes are matched ignoring the case of all
+	 * letters.
+	 * 
+	 * @return	`true` if the case folded index of the book is available.
+	 */
+	public boolean hasFoldedIndex() {
+		return foldedIndex != null;
+	}
+
+	/**
+	 * Getter of the distance between two index entries sampled by the sparse
+	 * top level of the index.
+	 * 
+	 * @return	the step or 0 if the sparse top level is not used.
+	 */
+	public int getSparseIndexStep() {
+		if(sparseIndex == null) {
+			return 0;
+		}
+		try {
+			return sparseIndex.getStep();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Checks whether SparkDictIndex of the book was missing or stale when
+	 * the iterator was created. Such iterator reads <dictionary name>.idx
+	 * file directly and the indexes of the book must be rebuilt.
+	 * 
+	 * @return	`true` if the indexes of the book must be rebuilt.
+	 */
+	public boolean isStale() {
+		return stale;
+	}
+
 	/**
 	 * Retrieves the next suggestion matching the provided prefix. If there was
 	 * no previous request to this method or the previous request was for another
-	 * prefix then the first match is returned.
+	 * prefix then the first match is returned. Non-ASCII prefixes are matched
+	 * ignoring the case if the case folded index is available.
 	 * 
 	 * @param prefix	start of the lemma to be matched against.
 	 * @return			index entry starting with provided prefix.
 	 * @throws DomainException 
 	 */
 	public IndexEntry nextSuggestion(String prefix) throws DomainException {
+		boolean folded = foldedIndex != null
+				&& !IndexEntry.isAsciiString(prefix);
 		if(!prefix.equals(lastSearchedSuggestion )) {
 			IndexEntry entry = null;
 			try {
-				entry = findFirstMatchedByPrefix(prefix);
+				if(folded) {
+					lastSearchedFoldedSuggestionBytes = SparkDictFoldedIndex.foldCase(prefix).getBytes("UTF8");
+					entry = findFirstMatchedByFoldedPrefix(lastSearchedFoldedSuggestionBytes);
+				} else {
+					lastSearchedSuggestionBytes = prefix.getBytes("UTF8");
+					entry = findFirstMatchedByPrefix(lastSearchedSuggestionBytes);
+				}
 			} catch (FileNotFoundException e) {
 				String message = "Cannot get next suggestion from `"
 						+ sparkDictIndex.getBookName()
@@ -142,50 +299,127 @@ public class IndexEntriesIterator implements Iterator<IndexEntry> {
 			}
 			lastSearchedSuggestion = prefix;
 			return entry;
+		} else if(folded) {
+			if(count <= MAX && foldedCursor >= 0 && foldedCursor < foldedSize - 1) {
+				try {
+					if(foldedIndex.compareToPrefix(foldedCursor + 1,
+							lastSearchedFoldedSuggestionBytes) == 0) {
+						count++;
+						foldedCursor++;
+						cursor = foldedIndex.getId(foldedCursor);
+						return sparkDictIndex.getIndexEntry(cursor);
+					}
+				} catch (IOException e) {
+					String message = "Cannot get next suggestion from `"
+							+ sparkDictIndex.getBookName()
+							+ "` dictionary SparkDictFoldedIndex; cursor: "
+							+ foldedCursor + ", size: " + foldedSize;
+					throw new DomainException(message, e);
+				}
+			}
 		} else if(count <= MAX && hasNext()) {
-			count++;
-			IndexEntry entry = next();
-			if(entry.compareTo(prefix, IndexEntry.PREFIX_MATCH) == 0) {
-				return entry;
-			} else {
-				cursor--;
-				return null;
+			try {
+				// compare the lemma in place and construct IndexEntry only if it matches
+				if(sparkDictIndex.compareLemmaTo(cursor + 1,
+						lastSearchedSuggestionBytes, IndexEntry.PREFIX_MATCH) == 0) {
+					count++;
+					return next();
+				}
+			} catch (IOException e) {
+				String message = "Cannot get next suggestion from `"
+						+ sparkDictIndex.getBookName()
+						+ "` dictionary SparkDictIndex; cursor: " + cursor
+						+ ", size: " + size;
+				throw new DomainException(message, e);
 			}
 		}
 		return null;
 	}
 
-	private IndexEntry findFirstMatchedByPrefix(String query) throws FileNotFoundException, IOException {
+	/**
+	 * Binary search for the first index entry starting with the provided
+	 * prefix. Lemmas are compared in place and IndexEntry is constructed only
+	 * for the found index entry.
+	 * 
+	 * @param query		UTF-8 encoded prefix.
+	 * @return			the first index entry starting with the prefix or `null`.
+	 * @throws FileNotFoundException	if the index file was not found.
+	 * @throws IOException	if there was a problem reading the index file.
+	 */
+	private IndexEntry findFirstMatchedByPrefix(byte[] query) throws FileNotFoundException, IOException {
+		count = 1;
+		long found = findFirstMatched(query, IndexEntry.PREFIX_MATCH);
+		if(found < 0) {
+			return null;
+		}
+		cursor = found;
+		return sparkDictIndex.getIndexEntry(found);
+	}
+
+	/**
+	 * Binary search in the case folded index for the first index entry which
+	 * case folded lemma starts with the provided prefix.
+	 * 
+	 * @param foldedPrefix	UTF-8 encoded case folded prefix.
+	 * @return				the first index entry starting with the prefix or `null`.
+	 * @throws FileNotFoundException	if the index file was not found.
+	 * @throws IOException	if there was a problem reading the index files.
+	 */
+	private IndexEntry findFirstMatchedByFoldedPrefix(byte[] foldedPrefix)
+			throws FileNotFoundException, IOException {
 		count = 1;
-		IndexEntry result = null;
-		IndexEntry indexEntry = null;
+		foldedCursor = foldedIndex.findFirstMatchedByPrefix(foldedPrefix);
+		if(foldedCursor < 0) {
+			return null;
+		}
+		cursor = foldedIndex.getId(foldedCursor);
+		return sparkDictIndex.getIndexEntry(cursor);
+	}
+
+	/**
+	 * Binary search for the first index entry matching the UTF-8 encoded
+	 * string. If the sparse top level of the index is available, the search
+	 * is narrowed down in memory to a single block of index entries first.
+	 * 
+	 * @param query		UTF-8 encoded string.
+	 * @param mode		{@link IndexEntry#WORD_MATCH} or {@link IndexEntry#PREFIX_MATCH}.
+	 * @return			sequence number of the first matching index entry or
+	 * 					-1 if there is no match.
+	 * @throws FileNotFoundException	if the index file was not found.
+	 * @throws IOException	if there was a problem reading the index file.
+	 */
+	private long findFirstMatched(byte[] query, int mode) throws FileNotFoundException, IOException {
 		long min = 0;
 		long max = size - 1;
+		if(sparseIndex != null) {
+			long blockStart = sparseIndex.findBlockStart(query, mode);
+			if(blockStart < 0) {
+				max = Math.min(max, 0);
+			} else {
+				min = blockStart + 1;
+				max = Math.min(max, blockStart + sparseIndex.getStep());
+			}
+		}
+		long found = -1;
 		while(min <= max) {
 			long mid = (min + max)/2;
-			indexEntry = sparkDictIndex.getIndexEntry(mid);
-			if(indexEntry == null) {
-//				System.out.println("query: " + query);
-//				System.out.println("mid: " + mid);
-//				System.out.println("max: " + max);
-				//TODO: send notification - probably index file is missing.
-				return null;
-			}
-			if(indexEntry.compareTo(query, IndexEntry.PREFIX_MATCH) == 0) {
-				result = indexEntry;
-				cursor = mid;
+			int comparison = sparkDictIndex.compareLemmaTo(mid, query, mode);
+			if(comparison == 0) {
+				found = mid;
 				max = mid - 1;
-			} else if(indexEntry.compareTo(query, IndexEntry.PREFIX_MATCH) < 0) {
+			} else if(comparison < 0) {
 				min = mid + 1;
-			} else if(indexEntry.compareTo(query, IndexEntry.PREFIX_MATCH) > 0) {
+			} else {
 				max = mid - 1;
 			}
 		}
-		return result;
+		return found;
 	}
 	
 	/**
-	 * Retrieves the first IndexEntry matching the provided lemma.
+	 * Retrieves the first IndexEntry matching the provided lemma. Lemmas are
+	 * compared in place and IndexEntry is constructed only for the found index
+	 * entry.
 	 * 
 	 * @param lemma
 	 *            entry word to be found.
@@ -193,56 +427,25 @@ public class IndexEntriesIterator implements Iterator<IndexEntry> {
 	 * @throws DomainException 
 	 */
 	public IndexEntry findIndexEntry(String lemma) throws DomainException {
-		long min = 0;
-		long max = size - 1;
-		while (min <= max) {
-			long mid = (min + max) / 2;
-			try {
-				//System.out.println("mid: " + mid);
-				IndexEntry indexEntry = sparkDictIndex.getIndexEntry(mid);
-				if(indexEntry == null) {
-					//TODO: send notification - probably index file is missing.
-					return null;
-				}
-				if (indexEntry.compareTo(lemma, IndexEntry.WORD_MATCH) == 0) {
-					//System.out.println("mid: " + mid);
-					//System.out.println("lemma: " + lemma);
-					//System.out.println("entry: " + indexEntry.toString());
-					//System.out.println("offset: " + indexEntry.getWordDataOffset());
-					cursor = mid;
-					long previousIdx = mid - 1;
-					if (previousIdx > 0) {
-						IndexEntry previousIndexEntry = sparkDictIndex
-								.getIndexEntry(previousIdx);
-						while (previousIndexEntry != null
-								&& previousIndexEntry.compareTo(lemma,
-										IndexEntry.WORD_MATCH) == 0) {
-							cursor = previousIdx;
-							indexEntry = previousIndexEntry;
-							previousIdx--;
-							previousIndexEntry = sparkDictIndex
-									.getIndexEntry(previousIdx);
-						}
-					}
-					return indexEntry;
-				} else if (indexEntry.compareTo(lemma, IndexEntry.WORD_MATCH) < 0) {
-					min = mid + 1;
-				} else if (indexEntry.compareTo(lemma, IndexEntry.WORD_MATCH) > 0) {
-					max = mid - 1;
-				}
-			} catch (FileNotFoundException e) {
-				String message = "Cannot get index entry from `"
-						+ sparkDictIndex.getBookName()
-						+ "` dictionary SparkDictIndex; cursor: " + cursor
-						+ ", size: " + size;
-				throw new DomainException(message, e);
-			} catch (IOException e) {
-				String message = "Cannot get index entry from `"
-						+ sparkDictIndex.getBookName()
-						+ "` dictionary SparkDictIndex; cursor: " + cursor
-						+ ", size: " + size + ", mid: " + mid + ", min: " + min + ", max: " + max;
-				throw new DomainException(message, e);
+		try {
+			byte[] query = lemma.getBytes("UTF8");
+			long found = findFirstMatched(query, IndexEntry.WORD_MATCH);
+			if(found >= 0) {
+				cursor = found;
+				return sparkDictIndex.getIndexEntry(cursor);
 			}
+		} catch (FileNotFoundException e) {
+			String message = "Cannot get index entry from `"
+					+ sparkDictIndex.getBookName()
+					+ "` dictionary SparkDictIndex; cursor: " + cursor
+					+ ", size: " + size;
+			throw new DomainException(message, e);
+		} catch (IOException e) {
+			String message = "Cannot get index entry from `"
+					+ sparkDictIndex.getBookName()
+					+ "` dictionary SparkDictIndex; cursor: " + cursor
+					+ ", size: " + size;
+			throw new DomainException(message, e);
 		}
 		return null;
 	}
@@ -1,5 +1,8 @@
 package net.bancer.sparkdict.domain.core;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 /**
  * IndexEntry is a single entry in <dictionary name>.idx file.
  * 
@@ -29,7 +32,7 @@ public class IndexEntry implements Comparable<IndexEntry>{
 	 * wordDataOffset is be 64-bits unsigned number in network byte order.
 	 * Otherwise it is 32-bits.
 	 */
-	private int wordDataOffset;
+	private long wordDataOffset;
 
 	/**
 	 * wordDataSize should be 32-bits unsigned number in network byte order.
@@ -46,7 +49,7 @@ public class IndexEntry implements Comparable<IndexEntry>{
 	 * @param wordDataSize		data size in <dictionary name>.dict file.
 	 * @param length			data length in bytes.
 	 */
-	public IndexEntry(String lemma, int wordDataOffset, int wordDataSize, int length) {
+	public IndexEntry(String lemma, long wordDataOffset, int wordDataSize, int length) {
 		this.lemma = lemma;
 		this.wordDataOffset = wordDataOffset;
 		this.wordDataSize = wordDataSize;
@@ -164,6 +167,62 @@ public class IndexEntry implements Comparable<IndexEntry>{
 		return n1 - n2;
 	}
 	
+	/**
+	 * Compares the UTF-8 encoded string with the lemma stored in the buffer
+	 * without decoding the lemma. The ordering is the byte-level version of
+	 * {@link #compareTo(String, int)}: ASCII letters are compared ignoring
+	 * case differences (as glib's g_ascii_strcasecmp does) and all other bytes
+	 * are compared as unsigned numbers. In {@link #WORD_MATCH} mode the first
+	 * case difference decides when the strings are otherwise equal.
+	 * 
+	 * @param buffer	buffer containing the lemma.
+	 * @param start		absolute position of the first byte of the lemma.
+	 * @param limit		position in the buffer which must not be reached.
+	 * @param str		UTF-8 encoded string to compare.
+	 * @param mode		{@link #WORD_MATCH} or {@link #PREFIX_MATCH}.
+	 * @return			0 if the match is found, else greater or smaller number.
+	 * @throws IOException	if the lemma is not terminated before the limit.
+	 * @throws IllegalArgumentException if the mode parameter is wrong.
+	 */
+	public static int compareLemmaTo(ByteBuffer buffer, int start, int limit,
+			byte[] str, int mode) throws IOException {
+		if(mode != WORD_MATCH && mode != PREFIX_MATCH) {
+			throw new IllegalArgumentException("invalid mode argument");
+		}
+		int caseSensitiveResult = 0;
+		for (int i = 0; ; i++) {
+			int position = start + i;
+			if(position >= limit) {
+				throw new IOException("Index entry at position " + start
+						+ " is not terminated");
+			}
+			int b1 = buffer.get(position) & 0xff;
+			if(b1 == StarDictIndex.SEPARATOR) {
+				if(i < str.length) {
+					return -1;
+				}
+				return (mode == WORD_MATCH) ? caseSensitiveResult : 0;
+			}
+			if(i == str.length) {
+				return (mode == WORD_MATCH) ? 1 : 0;
+			}
+			int b2 = str[i] & 0xff;
+			if(b1 != b2) {
+				if(b1 > 127 || b2 > 127) { //if non-ASCII byte
+					return b1 - b2;
+				}
+				int lower1 = (b1 >= 'A' && b1 <= 'Z') ? b1 + ('a' - 'A') : b1;
+				int lower2 = (b2 >= 'A' && b2 <= 'Z') ? b2 + ('a' - 'A') : b2;
+				if(lower1 != lower2) {
+					return lower1 - lower2;
+				}
+				if(caseSensitiveResult == 0) {
+					caseSensitiveResult = b1 - b2;
+				}
+			}
+		}
+	}
+	
 	/**
 	 * Compares the given prefix with the lemma of this index entry. If the word
 	 * is longer than prefix the truncated part is used for comparison ignoring
@@ -199,7 +258,7 @@ public class IndexEntry implements Comparable<IndexEntry>{
 	 * 
 	 * @return data offset in <dictionary name>.dict file.
 	 */
-	public int getWordDataOffset() {
+	public long getWordDataOffset() {
 		return wordDataOffset;
 	}
 
@@ -228,4 +287,21 @@ public class IndexEntry implements Comparable<IndexEntry>{
 	public int getLengthInBytes() {
 		return lengthInBytes;
 	}
+
+	/**
+	 * Checks if the string contains only ASCII characters.
+	 * 
+	 * @param str	string to be verified.
+	 * @return		`true` if the string contains only ASCII characters, else `false`.
+	 */
+	static boolean isAsciiString(String str) {
+		int length = str.length();
+		for (int i = 0; i < length; i++) {
+			char c = str.charAt(i);
+			if((int) c > 127) { // if contains non-ASCII character
+				return false;
+			}
+		}
+		return true;
+	}
 }
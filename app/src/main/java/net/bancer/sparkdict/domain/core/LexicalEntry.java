@@ -6,11 +6,15 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import net.bancer.sparkdict.domain.parsers.IParser;
 import net.bancer.sparkdict.domain.parsers.ParsingStrategyFactory;
+import net.bancer.sparkdict.domain.parsers.SpanBuilder;
+import net.bancer.sparkdict.domain.parsers.SpannedText;
 
 /**
  * LexicalEntry is the entry in a dictionary of information about a word
@@ -23,43 +27,184 @@ public class LexicalEntry {
 
 	private static final String TAG = "LexicalEntry";
 
+	/**
+	 * Separator of the definitions of several lexical entries with the same
+	 * lemma.
+	 */
+	private static final String DEFINITIONS_SEPARATOR = "<br><br>";
+
 	private static ParsingStrategyFactory parsersFactory = ParsingStrategyFactory.getInstance();
 
 	private String lemma;
 
-	private String definitions;
+	/**
+	 * Definitions as HTML, `null` until the first call of
+	 * {@link #getDefinitions()}.
+	 */
+	private volatile String definitions = null;
+
+	/**
+	 * Definitions ready to be displayed, `null` until the first call of
+	 * {@link #getSpannedDefinitions()}.
+	 */
+	private volatile SpannedText spannedDefinitions = null;
+
+	/**
+	 * Articles of the lexical entry and of the lexical entries with the same
+	 * lemma appended to it.
+	 */
+	private List<Article> articles = new ArrayList<Article>(1);
 
 	private String dictTitle;
 
 	private BookInfo bookInfo;
 
 	/**
-	 * Constructor.
+	 * Constructor. The data is kept as is and parsed only when the
+	 * definitions are requested for the first time.
 	 * 
 	 * @param lemma			lemma of the lexical entry.
 	 * @param dataBlocks	bytes array of data from <dictionary name>.dict file.
 	 * @param bookInfo		BookInfo object.
 	 */
 	public LexicalEntry(String lemma, byte[] dataBlocks, BookInfo bookInfo) {
+		this(lemma, bookInfo);
+		addDataBlocks(dataBlocks);
+	}
+
+	/**
+	 * Constructor of a lexical entry without definitions, they are added by
+	 * {@link #addDataBlocks(byte[])}.
+	 * 
+	 * @param lemma			lemma of the lexical entry.
+	 * @param bookInfo		BookInfo object.
+	 */
+	public LexicalEntry(String lemma, BookInfo bookInfo) {
 		this.bookInfo = bookInfo;
 		this.lemma = lemma;
 		this.dictTitle = bookInfo.getBookName();
+	}
+
+	/**
+	 * Appends the data of another lexical entry with the same lemma. Its
+	 * definitions follow the definitions of this lexical entry.
+	 * 
+	 * @param dataBlocks	bytes array of data from <dictionary name>.dict file.
+	 */
+	public void addDataBlocks(byte[] dataBlocks) {
+		addArticle(new Article(dataBlocks, null, null, null));
+	}
+
+	/**
+	 * Appends the data of an article of the book. The spanned definitions
+	 * parsed from the data are put into {@link ArticleCache}.
+	 * 
+	 * @param dataBlocks	bytes array of data from <dictionary name>.dict file.
+	 * @param book			book the data is read from.
+	 * @param indexEntry	index entry of the article.
+	 */
+	void addDataBlocks(byte[] dataBlocks, Book book, IndexEntry indexEntry) {
+		addArticle(new Article(dataBlocks, null, book, indexEntry));
+	}
+
+	/**
+	 * Appends the spanned definitions of an article of the book taken from
+	 * {@link ArticleCache}. The data is read again only if the definitions
+	 * are requested as HTML.
+	 * 
+	 * @param spannedDefinitions	the spanned definitions.
+	 * @param book					book the article belongs to.
+	 * @param indexEntry			index entry of the article.
+	 */
+	void addSpannedDefinitions(SpannedText spannedDefinitions, Book book,
+			IndexEntry indexEntry) {
+		addArticle(new Article(null, spannedDefinitions, book, indexEntry));
+	}
+
+	private synchronized void addArticle(Article article) {
+		articles.add(article);
+		definitions = null;
+		spannedDefinitions = null;
+	}
+
+	/**
+	 * Builds the spanned definitions of the article unless they were
+	 * already built. The data is parsed without building the HTML. The
+	 * definitions of the articles of the book are put into
+	 * {@link ArticleCache} and the data is released.
+	 * 
+	 * @param article	article of the lexical entry.
+	 * @return			the spanned definitions of the article.
+	 */
+	private SpannedText getSpannedDefinitions(Article article) {
+		if(article.spannedDefinitions == null) {
+			SpanBuilder spans = new SpanBuilder();
+			if(article.definitions != null) {
+				spans.append(article.definitions);
+			} else {
+				parseDefinitions(article.dataBlocks, null, spans);
+			}
+			article.spannedDefinitions = spans.build();
+			if(article.indexEntry != null) {
+				ArticleCache.getInstance().put(bookInfo.getFileBaseName(),
+						article.indexEntry.getWordDataOffset(),
+						article.indexEntry.getWordDataSize(),
+						article.spannedDefinitions);
+				article.dataBlocks = null;
+			}
+		}
+		return article.spannedDefinitions;
+	}
+
+	/**
+	 * Builds the definitions of the article as HTML. The data released
+	 * after the spanned definitions were built is read again from the book.
+	 * 
+	 * @param article	article of the lexical entry.
+	 * @return			the definitions of the article, empty if the data
+	 * 					cannot be read.
+	 */
+	private String getDefinitions(Article article) {
+		if(article.definitions != null) {
+			return article.definitions;
+		}
+		byte[] dataBlocks = article.dataBlocks;
+		if(dataBlocks == null) {
+			dataBlocks = article.book.readDataBlocks(article.indexEntry);
+			if(dataBlocks == null) {
+				return "";
+			}
+		}
+		StringBuilder html = new StringBuilder();
+		parseDefinitions(dataBlocks, html, null);
+		return html.toString();
+	}
+
+	/**
+	 * Parses the data of the lexical entry according to the data types of
+	 * the dictionary.
+	 * 
+	 * @param dataBlocks	bytes array of data from <dictionary name>.dict file.
+	 * @param html			builder the definitions are appended to or `null`.
+	 * @param spans			builder of the spanned definitions or `null`.
+	 */
+	private void parseDefinitions(byte[] dataBlocks, StringBuilder html, SpanBuilder spans) {
 		String dataTypes = bookInfo.getSameTypeSequence();
 		if(dataTypes == null) {
 			dataTypes = "";
 		}
 		char[] dataType = dataTypes.toCharArray();
 		if(dataType.length < 1) {
-			setDefinitions(dataBlocks);
+			parseUntypedDefinitions(dataBlocks, html, spans);
 		} else if(dataType.length > 1) {
-			setDefinitions(dataBlocks, dataType);
-		} else if(dataType.length == 1) {
-			setDefinitions(dataBlocks, dataType[0]);
+			parseDefinitions(dataBlocks, dataType, html, spans);
+		} else {
+			parseDefinitions(dataBlocks, dataType[0], html, spans);
 		}
 	}
 
-	private void setDefinitions(byte[] dataBlocks) {
-		definitions = "";
+	private void parseUntypedDefinitions(byte[] dataBlocks, StringBuilder html,
+			SpanBuilder spans) {
 		int dataBlockStart = 0;
 		int dataBlockLength = 0;
 		char type = 'm';
@@ -71,7 +216,7 @@ public class LexicalEntry {
 				byte[] data = new byte[dataBlockLength-1];
 				System.arraycopy(dataBlocks, dataBlockStart, data, 0, dataBlockLength-1);
 				IParser parser = parsersFactory.getParser(type);
-				definitions += parser.parse(data);
+				parser.parse(data, html, spans);
 				dataBlockStart = i + 1;
 				dataBlockLength = 0;
 			} else {
@@ -80,8 +225,8 @@ public class LexicalEntry {
 		}
 	}
 
-	private void setDefinitions(byte[] dataBlocks, char[] dataTypes) {
-		definitions = "";			
+	private void parseDefinitions(byte[] dataBlocks, char[] dataTypes,
+			StringBuilder html, SpanBuilder spans) {
 		int dataBlockStart = 0;
 		int dataBlockLength = 0;
 		int dataBlockIdx = 0;
@@ -90,7 +235,7 @@ public class LexicalEntry {
 				byte[] data = new byte[dataBlockLength];
 				System.arraycopy(dataBlocks, dataBlockStart, data, 0, dataBlockLength);
 				IParser parser = parsersFactory.getParser(dataTypes[dataBlockIdx]);
-				definitions += parser.parse(data);
+				parser.parse(data, html, spans);
 				dataBlockStart = i + 1;
 				dataBlockLength = 0;
 				dataBlockIdx++;
@@ -100,9 +245,10 @@ public class LexicalEntry {
 		}
 	}
 
-	private void setDefinitions(byte[] dataBlock, char dataType) {
+	private void parseDefinitions(byte[] dataBlock, char dataType,
+			StringBuilder html, SpanBuilder spans) {
 		IParser parser = parsersFactory.getParser(dataType);
-		definitions = parser.parse(dataBlock);
+		parser.parse(dataBlock, html, spans);
 	}
 
 	/**
@@ -115,14 +261,59 @@ public class LexicalEntry {
 	}
 
 	/**
-	 * Definitions getter.
+	 * Definitions getter. The definitions are built as HTML on the first
+	 * call, they are not used for displaying, see
+	 * {@link #getSpannedDefinitions()}.
 	 * 
 	 * @return the definitions of the lexical entry.
 	 */
 	public String getDefinitions() {
+		if(definitions == null) {
+			synchronized (this) {
+				if(definitions == null) {
+					StringBuilder result = new StringBuilder();
+					for (int i = 0; i < articles.size(); i++) {
+						if(i > 0) {
+							result.append(DEFINITIONS_SEPARATOR);
+						}
+						result.append(getDefinitions(articles.get(i)));
+					}
+					definitions = result.toString();
+				}
+			}
+		}
 		return definitions;
 	}
 
+	/**
+	 * Getter of the definitions ready to be displayed. The data is parsed
+	 * on the first call, the spanned definitions of the cached articles are
+	 * used as they are.
+	 * 
+	 * @return the spanned definitions of the lexical entry.
+	 */
+	public SpannedText getSpannedDefinitions() {
+		if(spannedDefinitions == null) {
+			synchronized (this) {
+				if(spannedDefinitions == null) {
+					if(articles.size() == 1) {
+						spannedDefinitions = getSpannedDefinitions(articles.get(0));
+					} else {
+						SpanBuilder spans = new SpanBuilder();
+						for (int i = 0; i < articles.size(); i++) {
+							if(i > 0) {
+								spans.append(DEFINITIONS_SEPARATOR);
+							}
+							spans.append(getSpannedDefinitions(articles.get(i)));
+						}
+						spannedDefinitions = spans.build();
+					}
+				}
+			}
+		}
+		return spannedDefinitions;
+	}
+
 	/**
 	 * Dictionary title getter.
 	 * 
@@ -137,11 +328,16 @@ public class LexicalEntry {
 	 */
 	@Override
 	public String toString() {
-		return "[" + dictTitle + "," + lemma + "," + definitions + "]";
+		return "[" + dictTitle + "," + lemma + "," + getDefinitions() + "]";
 	}
 
-	public void setDefinitions(String definitions) {
+	public synchronized void setDefinitions(String definitions) {
+		Article article = new Article(null, null, null, null);
+		article.definitions = definitions;
+		articles = new ArrayList<Article>(1);
+		articles.add(article);
 		this.definitions = definitions;
+		spannedDefinitions = null;
 	}
 
 	/**
@@ -266,4 +462,35 @@ public class LexicalEntry {
 			return new byte[0];
 		}
 	}
+
+	/**
+	 * Data or definitions of one index entry of the lexical entry.
+	 */
+	private static class Article {
+
+		private byte[] dataBlocks;
+
+		private SpannedText spannedDefinitions;
+
+		/**
+		 * Definitions set as HTML by {@link LexicalEntry#setDefinitions(String)}.
+		 */
+		private String definitions;
+
+		/**
+		 * Book the data is read from or `null` if the definitions are not
+		 * cached.
+		 */
+		private Book book;
+
+		private IndexEntry indexEntry;
+
+		public Article(byte[] dataBlocks, SpannedText spannedDefinitions,
+				Book book, IndexEntry indexEntry) {
+			this.dataBlocks = dataBlocks;
+			this.spannedDefinitions = spannedDefinitions;
+			this.book = book;
+			this.indexEntry = indexEntry;
+		}
+	}
 }
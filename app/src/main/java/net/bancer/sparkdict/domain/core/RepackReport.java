@@ -0,0 +1,129 @@
+package net.bancer.sparkdict.domain.core;
+
+/**
+ * RepackReport describes the result of {@link DictZipRepacker#repack(String)}:
+ * how much space the repacked <dictionary name>.dict.dz file takes and how
+ * fast its articles can be read.
+ *
+ * @author Valerij Bancer
+ *
+ */
+public class RepackReport {
+
+	private long sourceSize;
+
+	private long compressedSize;
+
+	private long uncompressedSize;
+
+	private int chunkLength;
+
+	private int chunksQuantity;
+
+	private double averageChunksPerArticle;
+
+	private long averageReadTime;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sourceSize				size in bytes of the source data file.
+	 * @param compressedSize			size in bytes of the repacked file.
+	 * @param uncompressedSize			size in bytes of the uncompressed data.
+	 * @param chunkLength				uncompressed length of a chunk.
+	 * @param chunksQuantity			quantity of chunks.
+	 * @param averageChunksPerArticle	average quantity of chunks inflated
+	 * 									to read one article.
+	 * @param averageReadTime			average time in nanoseconds of reading
+	 * 									one article without cache.
+	 */
+	public RepackReport(long sourceSize, long compressedSize,
+			long uncompressedSize, int chunkLength, int chunksQuantity,
+			double averageChunksPerArticle, long averageReadTime) {
+		this.sourceSize = sourceSize;
+		this.compressedSize = compressedSize;
+		this.uncompressedSize = uncompressedSize;
+		this.chunkLength = chunkLength;
+		this.chunksQuantity = chunksQuantity;
+		this.averageChunksPerArticle = averageChunksPerArticle;
+		this.averageReadTime = averageReadTime;
+	}
+
+	/**
+	 * Source data file size getter.
+	 *
+	 * @return the size in bytes of the source data file.
+	 */
+	public long getSourceSize() {
+		return sourceSize;
+	}
+
+	/**
+	 * Repacked file size getter.
+	 *
+	 * @return the size in bytes of the repacked file.
+	 */
+	public long getCompressedSize() {
+		return compressedSize;
+	}
+
+	/**
+	 * Uncompressed data size getter.
+	 *
+	 * @return the size in bytes of the uncompressed data.
+	 */
+	public long getUncompressedSize() {
+		return uncompressedSize;
+	}
+
+	/**
+	 * Chunk length getter.
+	 *
+	 * @return the uncompressed length of a chunk, it can be smaller than the
+	 * 			requested one if the chunks were aligned to the articles.
+	 */
+	public int getChunkLength() {
+		return chunkLength;
+	}
+
+	/**
+	 * Chunks quantity getter.
+	 *
+	 * @return the quantity of chunks.
+	 */
+	public int getChunksQuantity() {
+		return chunksQuantity;
+	}
+
+	/**
+	 * Getter of the average quantity of chunks inflated to read one article.
+	 *
+	 * @return the average quantity of chunks per article.
+	 */
+	public double getAverageChunksPerArticle() {
+		return averageChunksPerArticle;
+	}
+
+	/**
+	 * Getter of the average time of reading one article without cache.
+	 *
+	 * @return the average read time in nanoseconds.
+	 */
+	public long getAverageReadTime() {
+		return averageReadTime;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "chunk length: " + chunkLength
+				+ ", chunks: " + chunksQuantity
+				+ ", size: " + sourceSize + " -> " + compressedSize
+				+ " bytes (" + uncompressedSize + " uncompressed)"
+				+ ", chunks per article: " + String.format("%.2f", averageChunksPerArticle)
+				+ ", read time: " + (averageReadTime / 1000) + " us";
+	}
+}
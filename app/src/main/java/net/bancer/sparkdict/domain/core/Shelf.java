@@ -6,6 +6,14 @@ import android.util.Log;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.bancer.sparkdict.domain.utils.DomainException;
 
 /**
  * Shelf is place where all dictionaries (books) are located.
@@ -17,6 +25,12 @@ public class Shelf {
 
 	private ArrayList<Book> books;
 	private String dictPath;
+
+	/**
+	 * Total quantity of index entries created by all books during
+	 * {@link #buildSparkDictIndexes(IObserver, int)}.
+	 */
+	private int articlesIndexed = 0;
 	
 	/**
 	 * Array containing titles of enabled dictionaries.
@@ -105,6 +119,17 @@ public class Shelf {
 		return books;
 	}
 
+	/**
+	 * Closes all books. The open files of the books are closed and the memory
+	 * held by them is released, the books reopen the files if they are used
+	 * again.
+	 */
+	public void close() {
+		for (Book book : books) {
+			book.close();
+		}
+	}
+
 	/**
 	 * Calculates the total quantity of lexical entries in all dictionaries.
 	 * 
@@ -144,17 +169,91 @@ public class Shelf {
 //	}
 
 	/**
-	 * Creates additional index file for every available dictionary.
+	 * Creates additional index file for every available dictionary which
+	 * index is missing or stale; index entries of the books with up-to-date
+	 * indexes are reported as already indexed. Books are
+	 * indexed in parallel by a pool of the provided quantity of threads. The
+	 * observer is notified with {@link SparkDictIndex#ARTICLES_INDEXED_TAG}
+	 * and the total quantity of index entries created for all books so far;
+	 * notifications are never delivered concurrently. Failure to index one
+	 * book does not stop indexing of the others.
 	 * 
-	 * @param observer	observer object which must be notified about the progress of creating the additional indexes.
-	 * @throws DomainException 
+	 * @param observer			observer object which must be notified about the progress of creating the additional indexes.
+	 * @param threadsQuantity	maximum quantity of books indexed at the same time.
+	 * @return					books which could not be indexed mapped to the reasons of the failures.
+	 * @throws InterruptedException if the current thread was interrupted while waiting.
 	 */
-//	public void buildSparkDictIndexes(IObserver observer) throws DomainException {
-//		int count = books.size();
-//		for (int i = 0; i < count; i++) {
-//			books.get(i).buildSparkDictIndex(observer);
-//		}
-//	}
+	public LinkedHashMap<Book, DomainException> buildSparkDictIndexes(
+			IObserver observer, int threadsQuantity) throws InterruptedException {
+		LinkedHashMap<Book, DomainException> failures = new LinkedHashMap<Book, DomainException>();
+		if(books.isEmpty()) {
+			return failures;
+		}
+		articlesIndexed = 0;
+		int threads = Math.max(1, Math.min(threadsQuantity, books.size()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (Book book : books) {
+				futures.add(executor.submit(new BookIndexBuilder(book, observer)));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					futures.get(i).get();
+				} catch (ExecutionException e) {
+					Book book = books.get(i);
+					if(e.getCause() instanceof DomainException) {
+						failures.put(book, (DomainException) e.getCause());
+					} else {
+						failures.put(book, new DomainException("Cannot build index for `"
+								+ book.getBookName() + "` dictionary.", e.getCause()));
+					}
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return failures;
+	}
+
+	/**
+	 * Builds SparkDictIndex of a single book and adds its progress to the
+	 * total progress of the shelf.
+	 */
+	private class BookIndexBuilder implements Callable<Void>, IObserver {
+
+		private Book book;
+		private IObserver observer;
+
+		/**
+		 * Quantity of index entries created for this book so far.
+		 */
+		private int bookArticlesIndexed = 0;
+
+		public BookIndexBuilder(Book book, IObserver observer) {
+			this.book = book;
+			this.observer = observer;
+		}
+
+		@Override
+		public Void call() throws DomainException {
+			if(book.isSparkDictIndexUpToDate()) {
+				update(SparkDictIndex.ARTICLES_INDEXED_TAG, book.getLexicalEntriesQuantity());
+				return null;
+			}
+			book.buildSparkDictIndex(this);
+			return null;
+		}
+
+		@Override
+		public void update(Object field, int value) {
+			synchronized (Shelf.this) {
+				articlesIndexed += value - bookArticlesIndexed;
+				bookArticlesIndexed = value;
+				observer.update(field, articlesIndexed);
+			}
+		}
+	}
 
 	/**
 	 * Enabled dictionaries setter.
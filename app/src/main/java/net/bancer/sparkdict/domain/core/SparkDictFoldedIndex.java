@@ -0,0 +1,509 @@
+package net.bancer.sparkdict.domain.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * SparkDictFoldedIndex is an abstraction of <dictionary name>.sparkdict.fidx
+ * file. It is a secondary index which lists the sequence numbers of
+ * SparkDictIndex entries ordered by the case folded lemmas. Unlike the order
+ * of <dictionary name>.idx file, which ignores the case of ASCII letters
+ * only, all lemmas starting with a prefix typed in any case are adjacent in
+ * this order.
+ *
+ * The index is needed only if the dictionary contains non-ASCII lemmas,
+ * otherwise it is written without entries and reported as not available.
+ *
+ * The file contains a header followed by 4 bytes sequence numbers. The
+ * header is {@link #HEADER_SIZE} bytes long and contains the following
+ * numbers in network byte order: magic number (4 bytes), format version
+ * (4 bytes), size of <dictionary name>.idx file the index was built from
+ * (8 bytes), last modification time of that file (8 bytes), quantity of
+ * sequence numbers (4 bytes) and 4 reserved bytes.
+ *
+ * @author Valerij Bancer
+ *
+ */
+public class SparkDictFoldedIndex {
+
+	/**
+	 * File extension of the case folded index file.
+	 */
+	public static final String 	FILE_EXTENSION 		= ".sparkdict.fidx";
+
+	/**
+	 * The size of the header of <dictionary name>.sparkdict.fidx file.
+	 */
+	public static final int 	HEADER_SIZE 		= 32;
+
+	/**
+	 * The size of a single entry in <dictionary name>.sparkdict.fidx file.
+	 */
+	public static final int 	INDEX_ENTRY_SIZE 	= 4;
+
+	/**
+	 * Version of <dictionary name>.sparkdict.fidx file format.
+	 */
+	public static final int 	FORMAT_VERSION 		= 2;
+
+	/**
+	 * Magic number identifying <dictionary name>.sparkdict.fidx file ("SDFX").
+	 */
+	private static final int 	MAGIC 				= 0x53444658;
+
+	/**
+	 * Length of the runs sorted by insertion before they are merged.
+	 */
+	private static final int 	INSERTION_SORT_RUN 	= 16;
+
+	private SparkDictIndex sparkDictIndex;
+
+	private String fileName;
+
+	private String starDictIdxFileName;
+
+	/**
+	 * Sequence numbers of SparkDictIndex entries in the case folded order.
+	 */
+	private volatile int[] ids = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param bookInfo			BookInfo object.
+	 * @param sparkDictIndex	index which entries are ordered.
+	 */
+	public SparkDictFoldedIndex(BookInfo bookInfo, SparkDictIndex sparkDictIndex) {
+		this.sparkDictIndex = sparkDictIndex;
+		this.fileName = bookInfo.getFileBaseName() + FILE_EXTENSION;
+		this.starDictIdxFileName = bookInfo.getFileBaseName() + ".idx";
+	}
+
+	/**
+	 * Folds the case of the code point. Upper casing before lower casing
+	 * folds the letters which have several lowercase forms, e.g. Greek final
+	 * and medial sigma get the same key. The letters which upper case form
+	 * is longer, e.g. German 'ß', keep their own key.
+	 *
+	 * @param codePoint	code point to be folded.
+	 * @return			case folded code point.
+	 */
+	public static int foldCase(int codePoint) {
+		return Character.toLowerCase(Character.toUpperCase(codePoint));
+	}
+
+	/**
+	 * Converts the string to the case folded sort key.
+	 *
+	 * @see #foldCase(int)
+	 *
+	 * @param str	string to be folded.
+	 * @return		case folded string.
+	 */
+	public static String foldCase(String str) {
+		StringBuilder result = new StringBuilder(str.length());
+		for (int i = 0; i < str.length(); ) {
+			int codePoint = str.codePointAt(i);
+			result.appendCodePoint(foldCase(codePoint));
+			i += Character.charCount(codePoint);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Compares the case folded UTF-8 encoded lemma stored in the buffer with
+	 * the case folded UTF-8 encoded string without decoding them into
+	 * strings. The code points are folded by {@link #foldCase(int)} and
+	 * compared as numbers; a byte which is not a part of a valid UTF-8
+	 * sequence is compared as a code point of its own.
+	 *
+	 * @param buffer	buffer containing the lemma.
+	 * @param start		absolute position of the first byte of the lemma.
+	 * @param limit		position in the buffer which must not be reached.
+	 * @param str		buffer containing the string to compare.
+	 * @param strStart	absolute position of the first byte of the string.
+	 * @param strLimit	position where the string ends unless it is
+	 * 					terminated by '\0' earlier.
+	 * @param mode		{@link IndexEntry#WORD_MATCH} or
+	 * 					{@link IndexEntry#PREFIX_MATCH}.
+	 * @return			0 if the match is found, else greater or smaller number.
+	 * @throws IOException	if the lemma is not terminated before the limit.
+	 * @throws IllegalArgumentException if the mode parameter is wrong.
+	 */
+	public static int compareFoldedLemmaTo(ByteBuffer buffer, int start,
+			int limit, ByteBuffer str, int strStart, int strLimit, int mode)
+			throws IOException {
+		if(mode != IndexEntry.WORD_MATCH && mode != IndexEntry.PREFIX_MATCH) {
+			throw new IllegalArgumentException("invalid mode argument");
+		}
+		int position = start;
+		int strPosition = strStart;
+		while(true) {
+			if(position >= limit) {
+				throw new IOException("Index entry at position " + start
+						+ " is not terminated");
+			}
+			boolean isEnd = buffer.get(position) == StarDictIndex.SEPARATOR;
+			boolean isStrEnd = strPosition >= strLimit
+					|| str.get(strPosition) == StarDictIndex.SEPARATOR;
+			if(isStrEnd) {
+				return (isEnd || mode == IndexEntry.PREFIX_MATCH) ? 0 : 1;
+			}
+			if(isEnd) {
+				return -1;
+			}
+			int length = getSequenceLength(buffer, position, limit);
+			int strLength = getSequenceLength(str, strPosition, strLimit);
+			int codePoint = foldCase(decode(buffer, position, length));
+			int strCodePoint = foldCase(decode(str, strPosition, strLength));
+			if(codePoint != strCodePoint) {
+				return codePoint - strCodePoint;
+			}
+			position += length;
+			strPosition += strLength;
+		}
+	}
+
+	/**
+	 * Gets the length of UTF-8 sequence starting at the provided position.
+	 *
+	 * @param buffer	buffer containing the sequence.
+	 * @param position	absolute position of the first byte of the sequence.
+	 * @param limit		position in the buffer which must not be reached.
+	 * @return			length of the sequence, 1 if the sequence is invalid.
+	 */
+	private static int getSequenceLength(ByteBuffer buffer, int position, int limit) {
+		int lead = buffer.get(position) & 0xff;
+		int length;
+		if(lead >= 0xC0 && lead < 0xE0) {
+			length = 2;
+		} else if(lead >= 0xE0 && lead < 0xF0) {
+			length = 3;
+		} else if(lead >= 0xF0 && lead < 0xF8) {
+			length = 4;
+		} else {
+			return 1;
+		}
+		if(position + length > limit) {
+			return 1;
+		}
+		for (int i = 1; i < length; i++) {
+			if((buffer.get(position + i) & 0xC0) != 0x80) {
+				return 1;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Decodes the code point of UTF-8 sequence.
+	 *
+	 * @param buffer	buffer containing the sequence.
+	 * @param position	absolute position of the first byte of the sequence.
+	 * @param length	length of the sequence.
+	 * @return			the code point or the value of the byte if the length
+	 * 					is 1.
+	 */
+	private static int decode(ByteBuffer buffer, int position, int length) {
+		int lead = buffer.get(position) & 0xff;
+		if(length == 1) {
+			return lead;
+		}
+		int codePoint = lead & (0x7F >> length);
+		for (int i = 1; i < length; i++) {
+			codePoint = (codePoint << 6) | (buffer.get(position + i) & 0x3F);
+		}
+		return codePoint;
+	}
+
+	/**
+	 * Sorts all entries of SparkDictIndex by the case folded lemmas and
+	 * writes their sequence numbers to <dictionary name>.sparkdict.fidx
+	 * file. SparkDictIndex must be up to date. The file is replaced only
+	 * when it is completely written.
+	 *
+	 * The lemmas are not kept in memory: the sequence numbers are sorted by
+	 * a merge sort which compares the lemmas in <dictionary name>.idx file.
+	 *
+	 * @throws IOException	if there was a problem reading or writing the files.
+	 */
+	public void buildIndex() throws IOException {
+		File starDictIdxFile = new File(starDictIdxFileName);
+		long starDictIdxSize = starDictIdxFile.length();
+		long starDictIdxModified = starDictIdxFile.lastModified();
+		int size = (int) sparkDictIndex.getSize();
+		boolean isAscii = true;
+		for (int id = 0; id < size && isAscii; id++) {
+			IndexEntry entry = sparkDictIndex.getIndexEntry(id);
+			if(entry == null) {
+				throw new IOException("No index entry with id " + id);
+			}
+			isAscii = IndexEntry.isAsciiString(entry.getLemma());
+		}
+		int[] order;
+		if(isAscii) {
+			order = new int[0];
+		} else {
+			order = new int[size];
+			for (int id = 0; id < size; id++) {
+				order[id] = id;
+			}
+			sort(order);
+		}
+		synchronized (SparkDictIndex.getFileLock(fileName)) {
+			File temporaryFile = SparkDictIndex.getTemporaryFile(fileName);
+			DataOutputStream foldedIdx = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+			boolean written = false;
+			try {
+				foldedIdx.writeInt(MAGIC);
+				foldedIdx.writeInt(FORMAT_VERSION);
+				foldedIdx.writeLong(starDictIdxSize);
+				foldedIdx.writeLong(starDictIdxModified);
+				foldedIdx.writeInt(order.length);
+				foldedIdx.writeInt(0);
+				for (int i = 0; i < order.length; i++) {
+					foldedIdx.writeInt(order[i]);
+				}
+				written = true;
+			} finally {
+				foldedIdx.close();
+				if(!written) {
+					temporaryFile.delete();
+				}
+			}
+			SparkDictIndex.replaceFile(temporaryFile, fileName);
+		}
+		sparkDictIndex.nextGeneration();
+		ids = null;
+	}
+
+	/**
+	 * Stable bottom-up merge sort of the sequence numbers by the case folded
+	 * lemmas. The sequence numbers of equal lemmas keep their ascending
+	 * order.
+	 *
+	 * @param order	sequence numbers in ascending order.
+	 * @throws IOException	if there was a problem reading the index files.
+	 */
+	private void sort(int[] order) throws IOException {
+		int size = order.length;
+		for (int from = 0; from < size; from += INSERTION_SORT_RUN) {
+			int to = Math.min(from + INSERTION_SORT_RUN, size);
+			for (int i = from + 1; i < to; i++) {
+				int id = order[i];
+				int j = i - 1;
+				while(j >= from && sparkDictIndex.compareFoldedLemmas(order[j], id) > 0) {
+					order[j + 1] = order[j];
+					j--;
+				}
+				order[j + 1] = id;
+			}
+		}
+		int[] source = order;
+		int[] target = new int[size];
+		for (int width = INSERTION_SORT_RUN; width < size; width *= 2) {
+			for (int from = 0; from < size; from += 2 * width) {
+				int middle = Math.min(from + width, size);
+				int to = Math.min(from + 2 * width, size);
+				merge(source, target, from, middle, to);
+			}
+			int[] merged = target;
+			target = source;
+			source = merged;
+		}
+		if(source != order) {
+			System.arraycopy(source, 0, order, 0, size);
+		}
+	}
+
+	/**
+	 * Merges two adjacent sorted runs of the sequence numbers.
+	 *
+	 * @param source	sequence numbers to be merged.
+	 * @param target	array the merged run is written to.
+	 * @param from		start of the first run.
+	 * @param middle	end of the first run and start of the second run.
+	 * @param to		end of the second run.
+	 * @throws IOException	if there was a problem reading the index files.
+	 */
+	private void merge(int[] source, int[] target, int from, int middle, int to)
+			throws IOException {
+		int i = from;
+		int j = middle;
+		for (int k = from; k < to; k++) {
+			if(i < middle && (j >= to
+					|| sparkDictIndex.compareFoldedLemmas(source[i], source[j]) <= 0)) {
+				target[k] = source[i++];
+			} else {
+				target[k] = source[j++];
+			}
+		}
+	}
+
+	/**
+	 * Checks whether <dictionary name>.sparkdict.fidx file exists, is
+	 * completely written and was built from the current version of
+	 * <dictionary name>.idx file.
+	 *
+	 * @return `true` if the index can be used, `false` if it must be rebuilt.
+	 */
+	public boolean isUpToDate() {
+		File file = new File(fileName);
+		if(!file.exists()) {
+			return false;
+		}
+		File starDictIdxFile = new File(starDictIdxFileName);
+		RandomAccessFile foldedIdx = null;
+		try {
+			foldedIdx = new RandomAccessFile(file, "r");
+			long length = foldedIdx.length();
+			if(length < HEADER_SIZE) {
+				return false;
+			}
+			int magic = foldedIdx.readInt();
+			int version = foldedIdx.readInt();
+			long starDictIdxSize = foldedIdx.readLong();
+			long starDictIdxModified = foldedIdx.readLong();
+			int count = foldedIdx.readInt();
+			return magic == MAGIC
+					&& version == FORMAT_VERSION
+					&& starDictIdxSize == starDictIdxFile.length()
+					&& starDictIdxModified == starDictIdxFile.lastModified()
+					&& length == HEADER_SIZE + (long) count * INDEX_ENTRY_SIZE;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if(foldedIdx != null) {
+				try {
+					foldedIdx.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads all sequence numbers into memory on the first call.
+	 *
+	 * @throws IOException	if there was a problem reading the file.
+	 * @throws FileNotFoundException	if the file was not found.
+	 */
+	private void loadIds() throws FileNotFoundException, IOException {
+		if(ids == null) {
+			synchronized (this) {
+				if(ids == null) {
+					readIds();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads all sequence numbers from <dictionary name>.sparkdict.fidx file.
+	 *
+	 * @throws IOException	if there was a problem reading the file.
+	 * @throws FileNotFoundException	if the file was not found.
+	 */
+	private void readIds() throws FileNotFoundException, IOException {
+		RandomAccessFile foldedIdx = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = foldedIdx.getChannel();
+			int size = (int) Math.max((channel.size() - HEADER_SIZE) / INDEX_ENTRY_SIZE, 0);
+			int[] table = new int[size];
+			if(size > 0) {
+				channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+						(long) size * INDEX_ENTRY_SIZE).asIntBuffer().get(table);
+			}
+			ids = table;
+		} finally {
+			foldedIdx.close();
+		}
+	}
+
+	/**
+	 * Gets the quantity of entries.
+	 *
+	 * @return	the quantity of entries, 0 if the dictionary does not need
+	 * 			the case folded index.
+	 * @throws IOException	if there was a problem reading the file.
+	 * @throws FileNotFoundException	if the file was not found.
+	 */
+	public int getSize() throws FileNotFoundException, IOException {
+		loadIds();
+		return ids.length;
+	}
+
+	/**
+	 * Retrieves the sequence number of SparkDictIndex entry by its position
+	 * in the case folded order.
+	 *
+	 * @param position	position in the case folded order.
+	 * @return			sequence number of SparkDictIndex entry.
+	 * @throws IOException	if there is no entry at the provided position.
+	 * @throws FileNotFoundException	if the file was not found.
+	 */
+	public long getId(int position) throws FileNotFoundException, IOException {
+		loadIds();
+		if(position < 0 || position >= ids.length) {
+			throw new IOException("No folded index entry at position " + position);
+		}
+		return ids[position];
+	}
+
+	/**
+	 * Compares the case folded lemma of the entry at the provided position
+	 * with the case folded prefix in place.
+	 *
+	 * @param position		position in the case folded order.
+	 * @param foldedPrefix	UTF-8 encoded case folded prefix.
+	 * @return				0 if the lemma starts with the prefix, else
+	 * 						greater or smaller number.
+	 * @throws IOException	if there was a problem reading the index files.
+	 * @throws FileNotFoundException	if the index file was not found.
+	 */
+	public int compareToPrefix(int position, byte[] foldedPrefix)
+			throws FileNotFoundException, IOException {
+		return sparkDictIndex.compareFoldedLemmaTo(getId(position), foldedPrefix,
+				IndexEntry.PREFIX_MATCH);
+	}
+
+	/**
+	 * Binary search for the first entry which case folded lemma starts with
+	 * the case folded prefix.
+	 *
+	 * @param foldedPrefix	UTF-8 encoded case folded prefix.
+	 * @return				position in the case folded order or -1 if there
+	 * 						is no match.
+	 * @throws IOException	if there was a problem reading the index files.
+	 * @throws FileNotFoundException	if the index file was not found.
+	 */
+	public int findFirstMatchedByPrefix(byte[] foldedPrefix)
+			throws FileNotFoundException, IOException {
+		int found = -1;
+		int min = 0;
+		int max = getSize() - 1;
+		while(min <= max) {
+			int mid = (min + max) >>> 1;
+			int comparison = compareToPrefix(mid, foldedPrefix);
+			if(comparison == 0) {
+				found = mid;
+				max = mid - 1;
+			} else if(comparison < 0) {
+				min = mid + 1;
+			} else {
+				max = mid - 1;
+			}
+		}
+		return found;
+	}
+}
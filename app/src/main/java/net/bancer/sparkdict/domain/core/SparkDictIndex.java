@@ -1,15 +1,35 @@
 package net.bancer.sparkdict.domain.core;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Vector;
 
 
 /**
  * SparkDictIndex is an abstraction of <dictionary name>.sparkdict.idx file.
- * SparkDictIndex is very simple. It contains a sequence of 4 bytes elements
- * containing pointers to the index entries start at stardict index.
+ * SparkDictIndex is very simple. It contains a header followed by a sequence
+ * of unsigned 4 bytes elements (8 bytes elements if <dictionary name>.idx
+ * file is larger than 4GB) containing pointers to the index entries start at
+ * stardict index.
+ * 
+ * The header is {@link #HEADER_SIZE} bytes long and contains the following
+ * numbers in network byte order: magic number (4 bytes), format version
+ * (4 bytes), size of <dictionary name>.idx file the index was built from
+ * (8 bytes), last modification time of that file (8 bytes), quantity of
+ * pointers (4 bytes) and size of a single pointer (4 bytes).
+ * 
+ * The index files are written to a temporary file which replaces the old
+ * file only when it is complete, so the readers never see a partially
+ * written index. Writers of the same file are serialized by a lock shared
+ * by the whole process.
  * 
  * @author Valerij Bancer
  *
@@ -22,7 +42,9 @@ public class SparkDictIndex implements IObservable {
 	public static final String 	FILE_EXTENSION 		 = ".sparkdict.idx";
 	
 	/**
-	 * Tag used to notify observer that a new SparkDict index entry has been created.
+	 * Tag used to notify observer that a batch of new SparkDict index entries
+	 * has been created. The value is the total quantity of index entries
+	 * created for the book so far.
 	 */
 	public static final String 	ARTICLES_INDEXED_TAG = "articlesIndexed";
 
@@ -30,15 +52,109 @@ public class SparkDictIndex implements IObservable {
 	 * The size of a single index entry in <dictionary name>.sparkdict.idx file.
 	 */
 	public static final int 	INDEX_ENTRY_SIZE 	= 4;
-	private static final int 	BUFFER_SIZE 		= 4096; // 4kb buffer
+
+	/**
+	 * The size of a single index entry in <dictionary name>.sparkdict.idx file
+	 * built from <dictionary name>.idx file larger than 4GB.
+	 */
+	public static final int 	WIDE_INDEX_ENTRY_SIZE = 8;
+
+	/**
+	 * The largest <dictionary name>.idx file size which positions fit into
+	 * {@link #INDEX_ENTRY_SIZE} bytes.
+	 */
+	private static final long 	MAX_NARROW_POINTER 	= 0xFFFFFFFFL;
+
+	/**
+	 * The size of the header of <dictionary name>.sparkdict.idx file.
+	 */
+	public static final int 	HEADER_SIZE 		= 32;
+
+	/**
+	 * Version of <dictionary name>.sparkdict.idx file format.
+	 */
+	public static final int 	FORMAT_VERSION 		= 2;
+
+	/**
+	 * Magic number identifying <dictionary name>.sparkdict.idx file ("SDIX").
+	 */
+	private static final int 	MAGIC 				= 0x53444958;
+	private static final int 	BUFFER_SIZE 		= 65536; // 64kb buffer
+
+	/**
+	 * Quantity of pointers written to <dictionary name>.sparkdict.idx file at
+	 * once. Observers are notified after each batch.
+	 */
+	private static final int 	POINTERS_BATCH_SIZE = 16384;
+
+	/**
+	 * Read mode in which every pointer is read from the
+	 * <dictionary name>.sparkdict.idx file on demand.
+	 */
+	public static final int 	READ_MODE_FILE 		= 1;
+
+	/**
+	 * Read mode in which all pointers are loaded into memory once when the
+	 * index is opened.
+	 */
+	public static final int 	READ_MODE_IN_MEMORY = 2;
+
+	/**
+	 * Read mode used while <dictionary name>.sparkdict.idx file is missing or
+	 * stale. All pointers are collected into memory by scanning <dictionary
+	 * name>.idx file once when the index is opened, no file is written.
+	 */
+	public static final int 	READ_MODE_BOOK_INDEX = 3;
+
+	/**
+	 * Extension appended to the name of an index file while it is written.
+	 */
+	private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
+
+	/**
+	 * Locks of the index files by file name shared by all indexes of the
+	 * process.
+	 */
+	private static final HashMap<String, Object> FILE_LOCKS = new HashMap<String, Object>();
+
+	/**
+	 * Generations of the indexes by file base name of the book. The
+	 * generation is incremented every time an index file of the book is
+	 * replaced, so the opened indexes can be refreshed without inspecting
+	 * the files.
+	 */
+	private static final HashMap<String, Integer> GENERATIONS = new HashMap<String, Integer>();
 	
 	private Vector<IObserver> observers;
 	private int articlesIndexed = 0;
 	private StarDictIndex starDictIndex;
 	//private RandomAccessFile sparkDictFile = null;
 	//private byte[] sparkDictbuffer = null;
-	private RandomAccessFile sparkDictReadOnlyFile = null;
-	private byte[] sparkDictbuffer = null;
+
+	/**
+	 * Size of a single pointer in the opened <dictionary name>.sparkdict.idx
+	 * file; 0 until the header is read.
+	 */
+	private volatile int pointerSize = 0;
+
+	/**
+	 * Unsigned 32-bit pointers to the index entries loaded from <dictionary
+	 * name>.sparkdict.idx file in {@link #READ_MODE_IN_MEMORY} mode.
+	 */
+	private volatile int[] pointers = null;
+
+	/**
+	 * 64-bit pointers to the index entries loaded from <dictionary
+	 * name>.sparkdict.idx file in {@link #READ_MODE_IN_MEMORY} mode if the
+	 * pointers are {@link #WIDE_INDEX_ENTRY_SIZE} bytes long.
+	 */
+	private volatile long[] widePointers = null;
+
+	/**
+	 * {@link #READ_MODE_FILE}, {@link #READ_MODE_IN_MEMORY} or
+	 * {@link #READ_MODE_BOOK_INDEX}.
+	 */
+	private int readMode;
 
 	/**
 	 * Constructor.
@@ -46,66 +162,293 @@ public class SparkDictIndex implements IObservable {
 	 * @param bookInfo BookInfo object.
 	 */
 	public SparkDictIndex(BookInfo bookInfo) {
-		starDictIndex = new StarDictIndex(bookInfo);
+		this(bookInfo, READ_MODE_FILE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param bookInfo	BookInfo object.
+	 * @param readMode	{@link #READ_MODE_FILE}, {@link #READ_MODE_IN_MEMORY}
+	 * 					or {@link #READ_MODE_BOOK_INDEX}.
+	 * @throws IllegalArgumentException if the read mode is wrong.
+	 */
+	public SparkDictIndex(BookInfo bookInfo, int readMode) {
+		if(readMode != READ_MODE_FILE && readMode != READ_MODE_IN_MEMORY
+				&& readMode != READ_MODE_BOOK_INDEX) {
+			throw new IllegalArgumentException("invalid readMode argument");
+		}
+		this.readMode = readMode;
+		starDictIndex = new StarDictIndex(bookInfo, StarDictIndex.READ_MODE_MAPPED);
 		observers = new Vector<IObserver>();
-		//sparkDictbuffer = new byte[INDEX_ENTRY_SIZE];
-		sparkDictbuffer = new byte[SparkDictIndex.INDEX_ENTRY_SIZE];
 	}
 
 	/**
 	 * Inspects <dictionary name>.idx file and creates new <dictionary
-	 * name>.sparkdict.idx file.
+	 * name>.sparkdict.idx file, <dictionary name>.sparkdict.sidx file with
+	 * the default memory budget and <dictionary name>.sparkdict.fidx file.
 	 * 
 	 * @throws IOException
 	 */
 	public void buildIndex() throws IOException {
+		buildIndex(SparkDictSparseIndex.DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * Inspects <dictionary name>.idx file and creates new <dictionary
+	 * name>.sparkdict.idx file, <dictionary name>.sparkdict.sidx file and
+	 * <dictionary name>.sparkdict.fidx file.
+	 * 
+	 * @param memoryBudget	maximum size in bytes of the lemmas kept in memory
+	 * 						by the sparse top level of the index.
+	 * @throws IOException
+	 * @throws IllegalArgumentException if the memory budget is not positive.
+	 */
+	public void buildIndex(int memoryBudget) throws IOException {
+		if(memoryBudget <= 0) {
+			throw new IllegalArgumentException("invalid memoryBudget argument");
+		}
+		synchronized (this) {
+			pointerSize = 0;
+			pointers = null;
+			widePointers = null;
+		}
 		parseBookIndex(starDictIndex);
+		// the case folded index is sorted with many random reads of the pointers
+		SparkDictIndex builtIndex = new SparkDictIndex(starDictIndex.getBookInfo(),
+				READ_MODE_IN_MEMORY);
+		new SparkDictSparseIndex(starDictIndex.getBookInfo(), builtIndex,
+				memoryBudget).buildIndex();
+		new SparkDictFoldedIndex(starDictIndex.getBookInfo(), builtIndex).buildIndex();
+	}
+
+	/**
+	 * Gets the lock of the index file. Every index file must be written only
+	 * while its lock is held.
+	 * 
+	 * @param fileName	full file name.
+	 * @return			the lock shared by all writers of the file.
+	 */
+	static Object getFileLock(String fileName) {
+		synchronized (FILE_LOCKS) {
+			Object lock = FILE_LOCKS.get(fileName);
+			if(lock == null) {
+				lock = new Object();
+				FILE_LOCKS.put(fileName, lock);
+			}
+			return lock;
+		}
+	}
+
+	/**
+	 * Gets the generation of the indexes of the book. It changes when any
+	 * index file of the book is rebuilt.
+	 * 
+	 * @param fileBaseName	file base name of the book.
+	 * @return				the generation, 0 if no index was rebuilt by this
+	 * 						process.
+	 */
+	static int getGeneration(String fileBaseName) {
+		synchronized (GENERATIONS) {
+			Integer generation = GENERATIONS.get(fileBaseName);
+			return (generation == null) ? 0 : generation.intValue();
+		}
+	}
+
+	/**
+	 * Increments the generation of the indexes of the book. Must be called
+	 * after an index file of the book is replaced.
+	 */
+	void nextGeneration() {
+		synchronized (GENERATIONS) {
+			String fileBaseName = starDictIndex.getFileBaseName();
+			GENERATIONS.put(fileBaseName, getGeneration(fileBaseName) + 1);
+		}
+	}
+
+	/**
+	 * Gets the temporary file the index file is written to before it
+	 * replaces the index file.
+	 * 
+	 * @param fileName	full file name of the index file.
+	 * @return			the temporary file.
+	 */
+	static File getTemporaryFile(String fileName) {
+		return new File(fileName + TEMPORARY_FILE_EXTENSION);
 	}
 
+	/**
+	 * Replaces the index or data file with the completely written temporary
+	 * file. The file is closed in {@link FileHandlePool}, so the readers
+	 * reopen the new file once they finish reading the old one.
+	 * 
+	 * @param temporaryFile	completely written temporary file, it is deleted
+	 * 						if the file cannot be replaced.
+	 * @param fileName		full file name of the file to be replaced.
+	 * @throws IOException	if the file cannot be replaced.
+	 */
+	static void replaceFile(File temporaryFile, String fileName) throws IOException {
+		if(!temporaryFile.renameTo(new File(fileName))) {
+			temporaryFile.delete();
+			throw new IOException("Cannot replace " + fileName);
+		}
+		FileHandlePool.getInstance().close(fileName);
+	}
+
+	/**
+	 * Streams <dictionary name>.idx file through a large buffer in a single
+	 * pass, collects pointers to the index entries in a primitive buffer and
+	 * writes them to <dictionary name>.sparkdict.idx file in bulk. Observers
+	 * are notified once per written batch of pointers.
+	 * 
+	 * @param bookIndex	index of the book.
+	 * @throws IOException	if there was a problem reading or writing the files.
+	 */
 	private void parseBookIndex(StarDictIndex bookIndex) throws IOException {
-		long starDictPointer = 0;
-		byte[] starDictIdxBuffer = new byte[BUFFER_SIZE];
-		RandomAccessFile starDictIdx = new RandomAccessFile(bookIndex.getFileName(), "r");
-		starDictIdx.seek(starDictPointer);
-		int sizeRead = starDictIdx.read(starDictIdxBuffer, 0, BUFFER_SIZE);
-		
-		int sparkDictPointer = 0;
+		File starDictIdxFile = new File(bookIndex.getFileName());
+		long starDictIdxSize = starDictIdxFile.length();
+		long starDictIdxModified = starDictIdxFile.lastModified();
+		articlesIndexed = 0;
+		final int entrySize = getEntrySize(starDictIdxSize);
 		String path = bookIndex.getFileBaseName() + FILE_EXTENSION;
-		RandomAccessFile sparkDictIdx = new RandomAccessFile(path, "rw");
-		sparkDictIdx.seek(sparkDictPointer);
-		
-		while(sizeRead > 0) {
-			int wordStart = 0;
-			int currentPosition = 0;
-			while(currentPosition < sizeRead){
-				if(starDictIdxBuffer[currentPosition] == StarDictIndex.SEPARATOR) {
-					// Length = position of separator + 1 byte occupied by separator +
-					// 			index offset bytes size + data bytes size - start position
-					int length = currentPosition + 1 + bookIndex.getLexicalEntryOffsetFieldSizeInBytes() + bookIndex.getLexicalEntrySizeFieldInBytes() - wordStart;
-					if(wordStart + length <= sizeRead) {
-						writePointerToSparkdictIndex(starDictPointer, sparkDictIdx);
-						sparkDictPointer += INDEX_ENTRY_SIZE;
-						starDictPointer += length;
+		synchronized (getFileLock(path)) {
+			File temporaryFile = getTemporaryFile(path);
+			final FileOutputStream sparkDictIdx = new FileOutputStream(temporaryFile);
+			boolean written = false;
+			try {
+				// the header stays invalid until all pointers are written
+				sparkDictIdx.write(new byte[HEADER_SIZE]);
+				scanBookIndex(bookIndex, entrySize, new PointersConsumer() {
+					@Override
+					public void consume(ByteBuffer pointersBuffer) throws IOException {
+						writePointersToSparkdictIndex(pointersBuffer, entrySize, sparkDictIdx);
 					}
-					currentPosition = wordStart + length; // Move the pointer further
-					wordStart = currentPosition;
-				} else {
-					currentPosition++;
+				});
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC);
+				header.putInt(FORMAT_VERSION);
+				header.putLong(starDictIdxSize);
+				header.putLong(starDictIdxModified);
+				header.putInt(articlesIndexed);
+				header.putInt(entrySize);
+				header.rewind();
+				sparkDictIdx.getChannel().write(header, 0);
+				written = true;
+			} finally {
+				sparkDictIdx.close();
+				if(!written) {
+					temporaryFile.delete();
 				}
 			}
-			starDictIdx.seek(starDictPointer);
-			sizeRead = starDictIdx.read(starDictIdxBuffer, 0, BUFFER_SIZE);
+			replaceFile(temporaryFile, path);
 		}
-		starDictIdx.close();
+		nextGeneration();
 	}
 
-	private void writePointerToSparkdictIndex(long pointer,
-			RandomAccessFile spardictIdx) throws IOException {
-		spardictIdx.write(intToByteArray((int)pointer));
-		articlesIndexed++;
+	/**
+	 * Gets the size of the pointers to the index entries of <dictionary
+	 * name>.idx file.
+	 * 
+	 * @param starDictIdxSize	size of <dictionary name>.idx file.
+	 * @return {@link #INDEX_ENTRY_SIZE} or {@link #WIDE_INDEX_ENTRY_SIZE}.
+	 */
+	private static int getEntrySize(long starDictIdxSize) {
+		return (starDictIdxSize > MAX_NARROW_POINTER) ? WIDE_INDEX_ENTRY_SIZE : INDEX_ENTRY_SIZE;
+	}
+
+	/**
+	 * Streams <dictionary name>.idx file through a large buffer in a single
+	 * pass and passes the pointers to the index entries to the consumer in
+	 * batches.
+	 * 
+	 * @param bookIndex	index of the book.
+	 * @param entrySize	size of a single pointer in bytes.
+	 * @param consumer	consumer of the batches of pointers.
+	 * @throws IOException	if there was a problem reading the file or
+	 * 						consuming the pointers.
+	 */
+	private static void scanBookIndex(StarDictIndex bookIndex, int entrySize,
+			PointersConsumer consumer) throws IOException {
+		int fieldsSize = bookIndex.getLexicalEntryOffsetFieldSizeInBytes()
+				+ bookIndex.getLexicalEntrySizeFieldInBytes();
+		byte[] starDictIdxBuffer = new byte[BUFFER_SIZE];
+		ByteBuffer pointersBuffer = ByteBuffer.allocate(POINTERS_BATCH_SIZE * entrySize);
+		FileInputStream starDictIdx = new FileInputStream(bookIndex.getFileName());
+		try {
+			long entryStart = 0;
+			long bufferStart = 0;
+			// bytes of the offset and size fields still to be skipped, 0 while reading the word
+			int fieldBytesLeft = 0;
+			int sizeRead = starDictIdx.read(starDictIdxBuffer);
+			while(sizeRead > 0) {
+				int currentPosition = 0;
+				while(currentPosition < sizeRead) {
+					if(fieldBytesLeft > 0) {
+						int skip = Math.min(fieldBytesLeft, sizeRead - currentPosition);
+						fieldBytesLeft -= skip;
+						currentPosition += skip;
+						if(fieldBytesLeft == 0) {
+							if(entrySize == WIDE_INDEX_ENTRY_SIZE) {
+								pointersBuffer.putLong(entryStart);
+							} else {
+								pointersBuffer.putInt((int) entryStart);
+							}
+							if(!pointersBuffer.hasRemaining()) {
+								consumer.consume(pointersBuffer);
+								pointersBuffer.clear();
+							}
+							entryStart = bufferStart + currentPosition;
+						}
+					} else {
+						if(starDictIdxBuffer[currentPosition] == StarDictIndex.SEPARATOR) {
+							fieldBytesLeft = fieldsSize;
+						}
+						currentPosition++;
+					}
+				}
+				bufferStart += sizeRead;
+				sizeRead = starDictIdx.read(starDictIdxBuffer);
+			}
+			consumer.consume(pointersBuffer);
+		} finally {
+			starDictIdx.close();
+		}
+	}
+
+	/**
+	 * Writes the collected pointers to <dictionary name>.sparkdict.idx file
+	 * and notifies observers about the progress.
+	 * 
+	 * @param pointersBuffer	buffer of pointers to be written.
+	 * @param entrySize			size of a single pointer in bytes.
+	 * @param sparkDictIdx		<dictionary name>.sparkdict.idx output stream.
+	 * @throws IOException	if there was a problem writing the file.
+	 */
+	private void writePointersToSparkdictIndex(ByteBuffer pointersBuffer,
+			int entrySize, FileOutputStream sparkDictIdx) throws IOException {
+		sparkDictIdx.write(pointersBuffer.array(), 0, pointersBuffer.position());
+		articlesIndexed += pointersBuffer.position() / entrySize;
 		notifyObservers();
 	}
 
+	/**
+	 * Collects all pointers to the index entries of <dictionary name>.idx
+	 * file into memory.
+	 * 
+	 * @throws IOException	if there was a problem reading the file.
+	 */
+	private void collectPointers() throws IOException {
+		int entrySize = getEntrySize(new File(starDictIndex.getFileName()).length());
+		PointersTable table = new PointersTable(entrySize,
+				starDictIndex.getBookInfo().getWordCount());
+		scanBookIndex(starDictIndex, entrySize, table);
+		if(entrySize == WIDE_INDEX_ENTRY_SIZE) {
+			widePointers = Arrays.copyOf(table.widePointers, table.count);
+		} else {
+			pointers = Arrays.copyOf(table.pointers, table.count);
+		}
+	}
+
 	/**
 	 * Converts integer to an array of bytes.
 	 * 
@@ -166,14 +509,173 @@ public class SparkDictIndex implements IObservable {
 		}
 	}
 	
-	private RandomAccessFile getSparkDictReadOnlyFile() throws FileNotFoundException {
-		if(sparkDictReadOnlyFile == null) {
-			String uri = starDictIndex.getFileBaseName() + SparkDictIndex.FILE_EXTENSION;
-			sparkDictReadOnlyFile = new RandomAccessFile(uri, "r");
+	/**
+	 * <dictionary name>.sparkdict.idx full file name.
+	 * 
+	 * @return	the file name.
+	 */
+	private String getFileName() {
+		return starDictIndex.getFileBaseName() + FILE_EXTENSION;
+	}
+
+	/**
+	 * Reads <dictionary name>.sparkdict.idx file from the provided position
+	 * without moving the shared file pointer, so concurrent reads do not
+	 * interfere. The file is taken from {@link FileHandlePool} for the time
+	 * of the read.
+	 * 
+	 * @param buffer	buffer to be filled completely.
+	 * @param position	position in the file where to start reading.
+	 * @return			`true` if the buffer was filled, `false` if the end of
+	 * 					the file was reached.
+	 * @throws IOException	if there was a problem reading the file.
+	 */
+	private boolean readFully(final ByteBuffer buffer, final long position) throws IOException {
+		boolean filled = FileHandlePool.getInstance().read(getFileName(),
+				new FileHandlePool.Reader<Boolean>() {
+			@Override
+			public Boolean read(FileChannel channel) throws IOException {
+				buffer.clear();
+				while(buffer.hasRemaining()) {
+					int sizeRead = channel.read(buffer, position + buffer.position());
+					if(sizeRead < 0) {
+						return false;
+					}
+				}
+				return true;
+			}
+		});
+		if(!filled) {
+			return false;
 		}
-		return sparkDictReadOnlyFile;
+		buffer.flip();
+		return true;
+	}
+
+	/**
+	 * Reads the size of a single pointer from the header of <dictionary
+	 * name>.sparkdict.idx file on the first call.
+	 * 
+	 * @return {@link #INDEX_ENTRY_SIZE} or {@link #WIDE_INDEX_ENTRY_SIZE}.
+	 * @throws IOException	if the header is missing or invalid.
+	 * @throws FileNotFoundException	if the file was not found.
+	 */
+	private int getPointerSize() throws FileNotFoundException, IOException {
+		if(pointerSize == 0) {
+			ByteBuffer buffer = ByteBuffer.allocate(4);
+			if(!readFully(buffer, HEADER_SIZE - 4)) {
+				throw new IOException("Missing header in `" + getBookName()
+						+ "` dictionary SparkDictIndex");
+			}
+			int size = buffer.getInt();
+			if(size != INDEX_ENTRY_SIZE && size != WIDE_INDEX_ENTRY_SIZE) {
+				throw new IOException("Invalid pointer size " + size + " in `"
+						+ getBookName() + "` dictionary SparkDictIndex");
+			}
+			pointerSize = size;
+		}
+		return pointerSize;
+	}
+
+	/**
+	 * Loads all pointers of <dictionary name>.sparkdict.idx file into memory
+	 * on the first call.
+	 * 
+	 * @throws IOException	if there was a problem reading the file.
+	 * @throws FileNotFoundException	if the file was not found.
+	 */
+	private void loadPointers() throws FileNotFoundException, IOException {
+		if(pointers == null && widePointers == null) {
+			synchronized (this) {
+				if(pointers == null && widePointers == null) {
+					if(readMode == READ_MODE_BOOK_INDEX) {
+						collectPointers();
+					} else {
+						readPointers();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads all pointers of <dictionary name>.sparkdict.idx file into an
+	 * array in memory. The file is not memory mapped.
+	 * 
+	 * @throws IOException	if there was a problem reading the file.
+	 * @throws FileNotFoundException	if the file was not found.
+	 */
+	private void readPointers() throws FileNotFoundException, IOException {
+		final int entrySize = getPointerSize();
+		FileHandlePool.getInstance().read(getFileName(), new FileHandlePool.Reader<Void>() {
+			@Override
+			public Void read(FileChannel channel) throws IOException {
+				int size = (int) Math.max((channel.size() - HEADER_SIZE) / entrySize, 0);
+				if(entrySize == WIDE_INDEX_ENTRY_SIZE) {
+					long[] table = new long[size];
+					if(size > 0) {
+						channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+								(long) size * entrySize).asLongBuffer().get(table);
+					}
+					widePointers = table;
+				} else {
+					int[] table = new int[size];
+					if(size > 0) {
+						channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+								(long) size * entrySize).asIntBuffer().get(table);
+					}
+					pointers = table;
+				}
+				return null;
+			}
+		});
 	}
 	
+	/**
+	 * Checks whether <dictionary name>.sparkdict.idx file exists, has been
+	 * completely written in the current format and was built from the current
+	 * version of <dictionary name>.idx file.
+	 * 
+	 * @return `true` if the index can be used, `false` if it must be rebuilt.
+	 */
+	public boolean isUpToDate() {
+		File file = new File(starDictIndex.getFileBaseName() + FILE_EXTENSION);
+		if(!file.exists()) {
+			return false;
+		}
+		File starDictIdxFile = new File(starDictIndex.getFileName());
+		RandomAccessFile sparkDictIdx = null;
+		try {
+			sparkDictIdx = new RandomAccessFile(file, "r");
+			long length = sparkDictIdx.length();
+			if(length < HEADER_SIZE) {
+				return false;
+			}
+			int magic = sparkDictIdx.readInt();
+			int version = sparkDictIdx.readInt();
+			long starDictIdxSize = sparkDictIdx.readLong();
+			long starDictIdxModified = sparkDictIdx.readLong();
+			int count = sparkDictIdx.readInt();
+			int entrySize = sparkDictIdx.readInt();
+			return magic == MAGIC
+					&& version == FORMAT_VERSION
+					&& starDictIdxSize == starDictIdxFile.length()
+					&& starDictIdxModified == starDictIdxFile.lastModified()
+					&& (entrySize == INDEX_ENTRY_SIZE || entrySize == WIDE_INDEX_ENTRY_SIZE)
+					&& length == HEADER_SIZE + (long) count * entrySize;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if(sparkDictIdx != null) {
+				try {
+					sparkDictIdx.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
 	/**
 	 * Gets the quantity of index entries.
 	 * 
@@ -183,8 +685,12 @@ public class SparkDictIndex implements IObservable {
 	 * @throws FileNotFoundException
 	 */
 	public long getSize() throws FileNotFoundException, IOException {
-		return getSparkDictReadOnlyFile().length()
-				/ SparkDictIndex.INDEX_ENTRY_SIZE;
+		if(readMode != READ_MODE_FILE) {
+			loadPointers();
+			return (pointers != null) ? pointers.length : widePointers.length;
+		}
+		int entrySize = getPointerSize();
+		return (new File(getFileName()).length() - HEADER_SIZE) / entrySize;
 	}
 
 	/**
@@ -199,20 +705,198 @@ public class SparkDictIndex implements IObservable {
 	 */
 	public IndexEntry getIndexEntry(long id) throws FileNotFoundException,
 			IOException {
-		getSparkDictReadOnlyFile().seek(id*SparkDictIndex.INDEX_ENTRY_SIZE);
-		int sizeRead = getSparkDictReadOnlyFile().read(sparkDictbuffer);
-		if(sizeRead > 0) {
-			long startPosition = SparkDictIndex.byteArrayToInt(sparkDictbuffer);
-			//System.out.println("start: " + startPosition);
-			return starDictIndex.retrieveIndexEntry(startPosition);
-		} else {
-			//System.out.println("size read: " + sizeRead);
-			//System.out.println("id: " + id);
+		long startPosition = readPointer(id);
+		if(startPosition < 0) {
 			return null;
 		}
+		return starDictIndex.retrieveIndexEntry(startPosition);
+	}
+
+	/**
+	 * Compares the lemma of the index entry with the provided sequence number
+	 * to the UTF-8 encoded string without constructing IndexEntry.
+	 * 
+	 * @see IndexEntry#compareTo(String, int)
+	 * 
+	 * @param id	sequence number of the index entry.
+	 * @param str	UTF-8 encoded string to compare.
+	 * @param mode	{@link IndexEntry#WORD_MATCH} or {@link IndexEntry#PREFIX_MATCH}.
+	 * @return		0 if the match is found, else greater or smaller number.
+	 * @throws IOException	if there is no index entry with the provided id.
+	 * @throws FileNotFoundException	if the index file was not found.
+	 */
+	public int compareLemmaTo(long id, byte[] str, int mode)
+			throws FileNotFoundException, IOException {
+		return starDictIndex.compareLemmaTo(getPointer(id), str, mode);
+	}
+
+	/**
+	 * Compares the case folded lemma of the index entry with the provided
+	 * sequence number to the case folded UTF-8 encoded string without
+	 * constructing IndexEntry.
+	 * 
+	 * @see StarDictIndex#compareFoldedLemmaTo(long, byte[], int)
+	 * 
+	 * @param id	sequence number of the index entry.
+	 * @param str	UTF-8 encoded string to compare.
+	 * @param mode	{@link IndexEntry#WORD_MATCH} or {@link IndexEntry#PREFIX_MATCH}.
+	 * @return		0 if the match is found, else greater or smaller number.
+	 * @throws IOException	if there is no index entry with the provided id.
+	 * @throws FileNotFoundException	if the index file was not found.
+	 */
+	public int compareFoldedLemmaTo(long id, byte[] str, int mode)
+			throws FileNotFoundException, IOException {
+		return starDictIndex.compareFoldedLemmaTo(getPointer(id), str, mode);
+	}
+
+	/**
+	 * Compares the case folded lemmas of the index entries with the provided
+	 * sequence numbers without constructing IndexEntry.
+	 * 
+	 * @see StarDictIndex#compareFoldedLemmas(long, long)
+	 * 
+	 * @param id1	sequence number of the first index entry.
+	 * @param id2	sequence number of the second index entry.
+	 * @return		0 if the lemmas are equal, else greater or smaller number.
+	 * @throws IOException	if there is no index entry with one of the ids.
+	 * @throws FileNotFoundException	if the index file was not found.
+	 */
+	public int compareFoldedLemmas(long id1, long id2)
+			throws FileNotFoundException, IOException {
+		return starDictIndex.compareFoldedLemmas(getPointer(id1), getPointer(id2));
+	}
+
+	/**
+	 * Retrieves the pointer to the index entry start in <dictionary name>.idx
+	 * file by the sequence number of the index entry.
+	 * 
+	 * @param id	sequence number of the index entry.
+	 * @return		position of the index entry in <dictionary name>.idx file.
+	 * @throws IOException	if there is no index entry with the provided id.
+	 * @throws FileNotFoundException	if the index file was not found.
+	 */
+	private long getPointer(long id) throws FileNotFoundException, IOException {
+		long pointer = readPointer(id);
+		if(pointer < 0) {
+			throw new IOException("No index entry with id " + id);
+		}
+		return pointer;
+	}
+
+	/**
+	 * Reads the pointer to the index entry start in <dictionary name>.idx
+	 * file by the sequence number of the index entry.
+	 * 
+	 * @param id	sequence number of the index entry.
+	 * @return		position of the index entry in <dictionary name>.idx file
+	 * 				or -1 if the id is beyond the end of the index.
+	 * @throws IOException	if the id is negative or there was a problem
+	 * 						reading the file.
+	 * @throws FileNotFoundException	if the index file was not found.
+	 */
+	private long readPointer(long id) throws FileNotFoundException, IOException {
+		if(id < 0) {
+			throw new IOException("Negative index entry id: " + id);
+		}
+		if(readMode != READ_MODE_FILE) {
+			loadPointers();
+			int[] table = pointers;
+			if(table != null) {
+				return (id < table.length) ? (table[(int) id] & MAX_NARROW_POINTER) : -1;
+			}
+			long[] wideTable = widePointers;
+			return (id < wideTable.length) ? wideTable[(int) id] : -1;
+		}
+		int entrySize = getPointerSize();
+		ByteBuffer buffer = ByteBuffer.allocate(entrySize);
+		if(!readFully(buffer, HEADER_SIZE + id * entrySize)) {
+			return -1;
+		}
+		if(entrySize == WIDE_INDEX_ENTRY_SIZE) {
+			return buffer.getLong();
+		}
+		return buffer.getInt() & MAX_NARROW_POINTER;
+	}
+
+	/**
+	 * Read mode getter.
+	 * 
+	 * @return {@link #READ_MODE_FILE}, {@link #READ_MODE_IN_MEMORY} or
+	 * 			{@link #READ_MODE_BOOK_INDEX}.
+	 */
+	public int getReadMode() {
+		return readMode;
 	}
 
 	public String getBookName() {
 		return starDictIndex.getBookInfo().getBookName();
 	}
+
+	/**
+	 * Consumer of the pointers found by scanning <dictionary name>.idx file.
+	 */
+	private interface PointersConsumer {
+
+		/**
+		 * Consumes a batch of pointers. The buffer is cleared afterwards.
+		 * 
+		 * @param pointersBuffer	buffer which position is the end of the
+		 * 							batch.
+		 * @throws IOException	if the pointers cannot be consumed.
+		 */
+		void consume(ByteBuffer pointersBuffer) throws IOException;
+	}
+
+	/**
+	 * Growing table of the pointers collected in memory.
+	 */
+	private static class PointersTable implements PointersConsumer {
+
+		private int entrySize;
+
+		private int[] pointers;
+
+		private long[] widePointers;
+
+		/**
+		 * Quantity of the collected pointers.
+		 */
+		private int count = 0;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param entrySize	size of a single pointer in bytes.
+		 * @param capacity	expected quantity of the pointers.
+		 */
+		public PointersTable(int entrySize, int capacity) {
+			this.entrySize = entrySize;
+			capacity = Math.max(capacity, POINTERS_BATCH_SIZE);
+			if(entrySize == WIDE_INDEX_ENTRY_SIZE) {
+				widePointers = new long[capacity];
+			} else {
+				pointers = new int[capacity];
+			}
+		}
+
+		@Override
+		public void consume(ByteBuffer pointersBuffer) throws IOException {
+			int batch = pointersBuffer.position() / entrySize;
+			pointersBuffer.flip();
+			if(entrySize == WIDE_INDEX_ENTRY_SIZE) {
+				if(count + batch > widePointers.length) {
+					widePointers = Arrays.copyOf(widePointers,
+							Math.max(count + batch, widePointers.length * 2));
+				}
+				pointersBuffer.asLongBuffer().get(widePointers, count, batch);
+			} else {
+				if(count + batch > pointers.length) {
+					pointers = Arrays.copyOf(pointers,
+							Math.max(count + batch, pointers.length * 2));
+				}
+				pointersBuffer.asIntBuffer().get(pointers, count, batch);
+			}
+			count += batch;
+		}
+	}
 }
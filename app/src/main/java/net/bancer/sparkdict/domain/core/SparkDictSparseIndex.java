@@ -0,0 +1,306 @@
+package net.bancer.sparkdict.domain.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+
+/**
+ * SparkDictSparseIndex is an abstraction of <dictionary name>.sparkdict.sidx
+ * file. It is the top level of the two-level index: it keeps in memory the
+ * lemma of every Nth index entry, so a lookup can be narrowed down to a
+ * block of N consecutive index entries without touching the disk. Only that
+ * block of <dictionary name>.idx file is read afterwards.
+ *
+ * N (the step) is chosen when the index is built so that the sampled lemmas
+ * fit into the memory budget. Every sample costs less than the average index
+ * entry of <dictionary name>.idx file, therefore the step is the size of that
+ * file divided by the budget. The step is stored in the file and the index is
+ * read with it whatever budget it was built with.
+ *
+ * The file contains a header followed by the sampled lemmas, each of them
+ * terminated by '\0'. The header is {@link #HEADER_SIZE} bytes long and
+ * contains the following numbers in network byte order: magic number
+ * (4 bytes), format version (4 bytes), size of <dictionary name>.idx file the
+ * index was built from (8 bytes), last modification time of that file
+ * (8 bytes), the step (4 bytes) and quantity of the samples (4 bytes).
+ *
+ * @author Valerij Bancer
+ *
+ */
+public class SparkDictSparseIndex {
+
+	/**
+	 * File extension of the sparse index file.
+	 */
+	public static final String 	FILE_EXTENSION 		= ".sparkdict.sidx";
+
+	/**
+	 * Memory budget of the sampled lemmas used if no other budget is provided.
+	 */
+	public static final int 	DEFAULT_MEMORY_BUDGET = 64 * 1024;
+
+	/**
+	 * The size of the header of <dictionary name>.sparkdict.sidx file.
+	 */
+	public static final int 	HEADER_SIZE 		= 32;
+
+	/**
+	 * Version of <dictionary name>.sparkdict.sidx file format.
+	 */
+	public static final int 	FORMAT_VERSION 		= 1;
+
+	/**
+	 * Magic number identifying <dictionary name>.sparkdict.sidx file ("SDSX").
+	 */
+	private static final int 	MAGIC 				= 0x53445358;
+
+	private SparkDictIndex sparkDictIndex;
+
+	private String fileName;
+
+	private String starDictIdxFileName;
+
+	private int memoryBudget;
+
+	/**
+	 * Distance between two sampled index entries.
+	 */
+	private int step = 0;
+
+	/**
+	 * Sampled lemmas, each of them terminated by '\0'. It is assigned after
+	 * {@link #step} and {@link #sampleStarts}, so the samples can be read
+	 * without locking once it is not `null`.
+	 */
+	private volatile byte[] samples = null;
+
+	/**
+	 * Start positions of the sampled lemmas in {@link #samples}.
+	 */
+	private int[] sampleStarts = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param bookInfo			BookInfo object.
+	 * @param sparkDictIndex	index which entries are sampled.
+	 * @param memoryBudget		maximum size of the sampled lemmas in bytes
+	 * 							used when the index is built.
+	 * @throws IllegalArgumentException if the memory budget is not positive.
+	 */
+	public SparkDictSparseIndex(BookInfo bookInfo,
+			SparkDictIndex sparkDictIndex, int memoryBudget) {
+		if(memoryBudget <= 0) {
+			throw new IllegalArgumentException("invalid memoryBudget argument");
+		}
+		this.sparkDictIndex = sparkDictIndex;
+		this.memoryBudget = memoryBudget;
+		this.fileName = bookInfo.getFileBaseName() + FILE_EXTENSION;
+		this.starDictIdxFileName = bookInfo.getFileBaseName() + ".idx";
+	}
+
+	/**
+	 * Calculates the distance between two sampled index entries for the
+	 * current <dictionary name>.idx file and the memory budget.
+	 *
+	 * @return	the step, at least 1.
+	 */
+	private int calculateStep() {
+		long starDictIdxSize = new File(starDictIdxFileName).length();
+		long result = (starDictIdxSize + memoryBudget - 1) / memoryBudget;
+		return (int) Math.min(Math.max(result, 1), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Samples every Nth lemma of SparkDictIndex and writes them to
+	 * <dictionary name>.sparkdict.sidx file. SparkDictIndex must be up to
+	 * date. The file is replaced only when it is completely written.
+	 *
+	 * @throws IOException	if there was a problem reading or writing the files.
+	 */
+	public void buildIndex() throws IOException {
+		File starDictIdxFile = new File(starDictIdxFileName);
+		long starDictIdxSize = starDictIdxFile.length();
+		long starDictIdxModified = starDictIdxFile.lastModified();
+		int newStep = calculateStep();
+		long size = sparkDictIndex.getSize();
+		int count = (int) ((size + newStep - 1) / newStep);
+		synchronized (SparkDictIndex.getFileLock(fileName)) {
+			File temporaryFile = SparkDictIndex.getTemporaryFile(fileName);
+			DataOutputStream sparseIdx = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+			boolean written = false;
+			try {
+				sparseIdx.writeInt(MAGIC);
+				sparseIdx.writeInt(FORMAT_VERSION);
+				sparseIdx.writeLong(starDictIdxSize);
+				sparseIdx.writeLong(starDictIdxModified);
+				sparseIdx.writeInt(newStep);
+				sparseIdx.writeInt(count);
+				for (long id = 0; id < size; id += newStep) {
+					IndexEntry entry = sparkDictIndex.getIndexEntry(id);
+					if(entry == null) {
+						throw new IOException("No index entry with id " + id);
+					}
+					sparseIdx.write(entry.getLemma().getBytes("UTF8"));
+					sparseIdx.write(StarDictIndex.SEPARATOR);
+				}
+				written = true;
+			} finally {
+				sparseIdx.close();
+				if(!written) {
+					temporaryFile.delete();
+				}
+			}
+			SparkDictIndex.replaceFile(temporaryFile, fileName);
+		}
+		sparkDictIndex.nextGeneration();
+		samples = null;
+		sampleStarts = null;
+	}
+
+	/**
+	 * Checks whether <dictionary name>.sparkdict.sidx file exists and was
+	 * built from the current version of <dictionary name>.idx file. The step
+	 * stored in the file is not compared with the memory budget, the index
+	 * built with another budget is still valid.
+	 *
+	 * @return `true` if the index can be used, `false` if it must be rebuilt.
+	 */
+	public boolean isUpToDate() {
+		File file = new File(fileName);
+		if(!file.exists()) {
+			return false;
+		}
+		File starDictIdxFile = new File(starDictIdxFileName);
+		RandomAccessFile sparseIdx = null;
+		try {
+			sparseIdx = new RandomAccessFile(file, "r");
+			if(sparseIdx.length() < HEADER_SIZE) {
+				return false;
+			}
+			int magic = sparseIdx.readInt();
+			int version = sparseIdx.readInt();
+			long starDictIdxSize = sparseIdx.readLong();
+			long starDictIdxModified = sparseIdx.readLong();
+			int fileStep = sparseIdx.readInt();
+			return magic == MAGIC
+					&& version == FORMAT_VERSION
+					&& starDictIdxSize == starDictIdxFile.length()
+					&& starDictIdxModified == starDictIdxFile.lastModified()
+					&& fileStep > 0;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if(sparseIdx != null) {
+				try {
+					sparseIdx.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads the sampled lemmas into memory on the first call.
+	 *
+	 * @throws IOException	if the file is corrupted or cannot be read.
+	 * @throws FileNotFoundException	if the file was not found.
+	 */
+	private void loadSamples() throws FileNotFoundException, IOException {
+		if(samples == null) {
+			synchronized (this) {
+				if(samples == null) {
+					readSamples();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the sampled lemmas from <dictionary name>.sparkdict.sidx file.
+	 *
+	 * @throws IOException	if the file is corrupted or cannot be read.
+	 * @throws FileNotFoundException	if the file was not found.
+	 */
+	private void readSamples() throws FileNotFoundException, IOException {
+		RandomAccessFile sparseIdx = new RandomAccessFile(fileName, "r");
+		try {
+			sparseIdx.seek(HEADER_SIZE - 8);
+			int fileStep = sparseIdx.readInt();
+			int count = sparseIdx.readInt();
+			byte[] data = new byte[(int) (sparseIdx.length() - HEADER_SIZE)];
+			sparseIdx.readFully(data);
+			int[] starts = new int[count];
+			int found = 0;
+			int start = 0;
+			for (int i = 0; i < data.length && found < count; i++) {
+				if(data[i] == StarDictIndex.SEPARATOR) {
+					starts[found++] = start;
+					start = i + 1;
+				}
+			}
+			if(fileStep <= 0 || found != count) {
+				throw new IOException("Corrupted sparse index of `"
+						+ sparkDictIndex.getBookName() + "` dictionary");
+			}
+			step = fileStep;
+			sampleStarts = starts;
+			samples = data;
+		} finally {
+			sparseIdx.close();
+		}
+	}
+
+	/**
+	 * Distance between two sampled index entries getter.
+	 *
+	 * @return	the step.
+	 * @throws IOException	if the index cannot be loaded.
+	 * @throws FileNotFoundException	if the index file was not found.
+	 */
+	public int getStep() throws FileNotFoundException, IOException {
+		loadSamples();
+		return step;
+	}
+
+	/**
+	 * Binary search in memory for the last sampled index entry which lemma is
+	 * smaller than the UTF-8 encoded string. The first index entry matching
+	 * the string cannot be located before it or further than one step after
+	 * it.
+	 *
+	 * @param str	UTF-8 encoded string.
+	 * @param mode	{@link IndexEntry#WORD_MATCH} or {@link IndexEntry#PREFIX_MATCH}.
+	 * @return		sequence number of the sampled index entry or -1 if no
+	 * 				sampled lemma is smaller than the string.
+	 * @throws IOException	if the index cannot be loaded.
+	 * @throws FileNotFoundException	if the index file was not found.
+	 */
+	public long findBlockStart(byte[] str, int mode)
+			throws FileNotFoundException, IOException {
+		loadSamples();
+		ByteBuffer buffer = ByteBuffer.wrap(samples);
+		int found = -1;
+		int min = 0;
+		int max = sampleStarts.length - 1;
+		while(min <= max) {
+			int mid = (min + max) >>> 1;
+			if(IndexEntry.compareLemmaTo(buffer, sampleStarts[mid],
+					samples.length, str, mode) < 0) {
+				found = mid;
+				min = mid + 1;
+			} else {
+				max = mid - 1;
+			}
+		}
+		return (found < 0) ? -1 : (long) found * step;
+	}
+}
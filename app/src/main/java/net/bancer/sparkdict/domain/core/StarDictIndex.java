@@ -2,8 +2,10 @@ package net.bancer.sparkdict.domain.core;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * StarDictIndex is an abstraction of <dictionary name>.idx file.
@@ -23,10 +25,26 @@ public class StarDictIndex {
 	 */
 	public static final int BITS_IN_BYTE = 8;
 	
+	/**
+	 * Read mode in which every index entry is read from the file into a 1kb
+	 * buffer by a positional read, so concurrent reads do not share state.
+	 */
+	public static final int READ_MODE_BUFFERED = 1;
+
+	/**
+	 * Read mode in which the whole index file is mapped into memory and index
+	 * entries are read straight from the mapped buffer.
+	 */
+	public static final int READ_MODE_MAPPED = 2;
+	
 	private static final int BUFFER_SIZE = 1024; // 1kb buffer
 
-	private byte[] starDictBuffer = null;
-	private RandomAccessFile starDictFile = null;
+	private volatile MappedByteBuffer starDictMappedBuffer = null;
+
+	/**
+	 * {@link #READ_MODE_BUFFERED} or {@link #READ_MODE_MAPPED}.
+	 */
+	private volatile int readMode;
 
 	
 	/**
@@ -55,8 +73,23 @@ public class StarDictIndex {
 	 * @param info BookInfo object.
 	 */
 	public StarDictIndex(BookInfo info) {
+		this(info, READ_MODE_BUFFERED);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param info		BookInfo object.
+	 * @param readMode	{@link #READ_MODE_BUFFERED} or {@link #READ_MODE_MAPPED}.
+	 * @throws IllegalArgumentException if the read mode is wrong.
+	 */
+	public StarDictIndex(BookInfo info, int readMode) {
 		this(info.getFileBaseName(), info.getIdxOffsetBits());
+		if(readMode != READ_MODE_BUFFERED && readMode != READ_MODE_MAPPED) {
+			throw new IllegalArgumentException("invalid readMode argument");
+		}
 		this.bookInfo = info;
+		this.readMode = readMode;
 	}
 
 	private StarDictIndex(String dictionaryFileBaseName, int idxOffsetBits) {
@@ -65,18 +98,36 @@ public class StarDictIndex {
 		this.fileName = dictionaryFileBaseName + ".idx";
 	}
 
-	private byte[] getStarDictBuffer() {
-		if(starDictBuffer == null) {
-			starDictBuffer = new byte[BUFFER_SIZE];
-		}
-		return starDictBuffer;
-	}
-	
-	private RandomAccessFile getStarDictFile() throws FileNotFoundException {
-		if(starDictFile == null) {
-			starDictFile = new RandomAccessFile(fileName, "r");
+	/**
+	 * Maps the whole <dictionary name>.idx file into memory. If the file is
+	 * too large to be mapped into a single buffer then the read mode falls
+	 * back to {@link #READ_MODE_BUFFERED}.
+	 * 
+	 * @return mapped buffer or `null` if the file cannot be mapped.
+	 * @throws IOException	if there was a problem mapping the file.
+	 */
+	private MappedByteBuffer getStarDictMappedBuffer() throws IOException {
+		if(starDictMappedBuffer == null && readMode == READ_MODE_MAPPED) {
+			synchronized (this) {
+				if(starDictMappedBuffer == null && readMode == READ_MODE_MAPPED) {
+					starDictMappedBuffer = FileHandlePool.getInstance().read(fileName,
+							new FileHandlePool.Reader<MappedByteBuffer>() {
+						@Override
+						public MappedByteBuffer read(FileChannel channel) throws IOException {
+							long length = channel.size();
+							if(length > Integer.MAX_VALUE) {
+								return null;
+							}
+							return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+						}
+					});
+					if(starDictMappedBuffer == null) {
+						readMode = READ_MODE_BUFFERED;
+					}
+				}
+			}
 		}
-		return starDictFile;
+		return starDictMappedBuffer;
 	}
 
 	/**
@@ -90,19 +141,22 @@ public class StarDictIndex {
 	 */
 	public IndexEntry retrieveIndexEntry(long startPosition)
 			throws IOException, FileNotFoundException {
-		//System.out.println("start position: " + startPosition);
-		int sizeRead = -1;
-		synchronized (getStarDictFile()) {
-			getStarDictFile().seek(startPosition);
-			sizeRead = getStarDictFile().read(getStarDictBuffer(), 0, BUFFER_SIZE);
+		if(readMode == READ_MODE_MAPPED) {
+			MappedByteBuffer mappedBuffer = getStarDictMappedBuffer();
+			if(mappedBuffer != null) {
+				return retrieveIndexEntry(mappedBuffer, startPosition);
+			}
 		}
+		//System.out.println("start position: " + startPosition);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int sizeRead = read(buffer, startPosition);
 		//System.out.println("size read: " + sizeRead);
 		if(sizeRead > 0) {
 			int bufferIndex = 0;
 			while(bufferIndex < sizeRead) {
-				if(getStarDictBuffer()[bufferIndex] == SEPARATOR) {
+				if(buffer[bufferIndex] == SEPARATOR) {
 					int indexEntryLength = bufferIndex + 1 + lexicalEntryOffsetFieldSizeInBytes + lexicalEntrySizeFieldInBytes;
-					return retrieveIndexEntry(getStarDictBuffer(), 0, indexEntryLength);
+					return retrieveIndexEntry(buffer, 0, indexEntryLength);
 				} else {
 					bufferIndex++;
 				}
@@ -116,6 +170,211 @@ public class StarDictIndex {
 		return null;
 	}
 
+	/**
+	 * Compares the lemma of the index entry that starts at the provided
+	 * position with the UTF-8 encoded string without constructing IndexEntry.
+	 * 
+	 * @see IndexEntry#compareTo(String, int)
+	 * 
+	 * @param startPosition	position where index entry starts.
+	 * @param str			UTF-8 encoded string to compare.
+	 * @param mode			{@link IndexEntry#WORD_MATCH} or {@link IndexEntry#PREFIX_MATCH}.
+	 * @return				0 if the match is found, else greater or smaller number.
+	 * @throws IOException	if there is no index entry at the provided position.
+	 * @throws FileNotFoundException	if the index file was not found.
+	 */
+	public int compareLemmaTo(long startPosition, byte[] str, int mode)
+			throws IOException, FileNotFoundException {
+		if(startPosition < 0) {
+			throw new IOException("Negative index entry position: " + startPosition);
+		}
+		if(readMode == READ_MODE_MAPPED) {
+			MappedByteBuffer mappedBuffer = getStarDictMappedBuffer();
+			if(mappedBuffer != null) {
+				if(startPosition >= mappedBuffer.limit()) {
+					throw new IOException("No index entry at position " + startPosition);
+				}
+				return IndexEntry.compareLemmaTo(mappedBuffer, (int) startPosition,
+						mappedBuffer.limit(), str, mode);
+			}
+		}
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int sizeRead = read(buffer, startPosition);
+		if(sizeRead <= 0) {
+			throw new IOException("No index entry at position " + startPosition);
+		}
+		return IndexEntry.compareLemmaTo(ByteBuffer.wrap(buffer), 0, sizeRead,
+				str, mode);
+	}
+
+	/**
+	 * Compares the case folded lemma of the index entry that starts at the
+	 * provided position with the case folded UTF-8 encoded string without
+	 * constructing IndexEntry.
+	 * 
+	 * @see SparkDictFoldedIndex#compareFoldedLemmaTo(ByteBuffer, int, int, ByteBuffer, int, int, int)
+	 * 
+	 * @param startPosition	position where index entry starts.
+	 * @param str			UTF-8 encoded string to compare.
+	 * @param mode			{@link IndexEntry#WORD_MATCH} or {@link IndexEntry#PREFIX_MATCH}.
+	 * @return				0 if the match is found, else greater or smaller number.
+	 * @throws IOException	if there is no index entry at the provided position.
+	 * @throws FileNotFoundException	if the index file was not found.
+	 */
+	public int compareFoldedLemmaTo(long startPosition, byte[] str, int mode)
+			throws IOException, FileNotFoundException {
+		ByteBuffer strBuffer = ByteBuffer.wrap(str);
+		if(readMode == READ_MODE_MAPPED) {
+			MappedByteBuffer mappedBuffer = getStarDictMappedBuffer();
+			if(mappedBuffer != null) {
+				checkPosition(startPosition, mappedBuffer.limit());
+				return SparkDictFoldedIndex.compareFoldedLemmaTo(mappedBuffer,
+						(int) startPosition, mappedBuffer.limit(),
+						strBuffer, 0, str.length, mode);
+			}
+		}
+		byte[] buffer = readLemma(startPosition);
+		return SparkDictFoldedIndex.compareFoldedLemmaTo(ByteBuffer.wrap(buffer),
+				0, buffer.length, strBuffer, 0, str.length, mode);
+	}
+
+	/**
+	 * Compares the case folded lemmas of the index entries that start at the
+	 * provided positions without constructing IndexEntry.
+	 * 
+	 * @see SparkDictFoldedIndex#compareFoldedLemmaTo(ByteBuffer, int, int, ByteBuffer, int, int, int)
+	 * 
+	 * @param startPosition1	position where the first index entry starts.
+	 * @param startPosition2	position where the second index entry starts.
+	 * @return				0 if the lemmas are equal, else greater or smaller
+	 * 						number.
+	 * @throws IOException	if there is no index entry at one of the positions.
+	 * @throws FileNotFoundException	if the index file was not found.
+	 */
+	public int compareFoldedLemmas(long startPosition1, long startPosition2)
+			throws IOException, FileNotFoundException {
+		if(readMode == READ_MODE_MAPPED) {
+			MappedByteBuffer mappedBuffer = getStarDictMappedBuffer();
+			if(mappedBuffer != null) {
+				int limit = mappedBuffer.limit();
+				checkPosition(startPosition1, limit);
+				checkPosition(startPosition2, limit);
+				return SparkDictFoldedIndex.compareFoldedLemmaTo(mappedBuffer,
+						(int) startPosition1, limit, mappedBuffer,
+						(int) startPosition2, limit, IndexEntry.WORD_MATCH);
+			}
+		}
+		byte[] buffer1 = readLemma(startPosition1);
+		byte[] buffer2 = readLemma(startPosition2);
+		return SparkDictFoldedIndex.compareFoldedLemmaTo(ByteBuffer.wrap(buffer1),
+				0, buffer1.length, ByteBuffer.wrap(buffer2), 0, buffer2.length,
+				IndexEntry.WORD_MATCH);
+	}
+
+	/**
+	 * Checks that an index entry can start at the position of the mapped
+	 * <dictionary name>.idx file.
+	 * 
+	 * @param startPosition	position where index entry starts.
+	 * @param limit			size of the mapped file.
+	 * @throws IOException	if the position is outside of the file.
+	 */
+	private static void checkPosition(long startPosition, int limit) throws IOException {
+		if(startPosition < 0 || startPosition >= limit) {
+			throw new IOException("No index entry at position " + startPosition);
+		}
+	}
+
+	/**
+	 * Reads the beginning of the index entry that starts at the provided
+	 * position.
+	 * 
+	 * @param startPosition	position where index entry starts.
+	 * @return				the buffer, the lemma is terminated by '\0' unless
+	 * 						it is longer than the buffer.
+	 * @throws IOException	if there is no index entry at the provided position.
+	 */
+	private byte[] readLemma(long startPosition) throws IOException {
+		if(startPosition < 0) {
+			throw new IOException("Negative index entry position: " + startPosition);
+		}
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int sizeRead = read(buffer, startPosition);
+		if(sizeRead <= 0) {
+			throw new IOException("No index entry at position " + startPosition);
+		}
+		// the rest of the buffer is filled with zeros, so the lemma is terminated
+		return buffer;
+	}
+
+	/**
+	 * Reads <dictionary name>.idx file from the provided position without
+	 * moving the shared file pointer. The file is taken from
+	 * {@link FileHandlePool} for the time of the read.
+	 * 
+	 * @param buffer		buffer to be filled.
+	 * @param position		position in the file where to start reading.
+	 * @return				number of bytes read or -1 at the end of the file.
+	 * @throws IOException	if there was a problem reading the file.
+	 */
+	private int read(final byte[] buffer, final long position) throws IOException {
+		return FileHandlePool.getInstance().read(fileName, new FileHandlePool.Reader<Integer>() {
+			@Override
+			public Integer read(FileChannel channel) throws IOException {
+				return channel.read(ByteBuffer.wrap(buffer), position);
+			}
+		});
+	}
+
+	/**
+	 * Retrieves index entry that starts at the provided position in the
+	 * mapped <dictionary name>.idx file. Only absolute reads are used, so the
+	 * mapped buffer can be shared between threads.
+	 * 
+	 * @param buffer		mapped index file.
+	 * @param startPosition	position where index entry starts.
+	 * @return				IndexEntry object or `null` if there is no index
+	 * 						entry at the provided position.
+	 * @throws IOException	if the position is negative.
+	 */
+	private IndexEntry retrieveIndexEntry(MappedByteBuffer buffer,
+			long startPosition) throws IOException {
+		if(startPosition < 0) {
+			throw new IOException("Negative index entry position: " + startPosition);
+		}
+		int limit = buffer.limit();
+		if(startPosition >= limit) {
+			return null;
+		}
+		int start = (int) startPosition;
+		int separatorPosition = start;
+		while(separatorPosition < limit && buffer.get(separatorPosition) != SEPARATOR) {
+			separatorPosition++;
+		}
+		int indexEntryLength = separatorPosition - start + 1 
+				+ lexicalEntryOffsetFieldSizeInBytes + lexicalEntrySizeFieldInBytes;
+		if(separatorPosition >= limit || start + indexEntryLength > limit) {
+			return null;
+		}
+		int wordLength = separatorPosition - start;
+		byte[] wordBytes = new byte[wordLength];
+		// a duplicate has its own position, the shared buffer is not moved
+		ByteBuffer lemmaBuffer = buffer.duplicate();
+		lemmaBuffer.position(start);
+		lemmaBuffer.get(wordBytes);
+		String word = "";
+		try {
+			word = new String(wordBytes, "UTF8");
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		int dataOffsetStart = separatorPosition + 1;
+		long dataOffset = bytesToLong(buffer, dataOffsetStart, lexicalEntryOffsetFieldSizeInBytes);
+		int dataSizeStart = dataOffsetStart + lexicalEntryOffsetFieldSizeInBytes;
+		int dataSize = (int) bytesToLong(buffer, dataSizeStart, lexicalEntrySizeFieldInBytes);
+		return new IndexEntry(word, dataOffset, dataSize, indexEntryLength);
+	}
+
 	private IndexEntry retrieveIndexEntry(byte[] buffer, int start,
 			int length) {
 		int wordLength = length - 1 - lexicalEntryOffsetFieldSizeInBytes - lexicalEntrySizeFieldInBytes;
@@ -128,7 +387,7 @@ public class StarDictIndex {
 		}
 				
 		int dataOffsetStart = start + wordLength + 1;
-		int dataOffset = bytesToInt(buffer, dataOffsetStart, lexicalEntryOffsetFieldSizeInBytes);
+		long dataOffset = bytesToLong(buffer, dataOffsetStart, lexicalEntryOffsetFieldSizeInBytes);
 				
 		int dataSizeStart = dataOffsetStart + lexicalEntryOffsetFieldSizeInBytes;
 		int dataSize = bytesToInt(buffer, dataSizeStart, lexicalEntrySizeFieldInBytes);
@@ -161,6 +420,23 @@ public class StarDictIndex {
 		return result;
 	}
 
+	/**
+	 * Reads unsigned number in network byte order from the mapped buffer.
+	 * 
+	 * @param buffer	mapped index file.
+	 * @param start		absolute position of the first byte of the number.
+	 * @param length	size of the number in bytes.
+	 * @return			the number.
+	 */
+	private long bytesToLong(MappedByteBuffer buffer, int start, int length) {
+		long result = 0;
+		for (int j = start; j < start + length; j++) {
+			result <<= 8;
+			result |= buffer.get(j) & 0xff;
+		}
+		return result;
+	}
+
 	/**
 	 * Index file name getter.
 	 * 
@@ -170,6 +446,15 @@ public class StarDictIndex {
 		return fileName;
 	}
 
+	/**
+	 * Read mode getter.
+	 * 
+	 * @return {@link #READ_MODE_BUFFERED} or {@link #READ_MODE_MAPPED}.
+	 */
+	public int getReadMode() {
+		return readMode;
+	}
+
 	/**
 	 * Lexical entry offset field size in bytes getter.
 	 * 
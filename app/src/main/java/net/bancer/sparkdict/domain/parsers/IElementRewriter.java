@@ -0,0 +1,20 @@
+package net.bancer.sparkdict.domain.parsers;
+
+/**
+ * Builds the replacement of a whole element for {@link TagRule#element}
+ * rules, e.g. turns the name of a resource into HTML `img` tag.
+ *
+ * @author Valerij Bancer
+ *
+ */
+public interface IElementRewriter {
+
+	/**
+	 * Builds the replacement of the element.
+	 *
+	 * @param content	already rewritten contents of the element.
+	 * @return			HTML replacing the element together with its tags.
+	 */
+	public String rewrite(String content);
+
+}
@@ -17,4 +17,14 @@ public interface IParser {
 	 */
 	public String parse(byte[] data);
 
+	/**
+	 * Converts byte array of StarDict data block into HTML and/or spanned
+	 * text in one pass.
+	 * 
+	 * @param data	byte array of data to be converted.
+	 * @param html	builder the HTML is appended to or `null`.
+	 * @param spans	builder of the spanned text or `null`.
+	 */
+	public void parse(byte[] data, StringBuilder html, SpanBuilder spans);
+
 }
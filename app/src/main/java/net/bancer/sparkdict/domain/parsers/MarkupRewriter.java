@@ -0,0 +1,464 @@
+package net.bancer.sparkdict.domain.parsers;
+
+/**
+ * MarkupRewriter converts dictionary markup into HTML according to a table
+ * of {@link TagRule} objects. Besides the tags it converts line breaks into
+ * HTML `br` tags and runs of spaces into HTML entities.
+ *
+ * The tags of all rules are compiled into a trie once, so the text is
+ * rewritten in a single left-to-right pass whatever the quantity of rules
+ * is: at every character which starts a tag the trie is walked to find the
+ * tags starting there, the text between the tags is copied in bulk. The
+ * only other pass over the text counts the pairs of tags which are
+ * replaced. The contents of link and element rules are rewritten
+ * recursively.
+ *
+ * A rewriter does not change after construction, so it can be shared by
+ * many threads.
+ *
+ * @author Valerij Bancer
+ *
+ */
+public class MarkupRewriter {
+
+	private static final String BR_TAG = "<br>";
+
+	private static final String NBSP = "&nbsp;";
+
+	private TagRule[] rules;
+
+	/**
+	 * Root of the trie of the tags.
+	 */
+	private Node root = new Node(0);
+
+	/**
+	 * Length of the longest tag.
+	 */
+	private int maxTagLength = 0;
+
+	/**
+	 * Constructor. Compiles the tags of the rules.
+	 *
+	 * @param rules	rules applied by the rewriter.
+	 * @throws IllegalArgumentException if two rules have the same tag.
+	 */
+	public MarkupRewriter(TagRule[] rules) {
+		if(rules == null) {
+			throw new IllegalArgumentException("invalid rules argument");
+		}
+		this.rules = rules.clone();
+		for (int i = 0; i < rules.length; i++) {
+			addTag(rules[i].getOpenTag(), i, false);
+			int type = rules[i].getType();
+			if(type == TagRule.TYPE_PAIR || type == TagRule.TYPE_LINK) {
+				addTag(rules[i].getCloseTag(), i, true);
+			}
+		}
+	}
+
+	/**
+	 * Adds the tag to the trie.
+	 *
+	 * @param tag		tag.
+	 * @param rule		index of the rule of the tag.
+	 * @param closing	`true` if it is a closing tag.
+	 */
+	private void addTag(String tag, int rule, boolean closing) {
+		Node node = root;
+		for (int i = 0; i < tag.length(); i++) {
+			node = node.addChild(tag.charAt(i));
+		}
+		if(node.rule >= 0) {
+			throw new IllegalArgumentException("invalid rules argument");
+		}
+		node.rule = rule;
+		node.closing = closing;
+		maxTagLength = Math.max(maxTagLength, tag.length());
+	}
+
+	/**
+	 * Rewrites the markup into HTML.
+	 *
+	 * @param text	markup.
+	 * @return		HTML.
+	 */
+	public String rewrite(String text) {
+		StringBuilder result = new StringBuilder(text.length() + text.length() / 2);
+		new Rewriting(text, result, null).run();
+		return result.toString();
+	}
+
+	/**
+	 * Rewrites the markup into HTML and passes the HTML to the span builder
+	 * in the same pass.
+	 *
+	 * @param text	markup.
+	 * @param html	builder the HTML is appended to or `null`.
+	 * @param spans	builder of the spanned text or `null`.
+	 */
+	public void rewrite(String text, StringBuilder html, SpanBuilder spans) {
+		new Rewriting(text, html, spans).run();
+	}
+
+	/**
+	 * Node of the trie of the tags.
+	 */
+	private static class Node {
+
+		private char[] keys = new char[0];
+
+		private Node[] children = new Node[0];
+
+		/**
+		 * Length of the tag ending at this node.
+		 */
+		private int depth;
+
+		/**
+		 * Index of the rule of the tag ending at this node or -1 if no tag
+		 * ends here.
+		 */
+		private int rule = -1;
+
+		private boolean closing = false;
+
+		public Node(int depth) {
+			this.depth = depth;
+		}
+
+		public Node getChild(char key) {
+			for (int i = 0; i < keys.length; i++) {
+				if(keys[i] == key) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		public Node addChild(char key) {
+			Node child = getChild(key);
+			if(child == null) {
+				child = new Node(depth + 1);
+				int length = keys.length;
+				char[] newKeys = new char[length + 1];
+				Node[] newChildren = new Node[length + 1];
+				System.arraycopy(keys, 0, newKeys, 0, length);
+				System.arraycopy(children, 0, newChildren, 0, length);
+				newKeys[length] = key;
+				newChildren[length] = child;
+				keys = newKeys;
+				children = newChildren;
+			}
+			return child;
+		}
+	}
+
+	/**
+	 * State of rewriting of one text.
+	 */
+	private class Rewriting {
+
+		private String text;
+
+		private StringBuilder html;
+
+		private SpanBuilder spans;
+
+		/**
+		 * Quantities of the pairs of tags which are replaced, by rule.
+		 */
+		private int[] limits;
+
+		private int[] opened;
+
+		private int[] closed;
+
+		/**
+		 * Flags of element rules which are not applied anymore.
+		 */
+		private boolean[] disabled;
+
+		/**
+		 * Length of the run of spaces which is not appended yet. Spaces are
+		 * appended when anything else is, so that runs interrupted by removed
+		 * tags are joined.
+		 */
+		private int spaces = 0;
+
+		/**
+		 * Trie nodes of the tags found at the current position.
+		 */
+		private Node[] found;
+
+		public Rewriting(String text, StringBuilder html, SpanBuilder spans) {
+			this.text = text;
+			this.html = html;
+			this.spans = spans;
+			limits = new int[rules.length];
+			opened = new int[rules.length];
+			closed = new int[rules.length];
+			disabled = new boolean[rules.length];
+			found = new Node[maxTagLength];
+			countPairs();
+		}
+
+		/**
+		 * Counts the pairs of tags which are replaced: the n-th opening tag is
+		 * paired with the n-th closing tag as long as the opening tag comes
+		 * first.
+		 */
+		private void countPairs() {
+			int[] opens = new int[rules.length];
+			boolean[] broken = new boolean[rules.length];
+			int length = text.length();
+			for (int position = 0; position < length; position++) {
+				Node node = root.getChild(text.charAt(position));
+				int next = position + 1;
+				while(node != null) {
+					int rule = node.rule;
+					if(rule >= 0 && !broken[rule]) {
+						if(!node.closing) {
+							opens[rule]++;
+						} else if(opens[rule] > limits[rule]) {
+							limits[rule]++;
+						} else {
+							broken[rule] = true;
+						}
+					}
+					node = next < length ? node.getChild(text.charAt(next++)) : null;
+				}
+			}
+		}
+
+		/**
+		 * Rewrites the text.
+		 */
+		public void run() {
+			int length = text.length();
+			int copied = 0;
+			int position = 0;
+			while(position < length) {
+				char ch = text.charAt(position);
+				if(ch != '\n' && ch != ' ' && root.getChild(ch) == null) {
+					position++;
+					continue;
+				}
+				int next = position + 1;
+				if(ch == '\n') {
+					copy(copied, position);
+					append(BR_TAG);
+				} else if(ch == ' ') {
+					copy(copied, position);
+					while(next < length && text.charAt(next) == ' ') {
+						next++;
+					}
+					spaces += next - position;
+				} else {
+					int end = rewriteTag(position, copied);
+					if(end == position) {
+						position++;
+						continue;
+					}
+					next = end;
+				}
+				position = next;
+				copied = next;
+			}
+			copy(copied, length);
+			flushSpaces();
+		}
+
+		/**
+		 * Replaces the longest applicable tag starting at the position.
+		 *
+		 * @param position	position of the tag.
+		 * @param copied	end of the text copied so far.
+		 * @return			position after the replaced text or the same
+		 * 					position if there is nothing to replace.
+		 */
+		private int rewriteTag(int position, int copied) {
+			int length = text.length();
+			int quantity = 0;
+			Node node = root;
+			for (int i = position; i < length; i++) {
+				node = node.getChild(text.charAt(i));
+				if(node == null) {
+					break;
+				}
+				if(node.rule >= 0) {
+					found[quantity++] = node;
+				}
+			}
+			for (int i = quantity - 1; i >= 0; i--) {
+				int end = applyRule(found[i], position, copied);
+				if(end != position) {
+					return end;
+				}
+			}
+			return position;
+		}
+
+		/**
+		 * Applies the rule of the tag found at the position.
+		 *
+		 * @param node		trie node of the tag.
+		 * @param position	position of the tag.
+		 * @param copied	end of the text copied so far.
+		 * @return			position after the replaced text or the same
+		 * 					position if the rule is not applicable.
+		 */
+		private int applyRule(Node node, int position, int copied) {
+			int index = node.rule;
+			TagRule rule = rules[index];
+			int end = position + node.depth;
+			switch(rule.getType()) {
+			case TagRule.TYPE_PAIR:
+			case TagRule.TYPE_LINK:
+				if(node.closing) {
+					if(closed[index] >= limits[index]) {
+						return position;
+					}
+					copy(copied, position);
+					closed[index]++;
+					append(rule.getCloseReplacement());
+					return end;
+				}
+				if(opened[index] >= limits[index]) {
+					return position;
+				}
+				String replacement = rule.getOpenReplacement();
+				if(rule.getType() == TagRule.TYPE_LINK) {
+					int contentEnd = text.indexOf(rule.getCloseTag(), end);
+					if(contentEnd < 0) {
+						return position;
+					}
+					replacement = String.format(replacement, rewriteContent(end, contentEnd));
+				}
+				copy(copied, position);
+				opened[index]++;
+				append(replacement);
+				return end;
+			case TagRule.TYPE_TAG:
+				copy(copied, position);
+				append(rule.getOpenReplacement());
+				return end;
+			case TagRule.TYPE_ATTRIBUTE:
+				copy(copied, position);
+				append(rule.getOpenReplacement());
+				// double quotes enclose the attribute value
+				int valueEnd = text.indexOf('"', end + 2);
+				if(end < text.length() && text.charAt(end) == '"' && valueEnd > -1) {
+					String value = rule.getValues().get(text.substring(end + 1, valueEnd));
+					if(value != null) {
+						append("\"" + value);
+						return valueEnd;
+					}
+				}
+				return end;
+			case TagRule.TYPE_ELEMENT:
+				if(disabled[index]) {
+					return position;
+				}
+				int contentEnd = text.indexOf(rule.getCloseTag(), end);
+				if(contentEnd < 0) {
+					// the rest of the elements has no closing tags
+					disabled[index] = true;
+					return position;
+				}
+				String content = rewriteContent(end, contentEnd);
+				copy(copied, position);
+				append(rule.getElementRewriter().rewrite(content));
+				return contentEnd + rule.getCloseTag().length();
+			default:
+				return position;
+			}
+		}
+
+		/**
+		 * Rewrites the contents of a link or an element separately from the
+		 * rest of the text.
+		 *
+		 * @param start	start of the contents.
+		 * @param end	end of the contents.
+		 * @return		rewritten contents.
+		 */
+		private String rewriteContent(int start, int end) {
+			StringBuilder content = new StringBuilder();
+			new Rewriting(text.substring(start, end), content, null).run();
+			return content.toString();
+		}
+
+		/**
+		 * Copies the text as is.
+		 *
+		 * @param start	start of the text.
+		 * @param end	end of the text.
+		 */
+		private void copy(int start, int end) {
+			if(start < end) {
+				flushSpaces();
+				write(text, start, end);
+			}
+		}
+
+		/**
+		 * Appends the replacement, its spaces are joined with the adjacent
+		 * runs of spaces.
+		 *
+		 * @param replacement	replacement.
+		 */
+		private void append(String replacement) {
+			if(replacement.indexOf(' ') < 0) {
+				if(replacement.length() > 0) {
+					flushSpaces();
+					write(replacement, 0, replacement.length());
+				}
+				return;
+			}
+			for (int i = 0; i < replacement.length(); i++) {
+				if(replacement.charAt(i) == ' ') {
+					spaces++;
+				} else {
+					flushSpaces();
+					write(replacement, i, i + 1);
+				}
+			}
+		}
+
+		/**
+		 * Appends the run of spaces converting each group of two, three or
+		 * four spaces into HTML entities. A single space left at the end of
+		 * the run is kept as is.
+		 */
+		private void flushSpaces() {
+			if(spaces > 0) {
+				boolean single = spaces % 4 == 1;
+				int entities = single ? spaces - 1 : spaces;
+				for (int i = 0; i < entities; i++) {
+					write(NBSP, 0, NBSP.length());
+				}
+				if(single) {
+					write(" ", 0, 1);
+				}
+				spaces = 0;
+			}
+		}
+
+		/**
+		 * Writes the HTML to the builders.
+		 *
+		 * @param s		HTML.
+		 * @param start	start of the HTML in the string.
+		 * @param end	end of the HTML in the string.
+		 */
+		private void write(CharSequence s, int start, int end) {
+			if(html != null) {
+				html.append(s, start, end);
+			}
+			if(spans != null) {
+				spans.append(s, start, end);
+			}
+		}
+	}
+}
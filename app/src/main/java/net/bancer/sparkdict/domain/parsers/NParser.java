@@ -1,9 +1,5 @@
 package net.bancer.sparkdict.domain.parsers;
 
-import java.io.UnsupportedEncodingException;
-
-import android.util.Log;
-
 /**
  * Parser for 'n' data type.
  * 
@@ -37,61 +33,24 @@ public class NParser extends MParser {
 	 */
 	private static final String BULLET = "&#8226; ";
 
-	@Override
-	public String parse(byte[] data) {
-		try {
-			StringBuffer strBuffer = new StringBuffer(new String(data, "UTF8"));
-			parseTypeTags(strBuffer);
-			parseWordgroupTags(strBuffer);
-			parseWordTags(strBuffer);
-			
-			parseLineBreaks(strBuffer);
-			parseQuadrupleSpaces(strBuffer);
-			parseTripleSpaces(strBuffer);
-			parseDoubleSpaces(strBuffer);
-			return strBuffer.toString();
-		} catch (UnsupportedEncodingException e) {
-			Log.e(this.getClass().getName(), e.getMessage());
-		}
-		return null;
-	}
-
 	/**
-	 * Parses the string buffer and replaces all occurrences of `type` tag with
-	 * coloured italics tags.
-	 * 
-	 * @param buffer
-	 *            buffer with article's text.
+	 * Rules replacing the tags of the article: `type` tag with coloured
+	 * italics tags, `wordgroup` tag is removed, each pair of `word` tag with
+	 * a pair of `b` tags and a line break tag.
 	 */
-	private void parseTypeTags(StringBuffer buffer) {
-		String openTagReplacement = I_OPEN_TAG
-				+ String.format(FONT_TAG_OPEN, ABBREVIATION_COLOR);
-		String closeTagReplacement = FONT_TAG_CLOSE + I_CLOSE_TAG + BR_TAG;
-		parseHTMLTagPair(buffer, TYPE_OPEN_TAG, TYPE_CLOSE_TAG,
-				openTagReplacement, closeTagReplacement);
-	}
+	private static final TagRule[] RULES = {
+		TagRule.pair(TYPE_OPEN_TAG, TYPE_CLOSE_TAG,
+				I_OPEN_TAG + String.format(FONT_TAG_OPEN, ABBREVIATION_COLOR),
+				FONT_TAG_CLOSE + I_CLOSE_TAG + BR_TAG),
+		TagRule.pair(WORDGROUP_OPEN_TAG, WORDGROUP_CLOSE_TAG, "", ""),
+		TagRule.pair(WORD_OPEN_TAG, WORD_CLOSE_TAG,
+				B_OPEN_TAG + BULLET, B_CLOSE_TAG + BR_TAG)
+	};
 
-	/**
-	 * Parses the string buffer and removes all occurrences of `wordgroup` tag.
-	 * 
-	 * @param buffer
-	 *            buffer with article's text.
-	 */
-	private void parseWordgroupTags(StringBuffer buffer) {
-		parseHTMLTagPair(buffer, WORDGROUP_OPEN_TAG, WORDGROUP_CLOSE_TAG, "", "");
-	}
+	private static final MarkupRewriter REWRITER = new MarkupRewriter(RULES);
 
-	/**
-	 * Parses the string buffer and replaces each pair of `word` tag with a pair
-	 * of `b` tags and a line break tag.
-	 * 
-	 * @param strBuffer
-	 *            buffer with article's text.
-	 */
-	private void parseWordTags(StringBuffer strBuffer) {
-		String openTagReplacement = B_OPEN_TAG + BULLET;
-		String closeTagReplacement = B_CLOSE_TAG + BR_TAG;
-		parseHTMLTagPair(strBuffer, WORD_OPEN_TAG, WORD_CLOSE_TAG,
-				openTagReplacement, closeTagReplacement);
+	@Override
+	protected MarkupRewriter getRewriter() {
+		return REWRITER;
 	}
 }
@@ -0,0 +1,700 @@
+package net.bancer.sparkdict.domain.parsers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SpanBuilder builds {@link SpannedText} from the HTML produced by the
+ * parsers. The HTML is consumed as a stream: {@link MarkupRewriter} appends
+ * to the builder piece by piece while it rewrites the markup, so the
+ * definitions are turned into spans in the same pass and no HTML string is
+ * parsed again.
+ *
+ * Only the subset of HTML the parsers and the dictionaries use is
+ * recognised: text style tags, `font` with colour, size and face, `span`
+ * with colour style, `a`, `img`, `object`, `br`, lists, block tags and
+ * character entities. Other tags are dropped, runs of white space are
+ * collapsed as in HTML, block tags are separated from the surrounding text
+ * by an empty line, `blockquote` and lists are indented, list items start
+ * on a new line with a bullet or a number and headings are bigger than the
+ * text, as {@link android.text.Html#fromHtml(String)} renders them.
+ *
+ * @author Valerij Bancer
+ *
+ */
+public class SpanBuilder {
+
+	/**
+	 * Quantity of line breaks separating a block from the surrounding text.
+	 */
+	private static final int BLOCK_MARGIN = 2;
+
+	/**
+	 * Longest character entity name which is recognised.
+	 */
+	private static final int MAX_ENTITY_LENGTH = 10;
+
+	private static final int STATE_TEXT = 0;
+
+	private static final int STATE_TAG = 1;
+
+	private static final int STATE_ENTITY = 2;
+
+	private static final String OBJECT_TAG = "object";
+
+	private static final String ORDERED_LIST_TAG = "ol";
+
+	private static final String UNORDERED_LIST_TAG = "ul";
+
+	private static final String LIST_ITEM_TAG = "li";
+
+	private static final String BULLET = "\u2022 ";
+
+	/**
+	 * Size of the text of `font` tag without size attribute.
+	 */
+	private static final int DEFAULT_FONT_SIZE = 3;
+
+	/**
+	 * Relative sizes of the text of `font` tag by its size attribute from 1
+	 * to 7.
+	 */
+	private static final String[] FONT_SIZES = {"0.6", "0.8", "1.0", "1.2", "1.5", "2.0", "3.0"};
+
+	/**
+	 * Relative sizes of the text of the headings from `h1` to `h6`.
+	 */
+	private static final String[] HEADING_SIZES = {"1.5", "1.4", "1.3", "1.2", "1.1", "1.0"};
+
+	private static final Map<String, Integer> STYLE_TAGS = new HashMap<String, Integer>();
+	static {
+		STYLE_TAGS.put("b", 		SpannedText.SPAN_BOLD);
+		STYLE_TAGS.put("strong", 	SpannedText.SPAN_BOLD);
+		STYLE_TAGS.put("i", 		SpannedText.SPAN_ITALIC);
+		STYLE_TAGS.put("em", 		SpannedText.SPAN_ITALIC);
+		STYLE_TAGS.put("cite", 		SpannedText.SPAN_ITALIC);
+		STYLE_TAGS.put("dfn", 		SpannedText.SPAN_ITALIC);
+		STYLE_TAGS.put("u", 		SpannedText.SPAN_UNDERLINE);
+		STYLE_TAGS.put("big", 		SpannedText.SPAN_BIG);
+		STYLE_TAGS.put("small", 	SpannedText.SPAN_SMALL);
+		STYLE_TAGS.put("sup", 		SpannedText.SPAN_SUPERSCRIPT);
+		STYLE_TAGS.put("sub", 		SpannedText.SPAN_SUBSCRIPT);
+		STYLE_TAGS.put("tt", 		SpannedText.SPAN_MONOSPACE);
+		STYLE_TAGS.put("code", 		SpannedText.SPAN_MONOSPACE);
+		STYLE_TAGS.put("s", 		SpannedText.SPAN_STRIKETHROUGH);
+		STYLE_TAGS.put("strike", 	SpannedText.SPAN_STRIKETHROUGH);
+		STYLE_TAGS.put("del", 		SpannedText.SPAN_STRIKETHROUGH);
+	}
+
+	/**
+	 * Block tags and the spans of their contents, 0 if there is none.
+	 */
+	private static final Map<String, Integer> BLOCK_TAGS = new HashMap<String, Integer>();
+	static {
+		BLOCK_TAGS.put("p", 			0);
+		BLOCK_TAGS.put("div", 			0);
+		BLOCK_TAGS.put("blockquote", 	SpannedText.SPAN_INDENT);
+		for (int level = 1; level <= 6; level++) {
+			BLOCK_TAGS.put("h" + level, SpannedText.SPAN_BOLD);
+		}
+	}
+
+	private static final Map<String, Character> ENTITIES = new HashMap<String, Character>();
+	static {
+		ENTITIES.put("nbsp", 	'\u00A0');
+		ENTITIES.put("amp", 	'&');
+		ENTITIES.put("lt", 		'<');
+		ENTITIES.put("gt", 		'>');
+		ENTITIES.put("quot", 	'"');
+		ENTITIES.put("apos", 	'\'');
+		ENTITIES.put("copy", 	'\u00A9');
+		ENTITIES.put("reg", 	'\u00AE');
+		ENTITIES.put("deg", 	'\u00B0');
+		ENTITIES.put("middot", 	'\u00B7');
+		ENTITIES.put("laquo", 	'\u00AB');
+		ENTITIES.put("raquo", 	'\u00BB');
+		ENTITIES.put("ndash", 	'\u2013');
+		ENTITIES.put("mdash", 	'\u2014');
+		ENTITIES.put("hellip", 	'\u2026');
+		ENTITIES.put("bull", 	'\u2022');
+	}
+
+	private StringBuilder text = new StringBuilder();
+
+	private int[] types = new int[16];
+
+	private int[] starts = new int[16];
+
+	private int[] ends = new int[16];
+
+	private String[] values = new String[16];
+
+	private int spans = 0;
+
+	/**
+	 * Elements which are open at the moment, the innermost is the last one.
+	 */
+	private List<Element> openElements = new ArrayList<Element>();
+
+	private int state = STATE_TEXT;
+
+	/**
+	 * Characters of the tag or the entity which is being read.
+	 */
+	private StringBuilder pending = new StringBuilder();
+
+	/**
+	 * Appends a piece of HTML. A tag or an entity may be split between the
+	 * pieces.
+	 *
+	 * @param html	HTML.
+	 * @return		this builder.
+	 */
+	public SpanBuilder append(CharSequence html) {
+		return append(html, 0, html.length());
+	}
+
+	/**
+	 * Appends a piece of HTML. A tag or an entity may be split between the
+	 * pieces.
+	 *
+	 * @param html	HTML.
+	 * @param start	start of the piece.
+	 * @param end	end of the piece.
+	 * @return		this builder.
+	 */
+	public SpanBuilder append(CharSequence html, int start, int end) {
+		int i = start;
+		while(i < end) {
+			char ch = html.charAt(i);
+			switch(state) {
+			case STATE_TEXT:
+				if(ch == '<') {
+					state = STATE_TAG;
+					pending.setLength(0);
+				} else if(ch == '&') {
+					state = STATE_ENTITY;
+					pending.setLength(0);
+				} else {
+					appendCharacter(ch);
+				}
+				i++;
+				break;
+			case STATE_TAG:
+				if(pending.length() == 0 && !isTagStart(ch)) {
+					// not a tag, e.g. "a < b"
+					state = STATE_TEXT;
+					appendCharacter('<');
+				} else if(ch == '>') {
+					state = STATE_TEXT;
+					handleTag(pending.toString());
+					i++;
+				} else {
+					pending.append(ch);
+					i++;
+				}
+				break;
+			default:
+				if(ch == ';') {
+					state = STATE_TEXT;
+					appendEntity(pending.toString());
+					i++;
+				} else if((Character.isLetterOrDigit(ch) || ch == '#')
+						&& pending.length() < MAX_ENTITY_LENGTH) {
+					pending.append(ch);
+					i++;
+				} else {
+					// not an entity, the character is read again as text
+					state = STATE_TEXT;
+					appendLiteral('&' + pending.toString());
+				}
+				break;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Appends the text which was already spanned, e.g. a cached article. Its
+	 * spans are moved to the end of the text built so far, the text is not
+	 * parsed again.
+	 *
+	 * @param spannedText	spanned text.
+	 * @return				this builder.
+	 */
+	public SpanBuilder append(SpannedText spannedText) {
+		int offset = text.length();
+		text.append(spannedText.getText());
+		for (int i = 0; i < spannedText.getSpansQuantity(); i++) {
+			addSpan(spannedText.getSpanType(i), offset + spannedText.getSpanStart(i),
+					offset + spannedText.getSpanEnd(i), spannedText.getSpanValue(i));
+		}
+		return this;
+	}
+
+	/**
+	 * Builds the spanned text. Elements which are still open are closed at
+	 * the end of the text.
+	 *
+	 * @return	the spanned text.
+	 */
+	public SpannedText build() {
+		if(state == STATE_ENTITY) {
+			appendLiteral('&' + pending.toString());
+		} else if(state == STATE_TAG && pending.length() == 0) {
+			appendCharacter('<');
+		}
+		state = STATE_TEXT;
+		while(!openElements.isEmpty()) {
+			closeElement(openElements.size() - 1);
+		}
+		int[] spanTypes = new int[spans];
+		int[] spanStarts = new int[spans];
+		int[] spanEnds = new int[spans];
+		String[] spanValues = new String[spans];
+		System.arraycopy(types, 0, spanTypes, 0, spans);
+		System.arraycopy(starts, 0, spanStarts, 0, spans);
+		System.arraycopy(ends, 0, spanEnds, 0, spans);
+		System.arraycopy(values, 0, spanValues, 0, spans);
+		return new SpannedText(text.toString(), spanTypes, spanStarts,
+				spanEnds, spanValues);
+	}
+
+	private static boolean isTagStart(char ch) {
+		return Character.isLetter(ch) || ch == '/' || ch == '!' || ch == '?';
+	}
+
+	/**
+	 * Appends a character of the text collapsing runs of white space into
+	 * one space. White space at the start of a line is dropped.
+	 *
+	 * @param ch	character.
+	 */
+	private void appendCharacter(char ch) {
+		if(ch == ' ' || ch == '\n' || ch == '\r' || ch == '\t') {
+			int length = text.length();
+			if(length == 0) {
+				return;
+			}
+			char last = text.charAt(length - 1);
+			if(last == ' ' || last == '\n') {
+				return;
+			}
+			ch = ' ';
+		}
+		text.append(ch);
+	}
+
+	private void appendLiteral(String literal) {
+		for (int i = 0; i < literal.length(); i++) {
+			appendCharacter(literal.charAt(i));
+		}
+	}
+
+	/**
+	 * Appends the character of the entity.
+	 *
+	 * @param name	entity name without '&amp;' and ';'.
+	 */
+	private void appendEntity(String name) {
+		String decoded = decodeEntity(name);
+		if(decoded == null) {
+			appendLiteral('&' + name + ';');
+		} else {
+			// entities are never collapsed
+			text.append(decoded);
+		}
+	}
+
+	/**
+	 * Decodes a named or a numeric character entity.
+	 *
+	 * @param name	entity name without '&amp;' and ';'.
+	 * @return		the character or `null` if the entity is unknown.
+	 */
+	private static String decodeEntity(String name) {
+		if(name.length() > 1 && name.charAt(0) == '#') {
+			try {
+				int codePoint;
+				if(name.charAt(1) == 'x' || name.charAt(1) == 'X') {
+					codePoint = Integer.parseInt(name.substring(2), 16);
+				} else {
+					codePoint = Integer.parseInt(name.substring(1));
+				}
+				return new String(Character.toChars(codePoint));
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+		}
+		Character ch = ENTITIES.get(name);
+		return ch == null ? null : String.valueOf(ch);
+	}
+
+	/**
+	 * Decodes the entities of an attribute value.
+	 *
+	 * @param value	attribute value.
+	 * @return		decoded value.
+	 */
+	private static String decodeEntities(String value) {
+		int ampersand = value.indexOf('&');
+		if(ampersand < 0) {
+			return value;
+		}
+		StringBuilder result = new StringBuilder(value.length());
+		int copied = 0;
+		while(ampersand >= 0) {
+			int semicolon = value.indexOf(';', ampersand);
+			if(semicolon < 0) {
+				break;
+			}
+			String decoded = decodeEntity(value.substring(ampersand + 1, semicolon));
+			if(decoded != null) {
+				result.append(value, copied, ampersand).append(decoded);
+				copied = semicolon + 1;
+			}
+			ampersand = value.indexOf('&', ampersand + 1);
+		}
+		return result.append(value, copied, value.length()).toString();
+	}
+
+	/**
+	 * Handles the tag.
+	 *
+	 * @param tag	tag without '&lt;' and '&gt;'.
+	 */
+	private void handleTag(String tag) {
+		char first = tag.charAt(0);
+		if(first == '!' || first == '?') {
+			return;
+		}
+		boolean closing = first == '/';
+		int nameStart = closing ? 1 : 0;
+		int nameEnd = nameStart;
+		while(nameEnd < tag.length() && Character.isLetterOrDigit(tag.charAt(nameEnd))) {
+			nameEnd++;
+		}
+		String name = tag.substring(nameStart, nameEnd).toLowerCase();
+		if(closing) {
+			handleCloseTag(name);
+		} else {
+			handleOpenTag(name, tag.substring(nameEnd));
+		}
+	}
+
+	private void handleOpenTag(String name, String attributes) {
+		Element element;
+		if(name.equals("br")) {
+			text.append('\n');
+		} else if(name.equals("img")) {
+			String source = getAttribute(attributes, "src");
+			if(source != null) {
+				text.append(SpannedText.OBJECT_CHARACTER);
+				addSpan(SpannedText.SPAN_IMAGE, text.length() - 1, text.length(), source);
+			}
+		} else if(name.equals(OBJECT_TAG)) {
+			openElement(name, 0, null);
+		} else if(name.equals("a")) {
+			String href = getAttribute(attributes, "href");
+			openElement(name, href == null ? 0 : SpannedText.SPAN_LINK, href);
+		} else if(name.equals("font")) {
+			String color = getAttribute(attributes, "color");
+			element = openElement(name, color == null ? 0 : SpannedText.SPAN_COLOR, color);
+			String size = getFontSize(getAttribute(attributes, "size"));
+			if(size != null) {
+				element.addSpan(SpannedText.SPAN_RELATIVE_SIZE, size);
+			}
+			String face = getAttribute(attributes, "face");
+			if(face != null) {
+				element.addSpan(SpannedText.SPAN_TYPEFACE, face);
+			}
+		} else if(name.equals("span")) {
+			String color = getStyleProperty(getAttribute(attributes, "style"), "color");
+			openElement(name, color == null ? 0 : SpannedText.SPAN_COLOR, color);
+		} else if(name.equals(UNORDERED_LIST_TAG) || name.equals(ORDERED_LIST_TAG)) {
+			appendLineBreak();
+			openElement(name, SpannedText.SPAN_INDENT, null);
+		} else if(name.equals(LIST_ITEM_TAG)) {
+			appendListItem();
+		} else if(STYLE_TAGS.containsKey(name)) {
+			openElement(name, STYLE_TAGS.get(name), null);
+		} else if(BLOCK_TAGS.containsKey(name)) {
+			appendBlockMargin();
+			element = openElement(name, BLOCK_TAGS.get(name), null);
+			if(name.length() == 2 && name.charAt(0) == 'h') {
+				element.addSpan(SpannedText.SPAN_RELATIVE_SIZE,
+						HEADING_SIZES[name.charAt(1) - '1']);
+			}
+		}
+	}
+
+	private void handleCloseTag(String name) {
+		if(name.equals(LIST_ITEM_TAG)) {
+			appendLineBreak();
+			return;
+		}
+		for (int i = openElements.size() - 1; i >= 0; i--) {
+			if(openElements.get(i).name.equals(name)) {
+				// the elements inside are closed as well
+				while(openElements.size() > i) {
+					closeElement(openElements.size() - 1);
+				}
+				if(BLOCK_TAGS.containsKey(name)) {
+					appendBlockMargin();
+				} else if(name.equals(UNORDERED_LIST_TAG) || name.equals(ORDERED_LIST_TAG)) {
+					appendLineBreak();
+				}
+				return;
+			}
+		}
+	}
+
+	private Element openElement(String name, int type, String value) {
+		Element element = new Element(name, text.length());
+		if(type != 0) {
+			element.addSpan(type, value);
+		}
+		openElements.add(element);
+		return element;
+	}
+
+	/**
+	 * Starts a list item on a new line with a bullet or with its number if
+	 * the innermost list is ordered.
+	 */
+	private void appendListItem() {
+		appendLineBreak();
+		for (int i = openElements.size() - 1; i >= 0; i--) {
+			Element list = openElements.get(i);
+			if(list.name.equals(ORDERED_LIST_TAG)) {
+				list.items++;
+				text.append(list.items).append(". ");
+				return;
+			} else if(list.name.equals(UNORDERED_LIST_TAG)) {
+				break;
+			}
+		}
+		text.append(BULLET);
+	}
+
+	/**
+	 * Converts the size attribute of `font` tag, an absolute size from 1 to
+	 * 7 or a size relative to the default one, e.g. "+1", to the relative
+	 * size of the text.
+	 *
+	 * @param size	value of the size attribute or `null`.
+	 * @return		relative size or `null` if the size is missing, invalid
+	 * 				or the default one.
+	 */
+	private static String getFontSize(String size) {
+		if(size == null) {
+			return null;
+		}
+		size = size.trim();
+		int value;
+		try {
+			if(size.startsWith("+")) {
+				value = DEFAULT_FONT_SIZE + Integer.parseInt(size.substring(1));
+			} else if(size.startsWith("-")) {
+				value = DEFAULT_FONT_SIZE - Integer.parseInt(size.substring(1));
+			} else {
+				value = Integer.parseInt(size);
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		value = Math.max(1, Math.min(value, FONT_SIZES.length));
+		return value == DEFAULT_FONT_SIZE ? null : FONT_SIZES[value - 1];
+	}
+
+	/**
+	 * Retrieves the value of the CSS property from the style attribute.
+	 *
+	 * @param style	value of the style attribute or `null`.
+	 * @param name	name of the property.
+	 * @return		the trimmed value or `null` if there is no such property.
+	 */
+	private static String getStyleProperty(String style, String name) {
+		if(style == null) {
+			return null;
+		}
+		String[] declarations = style.split(";");
+		for (int i = 0; i < declarations.length; i++) {
+			int colon = declarations[i].indexOf(':');
+			if(colon > 0 && declarations[i].substring(0, colon).trim().equalsIgnoreCase(name)) {
+				String value = declarations[i].substring(colon + 1).trim();
+				return value.length() == 0 ? null : value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Closes the open element and adds its span.
+	 *
+	 * @param index	index of the element in {@link #openElements}.
+	 */
+	private void closeElement(int index) {
+		Element element = openElements.remove(index);
+		int start = element.start;
+		int end = text.length();
+		if(start == end) {
+			return;
+		}
+		if(element.name.equals(OBJECT_TAG)) {
+			// the contents of the object is the name of the sound resource
+			String resource = text.substring(start, end);
+			text.setLength(start);
+			text.append(SpannedText.OBJECT_CHARACTER);
+			addSpan(SpannedText.SPAN_SOUND, start, start + 1, resource);
+		} else {
+			for (int i = 0; i < element.spans; i++) {
+				addSpan(element.types[i], start, end, element.values[i]);
+			}
+		}
+	}
+
+	/**
+	 * Starts a new line unless the text is empty or already ends with a line
+	 * break.
+	 */
+	private void appendLineBreak() {
+		int length = text.length();
+		if(length > 0 && text.charAt(length - 1) != '\n') {
+			text.append('\n');
+		}
+	}
+
+	/**
+	 * Separates a block from the preceding text by line breaks.
+	 */
+	private void appendBlockMargin() {
+		int length = text.length();
+		if(length == 0) {
+			return;
+		}
+		int breaks = 0;
+		while(breaks < BLOCK_MARGIN && breaks < length
+				&& text.charAt(length - 1 - breaks) == '\n') {
+			breaks++;
+		}
+		for (; breaks < BLOCK_MARGIN; breaks++) {
+			text.append('\n');
+		}
+	}
+
+	private void addSpan(int type, int start, int end, String value) {
+		if(spans == types.length) {
+			int capacity = spans * 2;
+			int[] newTypes = new int[capacity];
+			int[] newStarts = new int[capacity];
+			int[] newEnds = new int[capacity];
+			String[] newValues = new String[capacity];
+			System.arraycopy(types, 0, newTypes, 0, spans);
+			System.arraycopy(starts, 0, newStarts, 0, spans);
+			System.arraycopy(ends, 0, newEnds, 0, spans);
+			System.arraycopy(values, 0, newValues, 0, spans);
+			types = newTypes;
+			starts = newStarts;
+			ends = newEnds;
+			values = newValues;
+		}
+		types[spans] = type;
+		starts[spans] = start;
+		ends[spans] = end;
+		values[spans] = value;
+		spans++;
+	}
+
+	/**
+	 * Retrieves the value of the attribute of a tag.
+	 *
+	 * @param attributes	attributes of the tag.
+	 * @param name			name of the attribute.
+	 * @return				the decoded value or `null` if the tag has no
+	 * 						such attribute.
+	 */
+	private static String getAttribute(String attributes, String name) {
+		int length = attributes.length();
+		int i = 0;
+		while(i < length) {
+			while(i < length && !Character.isLetter(attributes.charAt(i))) {
+				i++;
+			}
+			int nameStart = i;
+			while(i < length && (Character.isLetterOrDigit(attributes.charAt(i))
+					|| attributes.charAt(i) == '-')) {
+				i++;
+			}
+			String attributeName = attributes.substring(nameStart, i);
+			while(i < length && attributes.charAt(i) == ' ') {
+				i++;
+			}
+			if(i >= length || attributes.charAt(i) != '=') {
+				continue;
+			}
+			i++;
+			while(i < length && attributes.charAt(i) == ' ') {
+				i++;
+			}
+			int valueStart;
+			int valueEnd;
+			if(i < length && (attributes.charAt(i) == '"' || attributes.charAt(i) == '\'')) {
+				valueStart = i + 1;
+				valueEnd = attributes.indexOf(attributes.charAt(i), valueStart);
+				if(valueEnd < 0) {
+					valueEnd = length;
+				}
+				i = valueEnd + 1;
+			} else {
+				valueStart = i;
+				while(i < length && attributes.charAt(i) != ' ' && attributes.charAt(i) != '/') {
+					i++;
+				}
+				valueEnd = i;
+			}
+			if(attributeName.equalsIgnoreCase(name)) {
+				return decodeEntities(attributes.substring(valueStart, valueEnd));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Open element.
+	 */
+	private static class Element {
+
+		private String name;
+
+		/**
+		 * Types of the spans of the element, e.g. the colour and the size of
+		 * `font` tag.
+		 */
+		private int[] types = new int[3];
+
+		private String[] values = new String[3];
+
+		private int spans = 0;
+
+		private int start;
+
+		/**
+		 * Quantity of the items of an ordered list.
+		 */
+		private int items = 0;
+
+		public Element(String name, int start) {
+			this.name = name;
+			this.start = start;
+		}
+
+		public void addSpan(int type, String value) {
+			types[spans] = type;
+			values[spans] = value;
+			spans++;
+		}
+	}
+}
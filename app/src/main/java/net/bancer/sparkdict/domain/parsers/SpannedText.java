@@ -0,0 +1,188 @@
+package net.bancer.sparkdict.domain.parsers;
+
+/**
+ * SpannedText is the parsed definitions ready to be displayed: plain text
+ * and a list of spans marking its formatted parts. It is built by
+ * {@link SpanBuilder} and turned into the text of a view without parsing
+ * HTML again.
+ *
+ * @author Valerij Bancer
+ *
+ */
+public class SpannedText {
+
+	/**
+	 * Bold text.
+	 */
+	public static final int SPAN_BOLD = 1;
+
+	/**
+	 * Italic text.
+	 */
+	public static final int SPAN_ITALIC = 2;
+
+	/**
+	 * Underlined text.
+	 */
+	public static final int SPAN_UNDERLINE = 3;
+
+	/**
+	 * Text bigger than normal.
+	 */
+	public static final int SPAN_BIG = 4;
+
+	/**
+	 * Text smaller than normal.
+	 */
+	public static final int SPAN_SMALL = 5;
+
+	/**
+	 * Superscript text.
+	 */
+	public static final int SPAN_SUPERSCRIPT = 6;
+
+	/**
+	 * Subscript text.
+	 */
+	public static final int SPAN_SUBSCRIPT = 7;
+
+	/**
+	 * Text in monospace font.
+	 */
+	public static final int SPAN_MONOSPACE = 8;
+
+	/**
+	 * Coloured text, the value is the colour, e.g. "#006600".
+	 */
+	public static final int SPAN_COLOR = 9;
+
+	/**
+	 * Link, the value is the URL.
+	 */
+	public static final int SPAN_LINK = 10;
+
+	/**
+	 * Image replacing the object character, the value is the name of the
+	 * image resource.
+	 */
+	public static final int SPAN_IMAGE = 11;
+
+	/**
+	 * Sound button replacing the object character, the value is the name of
+	 * the sound resource.
+	 */
+	public static final int SPAN_SOUND = 12;
+
+	/**
+	 * Indented block of text.
+	 */
+	public static final int SPAN_INDENT = 13;
+
+	/**
+	 * Struck through text.
+	 */
+	public static final int SPAN_STRIKETHROUGH = 14;
+
+	/**
+	 * Text of a size relative to normal, the value is the proportion, e.g.
+	 * "1.5".
+	 */
+	public static final int SPAN_RELATIVE_SIZE = 15;
+
+	/**
+	 * Text in another font family, the value is the family name, e.g.
+	 * "serif".
+	 */
+	public static final int SPAN_TYPEFACE = 16;
+
+	/**
+	 * Character replaced by images and sound buttons.
+	 */
+	public static final char OBJECT_CHARACTER = '\uFFFC';
+
+	private String text;
+
+	private int[] types;
+
+	private int[] starts;
+
+	private int[] ends;
+
+	private String[] values;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param text		plain text.
+	 * @param types		types of the spans, one of SPAN_* constants each.
+	 * @param starts	start positions of the spans in the text.
+	 * @param ends		end positions of the spans in the text.
+	 * @param values	values of the spans, `null` if a span type has none.
+	 */
+	public SpannedText(String text, int[] types, int[] starts, int[] ends,
+			String[] values) {
+		this.text = text;
+		this.types = types;
+		this.starts = starts;
+		this.ends = ends;
+		this.values = values;
+	}
+
+	/**
+	 * Plain text getter.
+	 *
+	 * @return	the text without formatting.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Getter of the quantity of spans.
+	 *
+	 * @return	the quantity of spans.
+	 */
+	public int getSpansQuantity() {
+		return types.length;
+	}
+
+	/**
+	 * Span type getter.
+	 *
+	 * @param span	sequence number of the span.
+	 * @return		one of SPAN_* constants.
+	 */
+	public int getSpanType(int span) {
+		return types[span];
+	}
+
+	/**
+	 * Span start getter.
+	 *
+	 * @param span	sequence number of the span.
+	 * @return		start position of the span in the text.
+	 */
+	public int getSpanStart(int span) {
+		return starts[span];
+	}
+
+	/**
+	 * Span end getter.
+	 *
+	 * @param span	sequence number of the span.
+	 * @return		end position of the span in the text.
+	 */
+	public int getSpanEnd(int span) {
+		return ends[span];
+	}
+
+	/**
+	 * Span value getter.
+	 *
+	 * @param span	sequence number of the span.
+	 * @return		the colour, the URL, the resource name or `null`.
+	 */
+	public String getSpanValue(int span) {
+		return values[span];
+	}
+}
@@ -0,0 +1,221 @@
+package net.bancer.sparkdict.domain.parsers;
+
+import java.util.Map;
+
+/**
+ * TagRule declares how {@link MarkupRewriter} replaces a markup tag or a pair
+ * of tags with HTML. Rules are created by the static factory methods, one for
+ * every kind of replacement.
+ *
+ * @author Valerij Bancer
+ *
+ */
+public class TagRule {
+
+	/**
+	 * Opening and closing tags are replaced with fixed strings. The n-th
+	 * opening tag is paired with the n-th closing tag as long as the opening
+	 * tag comes first, tags without counterpart are left untouched.
+	 */
+	public static final int TYPE_PAIR = 1;
+
+	/**
+	 * Like {@link #TYPE_PAIR}, but the replacement of the opening tag is a
+	 * format string which receives the rewritten contents of the pair, e.g.
+	 * a link to the word between the tags.
+	 */
+	public static final int TYPE_LINK = 2;
+
+	/**
+	 * Every occurrence of the tag is replaced with a fixed string.
+	 */
+	public static final int TYPE_TAG = 3;
+
+	/**
+	 * Every occurrence of the beginning of a tag is replaced with a fixed
+	 * string. If it is followed by an attribute value in double quotes which
+	 * is a key of the values map, the value is replaced as well.
+	 */
+	public static final int TYPE_ATTRIBUTE = 4;
+
+	/**
+	 * The whole element, the tags and the contents, is replaced with the
+	 * string built by {@link IElementRewriter}. Once an opening tag without
+	 * closing tag is met, the following elements are left untouched.
+	 */
+	public static final int TYPE_ELEMENT = 5;
+
+	private int type;
+
+	private String openTag;
+
+	private String closeTag;
+
+	private String openReplacement;
+
+	private String closeReplacement;
+
+	private Map<String, String> values;
+
+	private IElementRewriter elementRewriter;
+
+	private TagRule(int type, String openTag, String closeTag,
+			String openReplacement, String closeReplacement,
+			Map<String, String> values, IElementRewriter elementRewriter) {
+		if(openTag == null || openTag.length() == 0) {
+			throw new IllegalArgumentException("invalid openTag argument");
+		}
+		boolean closed = type != TYPE_TAG && type != TYPE_ATTRIBUTE;
+		if(closed && (closeTag == null || closeTag.length() == 0)) {
+			throw new IllegalArgumentException("invalid closeTag argument");
+		}
+		this.type = type;
+		this.openTag = openTag;
+		this.closeTag = closeTag;
+		this.openReplacement = openReplacement;
+		this.closeReplacement = closeReplacement;
+		this.values = values;
+		this.elementRewriter = elementRewriter;
+	}
+
+	/**
+	 * Creates {@link #TYPE_PAIR} rule.
+	 *
+	 * @param openTag			opening tag.
+	 * @param closeTag			closing tag.
+	 * @param openReplacement	replacement of the opening tag.
+	 * @param closeReplacement	replacement of the closing tag.
+	 * @return					the rule.
+	 */
+	public static TagRule pair(String openTag, String closeTag,
+			String openReplacement, String closeReplacement) {
+		return new TagRule(TYPE_PAIR, openTag, closeTag, openReplacement,
+				closeReplacement, null, null);
+	}
+
+	/**
+	 * Creates {@link #TYPE_LINK} rule.
+	 *
+	 * @param openTag			opening tag.
+	 * @param closeTag			closing tag.
+	 * @param openFormat		format of the replacement of the opening tag
+	 * 							with one `%s` for the contents of the pair.
+	 * @param closeReplacement	replacement of the closing tag.
+	 * @return					the rule.
+	 */
+	public static TagRule link(String openTag, String closeTag,
+			String openFormat, String closeReplacement) {
+		return new TagRule(TYPE_LINK, openTag, closeTag, openFormat,
+				closeReplacement, null, null);
+	}
+
+	/**
+	 * Creates {@link #TYPE_TAG} rule.
+	 *
+	 * @param tag			tag.
+	 * @param replacement	replacement of the tag.
+	 * @return				the rule.
+	 */
+	public static TagRule tag(String tag, String replacement) {
+		return new TagRule(TYPE_TAG, tag, null, replacement, null, null, null);
+	}
+
+	/**
+	 * Creates {@link #TYPE_ATTRIBUTE} rule.
+	 *
+	 * @param tagStart		beginning of the tag up to the attribute value.
+	 * @param replacement	replacement of the beginning of the tag.
+	 * @param values		replacements of the attribute values.
+	 * @return				the rule.
+	 */
+	public static TagRule attribute(String tagStart, String replacement,
+			Map<String, String> values) {
+		if(values == null) {
+			throw new IllegalArgumentException("invalid values argument");
+		}
+		return new TagRule(TYPE_ATTRIBUTE, tagStart, null, replacement, null,
+				values, null);
+	}
+
+	/**
+	 * Creates {@link #TYPE_ELEMENT} rule.
+	 *
+	 * @param openTag			opening tag.
+	 * @param closeTag			closing tag.
+	 * @param elementRewriter	builder of the replacement of the element.
+	 * @return					the rule.
+	 */
+	public static TagRule element(String openTag, String closeTag,
+			IElementRewriter elementRewriter) {
+		if(elementRewriter == null) {
+			throw new IllegalArgumentException("invalid elementRewriter argument");
+		}
+		return new TagRule(TYPE_ELEMENT, openTag, closeTag, null, null, null,
+				elementRewriter);
+	}
+
+	/**
+	 * Type getter.
+	 *
+	 * @return	one of TYPE_* constants.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Opening tag getter.
+	 *
+	 * @return	the opening tag or the beginning of the tag.
+	 */
+	public String getOpenTag() {
+		return openTag;
+	}
+
+	/**
+	 * Closing tag getter.
+	 *
+	 * @return	the closing tag or `null` if the rule has none.
+	 */
+	public String getCloseTag() {
+		return closeTag;
+	}
+
+	/**
+	 * Getter of the replacement of the opening tag.
+	 *
+	 * @return	the replacement, the format string for {@link #TYPE_LINK}
+	 * 			rules or `null` for {@link #TYPE_ELEMENT} rules.
+	 */
+	public String getOpenReplacement() {
+		return openReplacement;
+	}
+
+	/**
+	 * Getter of the replacement of the closing tag.
+	 *
+	 * @return	the replacement or `null` if the rule has no closing tag.
+	 */
+	public String getCloseReplacement() {
+		return closeReplacement;
+	}
+
+	/**
+	 * Getter of the replacements of the attribute values.
+	 *
+	 * @return	the replacements or `null` if it is not
+	 * 			{@link #TYPE_ATTRIBUTE} rule.
+	 */
+	public Map<String, String> getValues() {
+		return values;
+	}
+
+	/**
+	 * Element rewriter getter.
+	 *
+	 * @return	the rewriter or `null` if it is not {@link #TYPE_ELEMENT} rule.
+	 */
+	public IElementRewriter getElementRewriter() {
+		return elementRewriter;
+	}
+}
@@ -11,12 +11,9 @@
  */
 package net.bancer.sparkdict.domain.parsers;
 
-import java.io.UnsupportedEncodingException;
 import java.util.HashMap;
 import java.util.Map;
 
-import android.util.Log;
-
 /**
  * Parser for 'x' data type - the data is in XDXF format.
  * 
@@ -57,7 +54,7 @@ public class XParser extends MParser {
 	private static final String TRANSCRIPTION_CLOSE = SQUARE_BRACKET_CLOSE + TT_TAG_CLOSE;
 
 	private static final String COLOR_GREY 	= "#808080";
-	
+
 	private static final Map<String, String> HTML_COLORS = new HashMap<String, String>();
 	static {
 		HTML_COLORS.put("darkcyan", 		"#008B8B");
@@ -68,6 +65,20 @@ public class XParser extends MParser {
 		HTML_COLORS.put("rosybrown", 		"#BC8F8F");
 	}
 
+	/**
+	 * Builds HTML `object` tag for sounds and HTML `img` tag for the other
+	 * resources from the contents of rref tag.
+	 */
+	private static final IElementRewriter RESOURCE_REWRITER = new IElementRewriter() {
+		@Override
+		public String rewrite(String content) {
+			if(content.endsWith(".wav")) {
+				return String.format(OBJECT_TAG, content, content);
+			}
+			return String.format(IMG_TAG, content) + BR_TAG;
+		}
+	};
+
 	/*
 	 * Extract
 	 * 
@@ -90,102 +101,24 @@ public class XParser extends MParser {
 	 * 			</kref>			</a>
 	 * 			<rref>...</rref>	<img src="..." />			
 	 */
-	@Override
-	public String parse(byte[] data) {
-		try {
-			StringBuffer result = new StringBuffer(new String(data, "UTF8"));
-			parseKrefTags(result);
-			parseTrTags(result);
-			parseKTags(result);
-			parseExTags(result);
-			parseAbrTags(result);
-			parseCTags(result);
-			parseRrefTags(result);
-			
-			parseLineBreaks(result);
-			parseQuadrupleSpaces(result);
-			parseTripleSpaces(result);
-			parseDoubleSpaces(result);
-			return result.toString();
-		} catch (UnsupportedEncodingException e) {
-			Log.e(this.getClass().getName(), e.getMessage());
-		}
-		return null;
-	}
-	private void parseAbrTags(StringBuffer strBuffer) {
-		String openTagReplacement = String.format(FONT_TAG_OPEN, ABBREVIATION_COLOR);
-		parseHTMLTagPair(strBuffer, ABR_OPEN_TAG, ABR_CLOSE_TAG,
-				openTagReplacement, FONT_TAG_CLOSE);
-	}
-
-	private void parseExTags(StringBuffer strBuffer) {
-		String openTagReplacement = String.format(FONT_TAG_OPEN, COLOR_GREY);
-		parseHTMLTagPair(strBuffer, EX_OPEN_TAG, EX_CLOSE_TAG,
-				openTagReplacement, FONT_TAG_CLOSE);
-	}
-
-	private void parseKTags(StringBuffer strBuffer) {
-		parseHTMLTagPair(strBuffer, K_OPEN_TAG, K_CLOSE_TAG, BIG_OPEN_TAG,
-				BIG_CLOSE_TAG + BR_TAG);
-	}
+	private static final TagRule[] RULES = {
+		TagRule.link(KREF_OPEN_TAG, KREF_CLOSE_TAG, A_TAG_OPEN, A_TAG_CLOSE),
+		TagRule.pair(TR_OPEN_TAG, TR_CLOSE_TAG, TRANSCRIPTION_OPEN, TRANSCRIPTION_CLOSE),
+		TagRule.pair(K_OPEN_TAG, K_CLOSE_TAG, BIG_OPEN_TAG, BIG_CLOSE_TAG + BR_TAG),
+		TagRule.pair(EX_OPEN_TAG, EX_CLOSE_TAG,
+				String.format(FONT_TAG_OPEN, COLOR_GREY), FONT_TAG_CLOSE),
+		TagRule.pair(ABR_OPEN_TAG, ABR_CLOSE_TAG,
+				String.format(FONT_TAG_OPEN, ABBREVIATION_COLOR), FONT_TAG_CLOSE),
+		TagRule.attribute(C_TAG_OPEN_INCOMPLETE, FONT_TAG_OPEN_INCOMPLETE, HTML_COLORS),
+		TagRule.tag(C_TAG_OPEN, FONT_TAG_OPEN),
+		TagRule.tag(C_TAG_CLOSE, FONT_TAG_CLOSE),
+		TagRule.element(RREF_OPEN_TAG, RREF_CLOSE_TAG, RESOURCE_REWRITER)
+	};
 
-	private void parseTrTags(StringBuffer strBuffer) {
-		parseHTMLTagPair(strBuffer, TR_OPEN_TAG, TR_CLOSE_TAG,
-				TRANSCRIPTION_OPEN, TRANSCRIPTION_CLOSE);
-	}
+	private static final MarkupRewriter REWRITER = new MarkupRewriter(RULES);
 
-	private void parseKrefTags(StringBuffer strBuffer) {
-		int openTagPos = strBuffer.indexOf(KREF_OPEN_TAG);
-		int closeTagPos = strBuffer.indexOf(KREF_CLOSE_TAG);
-		while(openTagPos >= 0 && closeTagPos > openTagPos) {
-			String innerString = strBuffer.substring(openTagPos + KREF_OPEN_TAG.length(), closeTagPos);
-			String link = String.format(A_TAG_OPEN, innerString);
-			strBuffer.replace(closeTagPos, closeTagPos + KREF_CLOSE_TAG.length(), A_TAG_CLOSE);
-			strBuffer.replace(openTagPos, openTagPos + KREF_OPEN_TAG.length(), link);
-			openTagPos = strBuffer.indexOf(KREF_OPEN_TAG);
-			closeTagPos = strBuffer.indexOf(KREF_CLOSE_TAG);
-		}
-	}
-
-	private void parseCTags(StringBuffer strBuffer) {
-		int tagPos = strBuffer.indexOf(C_TAG_OPEN_INCOMPLETE);
-		while (tagPos > -1) {
-			String html = FONT_TAG_OPEN_INCOMPLETE;
-			// double quote position indicates the start of color attribute value
-			int start = strBuffer.indexOf("\"", tagPos) + 1;
-			if (start > -1) {
-				// double quote position indicates the end of color attribute value
-				int end = strBuffer.indexOf("\"", start + 1);
-				// get color attribute value
-				String color = strBuffer.substring(start, end);
-				if (end > -1 && HTML_COLORS.containsKey(color)) {
-					// replace the color attribute value to HEX value
-					strBuffer.replace(start, end, HTML_COLORS.get(color));
-				}
-			}
-			strBuffer.replace(tagPos, tagPos + C_TAG_OPEN_INCOMPLETE.length(),
-					html);
-			tagPos = strBuffer.indexOf(C_TAG_OPEN_INCOMPLETE);
-		}
-		parseHTMLTag(strBuffer, C_TAG_OPEN, FONT_TAG_OPEN);
-		parseHTMLTag(strBuffer, C_TAG_CLOSE, FONT_TAG_CLOSE);
-	}
-
-	private void parseRrefTags(StringBuffer strBuffer) {
-		int openTagPos = strBuffer.indexOf(RREF_OPEN_TAG);
-		int closeTagPos = strBuffer.indexOf(RREF_CLOSE_TAG, openTagPos);
-		while(openTagPos > -1 && closeTagPos > openTagPos) {
-			String innerString = strBuffer.substring(openTagPos + RREF_OPEN_TAG.length(), closeTagPos);
-			String data;
-			if(innerString.endsWith(".wav")) {
-				data = String.format(OBJECT_TAG, innerString, innerString);
-			} else {
-				data = String.format(IMG_TAG, innerString) + BR_TAG;
-			}
-			strBuffer.replace(openTagPos, closeTagPos + RREF_CLOSE_TAG.length(), data);
-			openTagPos = strBuffer.indexOf(RREF_OPEN_TAG);
-			closeTagPos = strBuffer.indexOf(RREF_CLOSE_TAG, openTagPos);
-		}
+	@Override
+	protected MarkupRewriter getRewriter() {
+		return REWRITER;
 	}
-
 }
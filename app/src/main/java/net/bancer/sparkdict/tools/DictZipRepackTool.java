@@ -0,0 +1,35 @@
+package net.bancer.sparkdict.tools;
+
+import java.io.IOException;
+
+import net.bancer.sparkdict.domain.core.BookInfo;
+import net.bancer.sparkdict.domain.core.DictZipRepacker;
+
+/**
+ * DictZipRepackTool repacks the data of a dictionary with
+ * {@link DictZipRepacker} from the command line and prints the report.
+ *
+ * @author Valerij Bancer
+ *
+ */
+public class DictZipRepackTool {
+
+	/**
+	 * Repacks the dictionary and prints the report. Arguments: path to
+	 * <dictionary name>.ifo file, path to the output file, chunk length and
+	 * optional "--align" flag.
+	 *
+	 * @param args	command line arguments.
+	 * @throws IOException	if there was a problem reading or writing the files.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 3) {
+			System.err.println("Usage: DictZipRepackTool <ifo file> <output file> <chunk length> [--align]");
+			System.exit(1);
+		}
+		boolean align = args.length > 3 && "--align".equals(args[3]);
+		DictZipRepacker repacker = new DictZipRepacker(new BookInfo(args[0]),
+				Integer.parseInt(args[2]), align);
+		System.out.println(repacker.repack(args[1]));
+	}
+}
@@ -2,25 +2,18 @@ package net.bancer.sparkdict.views;
 
 import net.bancer.sparkdict.R;
 import net.bancer.sparkdict.domain.core.LexicalEntry;
-import net.bancer.sparkdict.views.helpers.DictResourceImageGetter;
-import net.bancer.sparkdict.views.helpers.UnrecognizedTagsHandler;
+import net.bancer.sparkdict.views.helpers.SpannedTextRenderer;
 import android.content.Context;
 import android.content.res.ColorStateList;
 import android.graphics.Color;
 import android.graphics.Typeface;
-import android.text.Html;
-import android.text.SpannableStringBuilder;
 import android.text.Spanned;
 import android.text.style.BackgroundColorSpan;
-import android.text.style.LeadingMarginSpan;
-import android.text.style.QuoteSpan;
 import android.text.style.TextAppearanceSpan;
 import android.util.AttributeSet;
 import android.widget.EditText;
 import android.widget.TextView;
 
-import androidx.core.text.HtmlCompat;
-
 /**
  * DefinitionsView displays definitions of the lexical entry and performs
  * different transformations of them.
@@ -145,26 +138,21 @@ public class DefinitionsView extends EditText {
 	}
 
 	/**
-	 * Parses the HTML definitions of the specified lexical entry and sets the
-	 * resulting formatted text as the content of this view.
+	 * Sets the formatted definitions of the specified lexical entry as the
+	 * content of this view.
 	 *
-	 * <p>The HTML content is converted into a {@link Spanned} object using
-	 * {@link Html#fromHtml(String, int, Html.ImageGetter, Html.TagHandler)}.
-	 * Dictionary images are resolved by {@link DictResourceImageGetter}, custom
-	 * tags are handled by {@link UnrecognizedTagsHandler}, and blockquotes are
-	 * adjusted to use indentation instead of Android's default quote styling.</p>
+	 * <p>The spanned definitions of the lexical entry are mapped to Android
+	 * spans by {@link SpannedTextRenderer}, the HTML definitions are not
+	 * parsed again. Blockquotes are rendered with a left indentation.</p>
 	 *
 	 * @param lexicalEntry
-	 *            lexical entry containing the HTML definitions to display.
+	 *            lexical entry containing the definitions to display.
 	 */
-	public void parseHtmlAndSetText(final LexicalEntry lexicalEntry) {
-		String html = lexicalEntry.getDefinitions();
-		int maxImageWidth = computeMaxImageWidth();
-		Html.ImageGetter imageGetter = new DictResourceImageGetter(lexicalEntry, maxImageWidth);
-		Html.TagHandler tagHandler = new UnrecognizedTagsHandler(lexicalEntry, getContext());
-		Spanned parsedHtml = Html.fromHtml(html, HtmlCompat.FROM_HTML_MODE_LEGACY, imageGetter, tagHandler);
-		SpannableStringBuilder finalizedHtml = indentBlockquotes(parsedHtml);
-		setText(finalizedHtml, TextView.BufferType.SPANNABLE);
+	public void setDefinitions(final LexicalEntry lexicalEntry) {
+		SpannedTextRenderer renderer = new SpannedTextRenderer(lexicalEntry,
+				getContext(), computeMaxImageWidth(), BLOCKQUOTE_INDENT);
+		setText(renderer.render(lexicalEntry.getSpannedDefinitions()),
+				TextView.BufferType.SPANNABLE);
 	}
 
 	/**
@@ -184,31 +172,4 @@ public class DefinitionsView extends EditText {
 		int width = getResources().getDisplayMetrics().widthPixels - BLOCKQUOTE_INDENT * 4;
 		return Math.min(height, width);
 	}
-
-	/**
-	 * Replaces Android's default blockquote rendering with an indented layout.
-	 *
-	 * <p>{@link Html#fromHtml(String, int, Html.ImageGetter, Html.TagHandler)}
-	 * converts {@code <blockquote>} tags into {@link QuoteSpan} instances, which
-	 * render as a vertical line. This method removes those spans and replaces
-	 * them with {@link LeadingMarginSpan.Standard} instances to display
-	 * blockquotes with a left indentation instead.</p>
-	 *
-	 * @param parsedHtml
-	 *            parsed HTML content containing possible blockquote spans.
-	 * @return a modifiable spannable text with blockquotes indented.
-	 */
-	private SpannableStringBuilder indentBlockquotes(Spanned parsedHtml) {
-		SpannableStringBuilder builder = new SpannableStringBuilder(parsedHtml);
-		QuoteSpan[] quotes = builder.getSpans(0, builder.length(), QuoteSpan.class);
-		for (QuoteSpan quote : quotes) {
-			int start = builder.getSpanStart(quote);
-			int end = builder.getSpanEnd(quote);
-			int flags = builder.getSpanFlags(quote);
-			builder.removeSpan(quote);
-			LeadingMarginSpan.Standard blockquoteMargin = new LeadingMarginSpan.Standard(BLOCKQUOTE_INDENT);
-			builder.setSpan(blockquoteMargin, start, end, flags);
-		}
-		return builder;
-	}
 }
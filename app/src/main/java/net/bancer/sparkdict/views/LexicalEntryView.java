@@ -66,6 +66,13 @@ public class LexicalEntryView extends LinearLayout implements
 	 * searched on the screen was performed. 
 	 */
 	private boolean highlightingDone;
+
+	/**
+	 * Flag to indicate if the definitions were parsed and set to the
+	 * definitions view. It is done when the view is expanded for the first
+	 * time, collapsed lexical entries are never parsed.
+	 */
+	private boolean definitionsSet = false;
 	
 	/**
 	 * Constructor.
@@ -98,7 +105,6 @@ public class LexicalEntryView extends LinearLayout implements
 		this.lexicalEntry = lexicalEntry;
 		dictTitleView.setText(lexicalEntry.getDictTitle());
 		lemmaView.setText(lexicalEntry.getLemma());
-		definitionsView.parseHtmlAndSetText(lexicalEntry);
 		//setTag(lexicalEntry.getDictTitle());
 	}
 
@@ -285,6 +291,10 @@ public class LexicalEntryView extends LinearLayout implements
 	 * Expands definitions of this lexical entry.
 	 */
 	void expand() {
+		if(!definitionsSet) {
+			definitionsView.setDefinitions(lexicalEntry);
+			definitionsSet = true;
+		}
 		expanderView.setImageResource(R.drawable.expander_ic_maximized);
 		lemmaView.setVisibility(View.VISIBLE);
 		definitionsView.setVisibility(View.VISIBLE);
@@ -337,7 +347,9 @@ public class LexicalEntryView extends LinearLayout implements
 	 */
 	public void removeHighlighting() {
 		highlightingDone = false;
-		definitionsView.parseHtmlAndSetText(lexicalEntry);
+		if(definitionsSet) {
+			definitionsView.setDefinitions(lexicalEntry);
+		}
 	}
 	
 	/**
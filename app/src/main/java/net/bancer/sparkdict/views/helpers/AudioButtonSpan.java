@@ -0,0 +1,116 @@
+package net.bancer.sparkdict.views.helpers;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import net.bancer.sparkdict.domain.core.LexicalEntry;
+
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.Environment;
+import android.text.style.URLSpan;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * AudioButtonSpan emulates HTML image inside anchor: 
+ * `<a href="#"><img src="..."></a>`
+ * 
+ * @author valera
+ *
+ */
+public class AudioButtonSpan extends URLSpan {
+	
+	private static final String TAG = "AudioButtonSpan";
+	
+	private LexicalEntry lexicalEntry;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param url			name of the sound resource.
+	 * @param lexicalEntry	lexical entry containing the sound resource.
+	 */
+	public AudioButtonSpan(String url, LexicalEntry lexicalEntry) {
+		super(url);
+		this.lexicalEntry = lexicalEntry;
+	}
+
+	@Override
+	public void onClick(View widget) {
+		if (Environment.getExternalStorageState().equals(
+				Environment.MEDIA_MOUNTED)) {
+			Uri uri = Uri.parse(getURL());
+			String resourceName = uri.toString();
+			byte[] audio = lexicalEntry.getResource(resourceName);
+			String dir = Environment.getExternalStorageDirectory()
+					+ "/Android/data/net.bancer.sparkdict/cache";
+			String fileExtension = resourceName.substring(resourceName
+					.lastIndexOf('.'));
+			String filePath = dir + "/temp" + fileExtension;
+			writeTempFile(audio, filePath);
+			playAudio(filePath);
+		}
+	}
+
+	/**
+	 * Creates a file. If the destination folder does not exist it will be
+	 * created together with its parents.
+	 * 
+	 * @param data
+	 *            bytes to be saved.
+	 * @param filePath
+	 *            full file name.
+	 */
+	private void writeTempFile(byte[] data, String filePath) {
+		File f = new File(filePath);
+		File d = f.getParentFile();
+		if (!f.exists()) {
+			d.mkdirs();
+		} else {
+			f.delete();
+		}
+		if (d.exists()) {
+			BufferedOutputStream out = null;
+			try {
+				out = new BufferedOutputStream(new FileOutputStream(f));
+				out.write(data);
+			} catch (FileNotFoundException e) {
+				Log.e(TAG, "Cannot write the file", e);
+			} catch (IOException e) {
+				Log.e(TAG, "Cannot write the file", e);
+			} finally {
+				if (out != null) {
+					try {
+						out.close();
+					} catch (IOException e) {
+						Log.e(TAG, "Cannot close the file", e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Plays audio file.
+	 * 
+	 * @param filePath file to be played.
+	 */
+	private void playAudio(String filePath) {
+		MediaPlayer player = new MediaPlayer();
+		try {
+			player.setDataSource(filePath);
+			player.prepare();
+			player.start();
+		} catch (IllegalArgumentException e) {
+			Log.e(TAG, "Cannot play audio file", e);
+		} catch (IllegalStateException e) {
+			Log.e(TAG, "Cannot play audio file", e);
+		} catch (IOException e) {
+			Log.e(TAG, "Cannot play audio file", e);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package net.bancer.sparkdict.views.helpers;
+
+import net.bancer.sparkdict.R;
+import net.bancer.sparkdict.domain.core.LexicalEntry;
+import net.bancer.sparkdict.domain.parsers.SpannedText;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.ImageSpan;
+import android.text.style.LeadingMarginSpan;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StrikethroughSpan;
+import android.text.style.StyleSpan;
+import android.text.style.SubscriptSpan;
+import android.text.style.SuperscriptSpan;
+import android.text.style.TypefaceSpan;
+import android.text.style.URLSpan;
+import android.text.style.UnderlineSpan;
+
+/**
+ * SpannedTextRenderer turns the {@link SpannedText} of the definitions into
+ * Android spannable text. Every span is mapped to the Android span directly,
+ * the definitions are not parsed as HTML again.
+ *
+ * @author Valerij Bancer
+ *
+ */
+public class SpannedTextRenderer {
+
+	private static final float BIG_TEXT_SIZE = 1.25f;
+
+	private static final float SMALL_TEXT_SIZE = 0.8f;
+
+	/**
+	 * Lexical entry containing the image and the sound resources.
+	 */
+	private LexicalEntry lexicalEntry;
+
+	private Context context;
+
+	private DictResourceImageGetter imageGetter;
+
+	/**
+	 * Indentation of the indented blocks in pixels.
+	 */
+	private int indent;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param lexicalEntry	lexical entry containing the resources.
+	 * @param context		application context.
+	 * @param maxImageWidth	maximum width of the images in pixels.
+	 * @param indent		indentation of the indented blocks in pixels.
+	 */
+	public SpannedTextRenderer(LexicalEntry lexicalEntry, Context context,
+			int maxImageWidth, int indent) {
+		this.lexicalEntry = lexicalEntry;
+		this.context = context;
+		this.imageGetter = new DictResourceImageGetter(lexicalEntry, maxImageWidth);
+		this.indent = indent;
+	}
+
+	/**
+	 * Renders the spanned text.
+	 *
+	 * @param spannedText	spanned text of the definitions.
+	 * @return				spannable text to be set to a view.
+	 */
+	public SpannableStringBuilder render(SpannedText spannedText) {
+		SpannableStringBuilder builder = new SpannableStringBuilder(spannedText.getText());
+		for (int i = 0; i < spannedText.getSpansQuantity(); i++) {
+			int start = spannedText.getSpanStart(i);
+			int end = spannedText.getSpanEnd(i);
+			String value = spannedText.getSpanValue(i);
+			switch(spannedText.getSpanType(i)) {
+			case SpannedText.SPAN_BOLD:
+				setSpan(builder, new StyleSpan(Typeface.BOLD), start, end);
+				break;
+			case SpannedText.SPAN_ITALIC:
+				setSpan(builder, new StyleSpan(Typeface.ITALIC), start, end);
+				break;
+			case SpannedText.SPAN_UNDERLINE:
+				setSpan(builder, new UnderlineSpan(), start, end);
+				break;
+			case SpannedText.SPAN_BIG:
+				setSpan(builder, new RelativeSizeSpan(BIG_TEXT_SIZE), start, end);
+				break;
+			case SpannedText.SPAN_SMALL:
+				setSpan(builder, new RelativeSizeSpan(SMALL_TEXT_SIZE), start, end);
+				break;
+			case SpannedText.SPAN_SUPERSCRIPT:
+				setSpan(builder, new SuperscriptSpan(), start, end);
+				break;
+			case SpannedText.SPAN_SUBSCRIPT:
+				setSpan(builder, new SubscriptSpan(), start, end);
+				break;
+			case SpannedText.SPAN_MONOSPACE:
+				setSpan(builder, new TypefaceSpan("monospace"), start, end);
+				break;
+			case SpannedText.SPAN_COLOR:
+				try {
+					setSpan(builder, new ForegroundColorSpan(Color.parseColor(value)), start, end);
+				} catch (IllegalArgumentException e) {
+					// unknown colour, the text keeps the default one
+				}
+				break;
+			case SpannedText.SPAN_LINK:
+				setSpan(builder, new URLSpan(value), start, end);
+				break;
+			case SpannedText.SPAN_IMAGE:
+				Drawable image = imageGetter.getDrawable(value);
+				if(image != null) {
+					setSpan(builder, new ImageSpan(image, value), start, end);
+				}
+				break;
+			case SpannedText.SPAN_SOUND:
+				Drawable button = context.getResources().getDrawable(R.drawable.ic_audio_vol);
+				button.setBounds(0, 0, button.getIntrinsicWidth(), button.getIntrinsicHeight());
+				setSpan(builder, new ImageSpan(button, value), start, end);
+				setSpan(builder, new AudioButtonSpan(value, lexicalEntry), start, end);
+				break;
+			case SpannedText.SPAN_INDENT:
+				setSpan(builder, new LeadingMarginSpan.Standard(indent), start, end);
+				break;
+			case SpannedText.SPAN_STRIKETHROUGH:
+				setSpan(builder, new StrikethroughSpan(), start, end);
+				break;
+			case SpannedText.SPAN_RELATIVE_SIZE:
+				setSpan(builder, new RelativeSizeSpan(Float.parseFloat(value)), start, end);
+				break;
+			case SpannedText.SPAN_TYPEFACE:
+				setSpan(builder, new TypefaceSpan(value), start, end);
+				break;
+			default:
+				break;
+			}
+		}
+		return builder;
+	}
+
+	private static void setSpan(SpannableStringBuilder builder, Object span,
+			int start, int end) {
+		builder.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+	}
+}